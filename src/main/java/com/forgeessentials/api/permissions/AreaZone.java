@@ -144,6 +144,8 @@ public class AreaZone extends Zone implements Comparable<AreaZone>
         else
             this.shape = shape;
         setDirty();
+        if (worldZone != null)
+            worldZone.invalidateAreaZoneIndex();
     }
 
     public int getPriority()
@@ -155,6 +157,7 @@ public class AreaZone extends Zone implements Comparable<AreaZone>
     {
         this.priority = priority;
         setDirty();
+        getWorldZone().sortAreaZones();
     }
 
     @Override
@@ -0,0 +1,209 @@
+package com.forgeessentials.api.permissions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import com.forgeessentials.commons.selections.AreaBase;
+import com.forgeessentials.commons.selections.AreaShape;
+import com.forgeessentials.commons.selections.WorldArea;
+import com.forgeessentials.commons.selections.WorldPoint;
+
+/**
+ * Chunk-grid index over the {@link AreaZone}s of a {@link WorldZone}.
+ *
+ * Every zone is registered in the grid cells (16x16 columns) its bounding box covers. Zones spanning more than
+ * {@link #MAX_CELLS_PER_ZONE} cells are kept in a separate list that is checked for every query. Query results keep the
+ * order of {@link WorldZone#getAreaZones()}, which is the priority order established by
+ * {@link WorldZone#sortAreaZones()}.
+ *
+ * The index is rebuilt lazily on the first query after it got invalidated.
+ */
+class AreaZoneIndex
+{
+
+    public static final int CELL_SHIFT = 4;
+
+    public static final int MAX_CELLS_PER_ZONE = 1024;
+
+    public static final int WORLD_HEIGHT = 256;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final WorldZone worldZone;
+
+    private volatile Snapshot snapshot;
+
+    private volatile int revision;
+
+    private static class Snapshot
+    {
+
+        /**
+         * All zones in priority order. Cells reference zones by their index in this array.
+         */
+        final AreaZone[] zones;
+
+        final Long2ObjectMap<int[]> cells;
+
+        final int[] largeZones;
+
+        Snapshot(List<AreaZone> areaZones)
+        {
+            zones = areaZones.toArray(new AreaZone[areaZones.size()]);
+            Long2ObjectMap<IntArrayList> cellLists = new Long2ObjectOpenHashMap<>();
+            IntArrayList large = new IntArrayList();
+            for (int i = 0; i < zones.length; i++)
+            {
+                AreaBase area = zones[i].getArea();
+                if (area == null)
+                {
+                    large.add(i);
+                    continue;
+                }
+                int minX = area.getLowPoint().getX() >> CELL_SHIFT;
+                int minZ = area.getLowPoint().getZ() >> CELL_SHIFT;
+                int maxX = area.getHighPoint().getX() >> CELL_SHIFT;
+                int maxZ = area.getHighPoint().getZ() >> CELL_SHIFT;
+                if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > MAX_CELLS_PER_ZONE)
+                {
+                    large.add(i);
+                    continue;
+                }
+                for (int cx = minX; cx <= maxX; cx++)
+                    for (int cz = minZ; cz <= maxZ; cz++)
+                    {
+                        long key = cellKey(cx, cz);
+                        IntArrayList list = cellLists.get(key);
+                        if (list == null)
+                        {
+                            list = new IntArrayList(2);
+                            cellLists.put(key, list);
+                        }
+                        list.add(i);
+                    }
+            }
+            cells = new Long2ObjectOpenHashMap<>(cellLists.size());
+            for (Long2ObjectMap.Entry<IntArrayList> cell : cellLists.long2ObjectEntrySet())
+                cells.put(cell.getLongKey(), cell.getValue().toIntArray());
+            largeZones = large.toIntArray();
+        }
+
+        int[] getCell(int x, int z)
+        {
+            int[] cell = cells.get(cellKey(x >> CELL_SHIFT, z >> CELL_SHIFT));
+            return cell == null ? EMPTY : cell;
+        }
+
+    }
+
+    AreaZoneIndex(WorldZone worldZone)
+    {
+        this.worldZone = worldZone;
+    }
+
+    static long cellKey(int cx, int cz)
+    {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    public void invalidate()
+    {
+        snapshot = null;
+        revision++;
+    }
+
+    /**
+     * Returns a counter that changes every time the set, order or bounds of the indexed zones changed
+     */
+    public int getRevision()
+    {
+        return revision;
+    }
+
+    private Snapshot getSnapshot()
+    {
+        Snapshot s = snapshot;
+        if (s == null)
+        {
+            s = new Snapshot(new ArrayList<>(worldZone.getAreaZones()));
+            snapshot = s;
+        }
+        return s;
+    }
+
+    /**
+     * Adds all zones containing the point or entirely containing the area to the result list in priority order
+     */
+    public void getZonesAt(List<? super AreaZone> result, WorldPoint point, WorldArea area)
+    {
+        Snapshot s = getSnapshot();
+        int[] cell;
+        if (point != null)
+            cell = s.getCell(point.getX(), point.getZ());
+        else if (area != null)
+            // A zone containing the whole area must also contain its lowest corner
+            cell = s.getCell(area.getLowPoint().getX(), area.getLowPoint().getZ());
+        else
+            return;
+
+        // Merge the cell and large zone lists, which are both sorted by priority
+        int[] large = s.largeZones;
+        int i = 0, j = 0;
+        while (i < cell.length || j < large.length)
+        {
+            int index;
+            if (j >= large.length || i < cell.length && cell[i] < large[j])
+                index = cell[i++];
+            else
+                index = large[j++];
+            AreaZone zone = s.zones[index];
+            if (point != null ? zone.isInZone(point) : zone.isInZone(area))
+                result.add(zone);
+        }
+    }
+
+    /**
+     * Checks, if every block in the chunk column resolves to the same set of area zones. This is the case if each zone
+     * either covers the whole column or does not touch it at all.
+     */
+    public boolean isUniformCell(int cellX, int cellZ)
+    {
+        Snapshot s = getSnapshot();
+        int[] cell = s.cells.get(cellKey(cellX, cellZ));
+        if (cell != null)
+            for (int index : cell)
+                if (!coversCell(s.zones[index], cellX, cellZ))
+                    return false;
+        for (int index : s.largeZones)
+            if (intersectsCell(s.zones[index], cellX, cellZ) && !coversCell(s.zones[index], cellX, cellZ))
+                return false;
+        return true;
+    }
+
+    private static boolean coversCell(AreaZone zone, int cellX, int cellZ)
+    {
+        AreaBase area = zone.getArea();
+        if (area == null || zone.getShape() != AreaShape.BOX)
+            return false;
+        int minX = cellX << CELL_SHIFT;
+        int minZ = cellZ << CELL_SHIFT;
+        int size = 1 << CELL_SHIFT;
+        return area.getLowPoint().getX() <= minX && area.getHighPoint().getX() >= minX + size - 1 //
+                && area.getLowPoint().getZ() <= minZ && area.getHighPoint().getZ() >= minZ + size - 1 //
+                && area.getLowPoint().getY() <= 0 && area.getHighPoint().getY() >= WORLD_HEIGHT - 1;
+    }
+
+    private static boolean intersectsCell(AreaZone zone, int cellX, int cellZ)
+    {
+        AreaBase area = zone.getArea();
+        if (area == null)
+            return true;
+        return (area.getLowPoint().getX() >> CELL_SHIFT) <= cellX && (area.getHighPoint().getX() >> CELL_SHIFT) >= cellX //
+                && (area.getLowPoint().getZ() >> CELL_SHIFT) <= cellZ && (area.getHighPoint().getZ() >> CELL_SHIFT) >= cellZ;
+    }
+
+}
@@ -1,10 +1,13 @@
 package com.forgeessentials.api.permissions;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.SortedSet;
+import java.util.function.Function;
 
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.BlockPos;
 import net.minecraftforge.server.permission.DefaultPermissionLevel;
 import net.minecraftforge.server.permission.IPermissionHandler;
 
@@ -174,6 +177,20 @@ public interface IPermissionsHelper extends IPermissionHandler
      */
     String getUserPermissionProperty(UserIdent ident, WorldPoint targetPoint, String permissionNode);
 
+    /**
+     * Checks a permission for a player at many positions in one world at once (e.g. all blocks affected by an
+     * explosion). Positions are grouped by the zones they are located in and by their permission node, so each distinct
+     * combination is only resolved once.
+     * 
+     * @param ident
+     * @param dimension
+     * @param positions
+     * @param permissionNodes
+     *            Provides the permission node to check for each position
+     * @return the indices of all positions for which the permission is granted
+     */
+    BitSet checkUserPermissions(UserIdent ident, int dimension, List<BlockPos> positions, Function<BlockPos, String> permissionNodes);
+
     // ---------------------------------------------------------------------------
 
     /**
@@ -0,0 +1,348 @@
+package com.forgeessentials.api.permissions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import net.minecraft.world.GameType;
+
+import com.forgeessentials.api.UserIdent;
+
+/**
+ * Memoizes the results of {@link ServerZone#getPermission} and {@link ServerZone#getPermissionProperty}.
+ *
+ * Results are keyed by the user, the resolved group list, the zone chain and the permission node. Any change to the
+ * permission tree must call {@link #invalidate()}, which happens automatically through {@link Zone#setDirty()} and
+ * {@link PermissionEvent}s.
+ *
+ * The cache also holds the effective groups of each player (see {@link ServerZone#getPlayerGroups}) and the compiled
+ * group include / parent graph, which are dropped by the same invalidation.
+ */
+public class PermissionCache
+{
+
+    public static final int DEFAULT_MAX_SIZE = 1 << 16;
+
+    private final Map<Key, Entry> cache = new ConcurrentHashMap<>();
+
+    private final Map<GroupKey, SortedSet<GroupEntry>> playerGroups = new ConcurrentHashMap<>();
+
+    private final Map<String, GroupNode> groupNodes = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private boolean enabled = true;
+
+    // ------------------------------------------------------------
+
+    public static class Key
+    {
+
+        private final UserIdent ident;
+
+        private final List<String> groups;
+
+        private final List<Zone> zones;
+
+        private final String node;
+
+        private final boolean isProperty;
+
+        private final int hashCode;
+
+        private Key(UserIdent ident, List<String> groups, List<Zone> zones, String node, boolean isProperty)
+        {
+            this.ident = ident;
+            this.groups = groups;
+            this.zones = zones;
+            this.node = node;
+            this.isProperty = isProperty;
+            int h = node.hashCode();
+            h = 31 * h + (ident == null ? 0 : ident.hashCode());
+            h = 31 * h + (groups == null ? 0 : groups.hashCode());
+            h = 31 * h + zones.hashCode();
+            this.hashCode = isProperty ? ~h : h;
+        }
+
+        /**
+         * Creates a copy of this key that does not reference any collections owned by the caller
+         */
+        private Key detach()
+        {
+            return new Key(ident, groups == null ? null : new ArrayList<>(groups), new ArrayList<>(zones), node, isProperty);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return hashCode == other.hashCode && isProperty == other.isProperty && node.equals(other.node) //
+                    && (ident == null ? other.ident == null : ident.equals(other.ident)) //
+                    && (groups == null ? other.groups == null : groups.equals(other.groups)) //
+                    && zones.equals(other.zones);
+        }
+
+    }
+
+    /**
+     * Result of a permission lookup including the information required to replay the permission debugger
+     */
+    public static class Entry
+    {
+
+        public final String value;
+
+        public final Zone zone;
+
+        public final String group;
+
+        public final String node;
+
+        public final boolean isGroupPermission;
+
+        public Entry(String value, Zone zone, String group, String node, boolean isGroupPermission)
+        {
+            this.value = value;
+            this.zone = zone;
+            this.group = group;
+            this.node = node;
+            this.isGroupPermission = isGroupPermission;
+        }
+
+    }
+
+    /**
+     * Key of the effective groups of a player: The stored groups only change through permission changes, so besides the
+     * player only the zones they are in, their gamemode and op status are relevant.
+     */
+    public static class GroupKey
+    {
+
+        private final UserIdent ident;
+
+        private final List<Zone> zones;
+
+        private final GameType gameType;
+
+        private final boolean isOp;
+
+        private final int hashCode;
+
+        public GroupKey(UserIdent ident, List<Zone> zones, GameType gameType, boolean isOp)
+        {
+            this.ident = ident;
+            this.zones = zones;
+            this.gameType = gameType;
+            this.isOp = isOp;
+            int h = ident == null ? 0 : ident.hashCode();
+            h = 31 * h + zones.hashCode();
+            h = 31 * h + (gameType == null ? 0 : gameType.hashCode());
+            this.hashCode = isOp ? ~h : h;
+        }
+
+        private GroupKey detach()
+        {
+            return new GroupKey(ident, new ArrayList<>(zones), gameType, isOp);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof GroupKey))
+                return false;
+            GroupKey other = (GroupKey) obj;
+            return hashCode == other.hashCode && isOp == other.isOp && gameType == other.gameType //
+                    && (ident == null ? other.ident == null : ident.equals(other.ident)) //
+                    && zones.equals(other.zones);
+        }
+
+    }
+
+    /**
+     * Group with its priority and the included and parent groups already parsed from the group permissions
+     */
+    public static class GroupNode
+    {
+
+        public final String group;
+
+        public final int priority;
+
+        public final String[] includes;
+
+        public final String[] parents;
+
+        public GroupNode(String group, int priority, String[] includes, String[] parents)
+        {
+            this.group = group;
+            this.priority = priority;
+            this.includes = includes;
+            this.parents = parents;
+        }
+
+    }
+
+    // ------------------------------------------------------------
+
+    public Key createKey(UserIdent ident, List<String> groups, Collection<Zone> zones, String node, boolean isProperty)
+    {
+        if (!enabled)
+            return null;
+        List<Zone> zoneList = zones instanceof List ? (List<Zone>) zones : new ArrayList<>(zones);
+        return new Key(ident, groups, zoneList, node, isProperty);
+    }
+
+    public Entry get(Key key)
+    {
+        if (key == null)
+            return null;
+        Entry entry = cache.get(key);
+        if (entry == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return entry;
+    }
+
+    public void put(Key key, Entry entry)
+    {
+        if (key == null)
+            return;
+        if (cache.size() >= maxSize)
+            cache.clear();
+        cache.put(key.detach(), entry);
+    }
+
+    public SortedSet<GroupEntry> getPlayerGroups(GroupKey key)
+    {
+        if (!enabled)
+            return null;
+        return playerGroups.get(key);
+    }
+
+    public void putPlayerGroups(GroupKey key, SortedSet<GroupEntry> groups)
+    {
+        if (!enabled)
+            return;
+        if (playerGroups.size() >= maxSize)
+            playerGroups.clear();
+        playerGroups.put(key.detach(), groups);
+    }
+
+    /**
+     * Returns the compiled node of a group, creating it with the passed function if it is not cached yet
+     */
+    public GroupNode getGroupNode(String group, Function<String, GroupNode> compiler)
+    {
+        if (!enabled)
+            return compiler.apply(group);
+        return groupNodes.computeIfAbsent(group, compiler);
+    }
+
+    public void invalidate()
+    {
+        playerGroups.clear();
+        groupNodes.clear();
+        if (cache.isEmpty())
+            return;
+        cache.clear();
+        invalidations.incrementAndGet();
+    }
+
+    public void resetStatistics()
+    {
+        hits.set(0);
+        misses.set(0);
+        invalidations.set(0);
+    }
+
+    // ------------------------------------------------------------
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+        if (!enabled)
+        {
+            cache.clear();
+            playerGroups.clear();
+            groupNodes.clear();
+        }
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize)
+    {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    public int size()
+    {
+        return cache.size();
+    }
+
+    public int getPlayerGroupsSize()
+    {
+        return playerGroups.size();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getInvalidations()
+    {
+        return invalidations.get();
+    }
+
+    public double getHitRatio()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+}
@@ -1,15 +1,35 @@
 package com.forgeessentials.api.permissions;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
 import net.minecraftforge.fml.common.eventhandler.Event;
+import net.minecraftforge.fml.common.eventhandler.EventBus;
+import net.minecraftforge.fml.common.eventhandler.ListenerList;
+import net.minecraftforge.fml.relauncher.ReflectionHelper;
 
+import com.forgeessentials.api.APIRegistry;
 import com.forgeessentials.api.UserIdent;
 
+/**
+ * Posted for permission and property checks, before the permission tree is consulted.
+ *
+ * The event is only created if at least one {@link PermissionCheckHook} is active or a handler for it is registered on
+ * the FE event bus. Hooks avoid the overhead of posting the event to the bus.
+ */
 public class PermissionCheckEvent extends Event
 {
 
+    private static volatile PermissionCheckHook[] hooks = new PermissionCheckHook[0];
+
+    private static ListenerList busListeners;
+
+    /**
+     * Id of the FE event bus in the listener lists. -1 if it was not looked up yet, -2 if the lookup failed.
+     */
+    private static volatile int busId = -1;
+
     public final UserIdent ident;
 
     public final Collection<Zone> zones;
@@ -31,4 +51,82 @@ public class PermissionCheckEvent extends Event
         this.isProperty = isProperty;
     }
 
+    // ------------------------------------------------------------
+
+    public static synchronized void registerHook(PermissionCheckHook hook)
+    {
+        for (PermissionCheckHook h : hooks)
+            if (h == hook)
+                return;
+        PermissionCheckHook[] newHooks = Arrays.copyOf(hooks, hooks.length + 1);
+        newHooks[hooks.length] = hook;
+        hooks = newHooks;
+    }
+
+    public static synchronized void unregisterHook(PermissionCheckHook hook)
+    {
+        PermissionCheckHook[] newHooks = new PermissionCheckHook[hooks.length];
+        int count = 0;
+        for (PermissionCheckHook h : hooks)
+            if (h != hook)
+                newHooks[count++] = h;
+        hooks = Arrays.copyOf(newHooks, count);
+    }
+
+    /**
+     * Returns true, if any registered hook needs to see permission checks
+     */
+    public static boolean hasActiveHooks()
+    {
+        PermissionCheckHook[] currentHooks = hooks;
+        for (int i = 0; i < currentHooks.length; i++)
+            if (currentHooks[i].isActive())
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns true, if any handler for this event is registered on the FE event bus
+     */
+    public static boolean hasBusListeners()
+    {
+        int id = busId;
+        if (id == -1)
+        {
+            try
+            {
+                busListeners = new PermissionCheckEvent(null, null, null, null, false).getListenerList();
+                id = ReflectionHelper.<Integer, EventBus> getPrivateValue(EventBus.class, APIRegistry.FE_EVENTBUS, "busID");
+            }
+            catch (RuntimeException e)
+            {
+                id = -2;
+            }
+            busId = id;
+        }
+        // Cannot tell without the bus id, so always post the event
+        if (id < 0)
+            return true;
+        return busListeners.getListeners(id).length > 0;
+    }
+
+    /**
+     * Returns true, if permission checks need to create and post this event
+     */
+    public static boolean hasHandlers()
+    {
+        return hasActiveHooks() || hasBusListeners();
+    }
+
+    /**
+     * Passes the event to all active hooks
+     */
+    public void callHooks()
+    {
+        PermissionCheckHook[] currentHooks = hooks;
+        for (int i = 0; i < currentHooks.length; i++)
+            if (currentHooks[i].isActive())
+                currentHooks[i].checkPermission(this);
+    }
+
 }
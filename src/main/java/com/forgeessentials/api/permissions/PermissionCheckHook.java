@@ -0,0 +1,19 @@
+package com.forgeessentials.api.permissions;
+
+/**
+ * Hook that can modify the groups used for, or override the result of, permission checks.
+ *
+ * Hooks are registered with {@link PermissionCheckEvent#registerHook(PermissionCheckHook)}. As long as no hook is
+ * active, permission checks do not create a {@link PermissionCheckEvent} at all.
+ */
+public interface PermissionCheckHook
+{
+
+    /**
+     * Returns true, if the hook needs to be called for permission checks
+     */
+    boolean isActive();
+
+    void checkPermission(PermissionCheckEvent event);
+
+}
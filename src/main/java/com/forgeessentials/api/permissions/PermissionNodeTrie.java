@@ -0,0 +1,212 @@
+package com.forgeessentials.api.permissions;
+
+/**
+ * Index of all wildcard permission nodes (like {@code fe.commands.*} or {@code *}) of a {@link Zone.PermissionList}.
+ *
+ * Each dot-separated segment of a node is a level in the trie, so the most specific wildcard matching a permission can
+ * be found with a single descent that does not allocate any strings.
+ */
+public final class PermissionNodeTrie
+{
+
+    public static final class Node
+    {
+
+        private static final int INITIAL_CAPACITY = 4;
+
+        private String[] childKeys;
+
+        private Node[] children;
+
+        private int childCount;
+
+        private String node;
+
+        private String value;
+
+        /**
+         * Returns the full wildcard permission node stored at this level (e.g. {@code fe.commands.*})
+         */
+        public String getNode()
+        {
+            return node;
+        }
+
+        public String getValue()
+        {
+            return value;
+        }
+
+        private Node getChild(String str, int start, int end)
+        {
+            if (childKeys == null)
+                return null;
+            int len = end - start;
+            int mask = childKeys.length - 1;
+            for (int i = hash(str, start, end) & mask;; i = (i + 1) & mask)
+            {
+                String key = childKeys[i];
+                if (key == null)
+                    return null;
+                if (key.length() == len && key.regionMatches(0, str, start, len))
+                    return children[i];
+            }
+        }
+
+        private Node getOrCreateChild(String str, int start, int end)
+        {
+            Node child = getChild(str, start, end);
+            if (child != null)
+                return child;
+            if (childKeys == null)
+            {
+                childKeys = new String[INITIAL_CAPACITY];
+                children = new Node[INITIAL_CAPACITY];
+            }
+            else if ((childCount + 1) * 2 > childKeys.length)
+            {
+                String[] oldKeys = childKeys;
+                Node[] oldChildren = children;
+                childKeys = new String[oldKeys.length * 2];
+                children = new Node[oldKeys.length * 2];
+                for (int i = 0; i < oldKeys.length; i++)
+                    if (oldKeys[i] != null)
+                        insertChild(oldKeys[i], oldChildren[i]);
+            }
+            child = new Node();
+            insertChild(str.substring(start, end).intern(), child);
+            childCount++;
+            return child;
+        }
+
+        private void insertChild(String key, Node child)
+        {
+            int mask = childKeys.length - 1;
+            int i = hash(key, 0, key.length()) & mask;
+            while (childKeys[i] != null)
+                i = (i + 1) & mask;
+            childKeys[i] = key;
+            children[i] = child;
+        }
+
+        private static int hash(String str, int start, int end)
+        {
+            int h = 0;
+            for (int i = start; i < end; i++)
+                h = 31 * h + str.charAt(i);
+            return h ^ (h >>> 16);
+        }
+
+    }
+
+    private Node root = new Node();
+
+    private int size;
+
+    // ------------------------------------------------------------
+
+    /**
+     * Checks, if a permission node is a wildcard node which gets stored in the trie
+     */
+    public static boolean isWildcard(String permissionNode)
+    {
+        return permissionNode.equals(Zone.PERMISSION_ASTERIX) || permissionNode.endsWith(Zone.ALL_PERMS);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void clear()
+    {
+        root = new Node();
+        size = 0;
+    }
+
+    /**
+     * Stores a wildcard node. Non-wildcard nodes are ignored.
+     */
+    public void put(String permissionNode, String value)
+    {
+        if (value == null)
+        {
+            remove(permissionNode);
+            return;
+        }
+        Node node = findWildcardNode(permissionNode, true);
+        if (node == null)
+            return;
+        if (node.value == null)
+            size++;
+        node.node = permissionNode;
+        node.value = value;
+    }
+
+    public void remove(String permissionNode)
+    {
+        Node node = findWildcardNode(permissionNode, false);
+        if (node == null || node.value == null)
+            return;
+        node.node = null;
+        node.value = null;
+        size--;
+    }
+
+    private Node findWildcardNode(String permissionNode, boolean create)
+    {
+        if (!isWildcard(permissionNode))
+            return null;
+        Node node = root;
+        if (permissionNode.length() == 1)
+            return node;
+        int end = permissionNode.length() - Zone.ALL_PERMS.length();
+        int start = 0;
+        while (true)
+        {
+            int dot = permissionNode.indexOf('.', start);
+            if (dot < 0 || dot > end)
+                dot = end;
+            node = create ? node.getOrCreateChild(permissionNode, start, dot) : node.getChild(permissionNode, start, dot);
+            if (node == null || dot >= end)
+                return node;
+            start = dot + 1;
+        }
+    }
+
+    /**
+     * Finds the most specific wildcard node that grants the passed permission node. For {@code a.b.c} the nodes
+     * {@code a.b.c.*}, {@code a.b.*}, {@code a.*} and {@code *} are checked in this order.
+     *
+     * @return the matching trie node or null, if no wildcard matches
+     */
+    public Node resolve(String permissionNode)
+    {
+        Node best = root.value != null ? root : null;
+        int len = permissionNode.length();
+        // Ignore trailing dots, like String.split does
+        int end = len;
+        while (end > 0 && permissionNode.charAt(end - 1) == '.')
+            end--;
+        if (end == 0 && len > 0)
+            return best;
+
+        Node node = root;
+        int start = 0;
+        while (true)
+        {
+            int dot = permissionNode.indexOf('.', start);
+            if (dot < 0 || dot > end)
+                dot = end;
+            node = node.getChild(permissionNode, start, dot);
+            if (node == null)
+                return best;
+            if (node.value != null)
+                best = node;
+            if (dot >= end)
+                return best;
+            start = dot + 1;
+        }
+    }
+
+}
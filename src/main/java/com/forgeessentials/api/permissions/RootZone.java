@@ -84,6 +84,8 @@ public class RootZone extends Zone
     @Override
     public void setDirty()
     {
+        if (serverZone != null)
+            serverZone.getPermissionCache().invalidate();
         permissionHelper.setDirty(true);
     }
 
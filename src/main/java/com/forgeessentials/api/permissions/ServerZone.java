@@ -3,6 +3,7 @@ package com.forgeessentials.api.permissions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -15,6 +16,7 @@ import java.util.TreeSet;
 
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.GameType;
 import net.minecraft.world.World;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 
@@ -22,9 +24,12 @@ import org.apache.commons.lang3.StringUtils;
 
 import com.forgeessentials.api.APIRegistry;
 import com.forgeessentials.api.UserIdent;
+import com.forgeessentials.api.permissions.PermissionCache.GroupKey;
+import com.forgeessentials.api.permissions.PermissionCache.GroupNode;
 import com.forgeessentials.commons.selections.WorldArea;
 import com.forgeessentials.commons.selections.WorldPoint;
 import com.forgeessentials.data.v2.Loadable;
+import com.forgeessentials.util.ServerUtil;
 import com.google.gson.annotations.Expose;
 
 /**
@@ -49,12 +54,21 @@ public class ServerZone extends Zone implements Loadable
     @Expose(serialize = false)
     private Set<UserIdent> knownPlayers = new HashSet<UserIdent>();
 
+    @Expose(serialize = false)
+    private PermissionCache permissionCache = new PermissionCache();
+
     // ------------------------------------------------------------
 
     public ServerZone()
+    {
+        this(true);
+    }
+
+    private ServerZone(boolean initialize)
     {
         super(1);
-        APIRegistry.getFEEventBus().post(new PermissionEvent.Initialize(this));
+        if (initialize)
+            APIRegistry.getFEEventBus().post(new PermissionEvent.Initialize(this));
         addZone(this);
     }
 
@@ -67,6 +81,23 @@ public class ServerZone extends Zone implements Loadable
         addZone(this.rootZone);
     }
 
+    /**
+     * Creates an empty server zone to deserialize a snapshot into, without posting {@link PermissionEvent.Initialize}
+     */
+    public static ServerZone createSnapshotZone()
+    {
+        return new ServerZone(false);
+    }
+
+    /**
+     * Copies the state of another server zone that is not serialized (zone ids and known players) into this one
+     */
+    public void copySnapshotState(ServerZone serverZone)
+    {
+        maxZoneID = serverZone.maxZoneID;
+        knownPlayers = new HashSet<UserIdent>(serverZone.knownPlayers);
+    }
+
     @Override
     public void afterLoad()
     {
@@ -194,10 +225,9 @@ public class ServerZone extends Zone implements Loadable
 
     // ------------------------------------------------------------
 
-    public Set<String> getIncludedGroups(String group)
+    private static List<String> parseGroupList(String groupsStr)
     {
-        Set<String> result = new HashSet<>();
-        String groupsStr = getGroupPermission(group, FEPermissions.GROUP_INCLUDES);
+        List<String> result = new ArrayList<>();
         if (groupsStr != null && !groupsStr.isEmpty())
             for (String g : groupsStr.replaceAll(" ", "").split(","))
                 if (!g.isEmpty())
@@ -205,6 +235,11 @@ public class ServerZone extends Zone implements Loadable
         return result;
     }
 
+    public Set<String> getIncludedGroups(String group)
+    {
+        return new HashSet<>(parseGroupList(getGroupPermission(group, FEPermissions.GROUP_INCLUDES)));
+    }
+
     public void groupIncludeAdd(String group, String otherGroup)
     {
         Set<String> groups = getIncludedGroups(group);
@@ -223,29 +258,40 @@ public class ServerZone extends Zone implements Loadable
 
     public Set<String> getParentedGroups(String group)
     {
-        Set<String> result = new HashSet<>();
-        String groupsStr = getGroupPermission(group, FEPermissions.GROUP_PARENTS);
-        if (groupsStr != null && !groupsStr.isEmpty())
-            for (String g : groupsStr.replaceAll(" ", "").split(","))
-                if (!g.isEmpty())
-                    result.add(g);
-        return result;
+        return new HashSet<>(parseGroupList(getGroupPermission(group, FEPermissions.GROUP_PARENTS)));
     }
 
     public void groupParentAdd(String group, String otherGroup)
     {
-        Set<String> groups = getIncludedGroups(group);
+        Set<String> groups = getParentedGroups(group);
         groups.add(otherGroup);
         APIRegistry.perms.setGroupPermissionProperty(group, FEPermissions.GROUP_PARENTS, StringUtils.join(groups, ","));
     }
 
     public void groupParentRemove(String group, String otherGroup)
     {
-        Set<String> groups = getIncludedGroups(group);
+        Set<String> groups = getParentedGroups(group);
         groups.remove(otherGroup);
         APIRegistry.perms.setGroupPermissionProperty(group, FEPermissions.GROUP_PARENTS, StringUtils.join(groups, ","));
     }
 
+    /**
+     * Returns the group with its priority, includes and parents parsed from the group permissions. The result is cached
+     * until the next permission change.
+     */
+    public GroupNode getGroupNode(String group)
+    {
+        return permissionCache.getGroupNode(group, this::compileGroup);
+    }
+
+    private GroupNode compileGroup(String group)
+    {
+        int priority = ServerUtil.parseIntDefault(getGroupPermission(group, FEPermissions.GROUP_PRIORITY), FEPermissions.GROUP_PRIORITY_DEFAULT);
+        List<String> includes = parseGroupList(getGroupPermission(group, FEPermissions.GROUP_INCLUDES));
+        List<String> parents = parseGroupList(getGroupPermission(group, FEPermissions.GROUP_PARENTS));
+        return new GroupNode(group, priority, includes.toArray(new String[includes.size()]), parents.toArray(new String[parents.size()]));
+    }
+
     // ------------------------------------------------------------
 
     @Override
@@ -263,6 +309,7 @@ public class ServerZone extends Zone implements Loadable
             if (APIRegistry.getFEEventBus().post(new PermissionEvent.User.ModifyGroups(this, ident, PermissionEvent.User.ModifyGroups.Action.ADD, group)))
                 return false;
             groupSet.add(group);
+            setDirty();
         }
         return true;
     }
@@ -319,51 +366,82 @@ public class ServerZone extends Zone implements Loadable
     }
 
     public SortedSet<GroupEntry> getAdditionalPlayerGroups(UserIdent ident, WorldPoint point)
+    {
+        if (point == null && ident != null && ident.hasPlayer())
+            point = new WorldPoint(ident.getPlayer());
+        return getAdditionalPlayerGroups(ident, getGroupZonesAt(ident, point), isOperator(ident), getGameType(ident));
+    }
+
+    private SortedSet<GroupEntry> getAdditionalPlayerGroups(UserIdent ident, List<Zone> zones, boolean isOp, GameType gameType)
     {
         SortedSet<GroupEntry> result = getStoredPlayerGroupEntries(ident);
         if (ident != null)
         {
             // Include special groups
-            if (FMLCommonHandler.instance().getMinecraftServerInstance().getPlayerList().canSendCommands(ident.getGameProfile()))
+            if (isOp)
             {
-                result.add(new GroupEntry(this, GROUP_OPERATORS));
+                result.add(createGroupEntry(GROUP_OPERATORS));
             }
             if (ident.isFakePlayer())
             {
-                result.add(new GroupEntry(this, GROUP_FAKEPLAYERS));
+                result.add(createGroupEntry(GROUP_FAKEPLAYERS));
             }
             if (result.isEmpty() && ident.isPlayer())
-                result.add(new GroupEntry(this, GROUP_GUESTS));
+                result.add(createGroupEntry(GROUP_GUESTS));
             if (!ident.isFakePlayer())
                 result.add(new GroupEntry(GROUP_PLAYERS, 1, 1));
             if (ident.isNpc())
                 result.add(new GroupEntry(GROUP_NPC, 1, 1));
 
-            EntityPlayerMP player = ident.getPlayerMP();
-            if (player != null && player.interactionManager != null)
-                switch (player.interactionManager.getGameType())
+            if (gameType != null)
+                switch (gameType)
                 {
                 case ADVENTURE:
-                    result.add(new GroupEntry(this, GROUP_ADVENTURE));
+                    result.add(createGroupEntry(GROUP_ADVENTURE));
                     break;
                 case CREATIVE:
-                    result.add(new GroupEntry(this, GROUP_CREATIVE));
+                    result.add(createGroupEntry(GROUP_CREATIVE));
                     break;
                 default:
                     break;
                 }
         }
         // Check groups added through zones
-        if (point == null && ident != null && ident.hasPlayer())
-            point = new WorldPoint(ident.getPlayer());
-        if (ident != null && point != null)
-            for (Zone z : getZonesAt(point))
-                if (!(z instanceof ServerZone))
-                    result.addAll(z.getStoredPlayerGroupEntries(ident));
+        for (Zone z : zones)
+            if (!(z instanceof ServerZone))
+                result.addAll(z.getStoredPlayerGroupEntries(ident));
         result.add(new GroupEntry(GROUP_DEFAULT, -1, -1));
         return result;
     }
 
+    private GroupEntry createGroupEntry(String group)
+    {
+        return new GroupEntry(group, getGroupNode(group).priority);
+    }
+
+    /**
+     * Returns the zones which can add groups to the player at the given point
+     */
+    private List<Zone> getGroupZonesAt(UserIdent ident, WorldPoint point)
+    {
+        if (ident == null || point == null)
+            return Collections.emptyList();
+        return getZonesAt(point);
+    }
+
+    private static boolean isOperator(UserIdent ident)
+    {
+        return ident != null && FMLCommonHandler.instance().getMinecraftServerInstance().getPlayerList().canSendCommands(ident.getGameProfile());
+    }
+
+    private static GameType getGameType(UserIdent ident)
+    {
+        EntityPlayerMP player = ident == null ? null : ident.getPlayerMP();
+        if (player == null || player.interactionManager == null)
+            return null;
+        return player.interactionManager.getGameType();
+    }
+
     public SortedSet<GroupEntry> includeGroups(SortedSet<GroupEntry> groups)
     {
         // Get included groups
@@ -372,26 +450,16 @@ public class ServerZone extends Zone implements Loadable
         do
         {
             addedGroup = false;
-            for (GroupEntry existingGroup : new ArrayList<GroupEntry>(groups))
+            for (GroupEntry existingGroup : groups.toArray(new GroupEntry[groups.size()]))
             {
                 // Check if group was already checked for inclusion
                 if (!checkedGroups.add(existingGroup.getGroup()))
                     continue;
-                String p = getGroupPermission(existingGroup.getGroup(), FEPermissions.GROUP_INCLUDES);
-                if (p != null)
-                {
-                    for (String group : p.replaceAll(" ", "").split(","))
-                        if (!group.isEmpty())
-                            addedGroup |= groups.add(new GroupEntry(this, group));
-                }
-
-                p = getGroupPermission(existingGroup.getGroup(), FEPermissions.GROUP_PARENTS);
-                if (p != null)
-                {
-                    for (String group : p.replaceAll(" ", "").split(","))
-                        if (!group.isEmpty())
-                            addedGroup |= groups.add(new GroupEntry(this, group, existingGroup.getPriority()));
-                }
+                GroupNode node = getGroupNode(existingGroup.getGroup());
+                for (String group : node.includes)
+                    addedGroup |= groups.add(new GroupEntry(group, getGroupNode(group).priority));
+                for (String group : node.parents)
+                    addedGroup |= groups.add(new GroupEntry(group, existingGroup.getPriority(), getGroupNode(group).priority));
             }
         }
         while (addedGroup);
@@ -399,9 +467,26 @@ public class ServerZone extends Zone implements Loadable
         return groups;
     }
 
+    /**
+     * Returns the effective groups of a player including all included and parent groups. The result is cached by the
+     * player, the zones at the point, gamemode and op status and must not be modified.
+     */
     public SortedSet<GroupEntry> getPlayerGroups(UserIdent ident, WorldPoint point)
     {
-        return includeGroups(getAdditionalPlayerGroups(ident, point));
+        if (point == null && ident != null && ident.hasPlayer())
+            point = new WorldPoint(ident.getPlayer());
+        List<Zone> zones = getGroupZonesAt(ident, point);
+        boolean isOp = isOperator(ident);
+        GameType gameType = getGameType(ident);
+
+        GroupKey key = new GroupKey(ident, zones, gameType, isOp);
+        SortedSet<GroupEntry> groups = permissionCache.getPlayerGroups(key);
+        if (groups == null)
+        {
+            groups = Collections.unmodifiableSortedSet(includeGroups(getAdditionalPlayerGroups(ident, zones, isOp, gameType)));
+            permissionCache.putPlayerGroups(key, groups);
+        }
+        return groups;
     }
 
     public SortedSet<GroupEntry> getPlayerGroups(UserIdent ident)
@@ -464,9 +549,7 @@ public class ServerZone extends Zone implements Loadable
     {
         WorldZone w = getWorldZone(worldPoint.getDimension());
         List<Zone> result = new ArrayList<Zone>();
-        for (AreaZone zone : w.getAreaZones())
-            if (zone.isInZone(worldPoint))
-                result.add(zone);
+        w.addAreaZonesAt(result, worldPoint, null);
         result.add(w);
         result.add(this);
         result.add(rootZone);
@@ -499,12 +582,7 @@ public class ServerZone extends Zone implements Loadable
 
     public List<AreaZone> getAreaZonesAt(WorldPoint worldPoint)
     {
-        WorldZone w = getWorldZone(worldPoint.getDimension());
-        List<AreaZone> result = new ArrayList<AreaZone>();
-        for (AreaZone zone : w.getAreaZones())
-            if (zone.isInZone(worldPoint))
-                result.add(zone);
-        return result;
+        return getWorldZone(worldPoint.getDimension()).getAreaZonesAt(worldPoint);
     }
 
     public AreaZone getAreaZoneAt(WorldPoint worldPoint)
@@ -534,7 +612,37 @@ public class ServerZone extends Zone implements Loadable
 
     public String getPermission(Collection<Zone> zones, UserIdent ident, List<String> groups, String permissionNode, WorldPoint point)
     {
-        // Build node list
+        if (PermissionCheckEvent.hasHandlers())
+        {
+            PermissionCheckEvent event = postPermissionCheckEvent(zones, ident, groups, getPermissionNodes(permissionNode), false);
+            if (event.result != null)
+                return event.result;
+        }
+
+        PermissionCache.Key key = permissionCache.createKey(ident, groups, zones, permissionNode, false);
+        PermissionCache.Entry entry = permissionCache.get(key);
+        if (entry == null)
+        {
+            entry = resolvePermission(zones, ident, groups, permissionNode, true);
+            permissionCache.put(key, entry);
+        }
+        if (rootZone.permissionDebugger != null)
+        {
+            if (entry.zone == null)
+                rootZone.permissionDebugger.debugPermission(null, ident, GROUP_DEFAULT, permissionNode, permissionNode, PERMISSION_TRUE, point, true);
+            else
+                rootZone.permissionDebugger.debugPermission(entry.zone, ident, entry.group, permissionNode, entry.node, entry.value, point,
+                        entry.isGroupPermission);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Build the list of nodes that are checked for a permission, ordered by priority (e.g. fe.commands.time,
+     * fe.commands.time.*, fe.commands.*, fe.*, *)
+     */
+    public static List<String> getPermissionNodes(String permissionNode)
+    {
         List<String> nodes = new ArrayList<String>();
         nodes.add(permissionNode);
         String[] nodeParts = permissionNode.split("\\.");
@@ -548,26 +656,24 @@ public class ServerZone extends Zone implements Loadable
             nodes.add(node + PERMISSION_ASTERIX);
         }
         nodes.add(PERMISSION_ASTERIX);
+        return nodes;
+    }
 
-        PermissionCheckEvent event = postPermissionCheckEvent(zones, ident, groups, nodes, false);
-        if (event.result != null)
-            return event.result;
-
+    protected PermissionCache.Entry resolvePermission(Collection<Zone> zones, UserIdent ident, List<String> groups, String permissionNode,
+            boolean checkWildcards)
+    {
         // Check player permissions
         if (ident != null)
         {
             for (Zone zone : zones)
             {
-                for (String node : nodes)
-                {
-                    String result = zone.getPlayerPermission(ident, node);
-                    if (result != null)
-                    {
-                        if (rootZone.permissionDebugger != null)
-                            rootZone.permissionDebugger.debugPermission(zone, ident, null, permissionNode, node, result, point, false);
-                        return result;
-                    }
-                }
+                PermissionList list = zone.getPlayerPermissions(ident);
+                if (list == null)
+                    continue;
+                String node = checkWildcards ? list.resolveNode(permissionNode) : permissionNode;
+                String result = node == null ? null : list.get(node);
+                if (result != null)
+                    return new PermissionCache.Entry(result, zone, null, node, false);
             }
         }
 
@@ -585,79 +691,60 @@ public class ServerZone extends Zone implements Loadable
                 {
                     // First order: nodes
                     // (e.g. fe.commands.time, fe.commands.time.*, fe.commands.*, fe.*, *)
-                    for (String node : nodes)
-                    {
-                        String result = zone.getGroupPermission(group, node);
-                        if (result != null)
-                        {
-                            if (rootZone.permissionDebugger != null)
-                                rootZone.permissionDebugger.debugPermission(zone, ident, group, permissionNode, node, result, point, true);
-                            return result;
-                        }
-                    }
+                    PermissionList list = zone.getGroupPermissions(group);
+                    if (list == null)
+                        continue;
+                    String node = checkWildcards ? list.resolveNode(permissionNode) : permissionNode;
+                    String result = node == null ? null : list.get(node);
+                    if (result != null)
+                        return new PermissionCache.Entry(result, zone, group, node, true);
                 }
             }
         }
-        if (rootZone.permissionDebugger != null)
-            rootZone.permissionDebugger.debugPermission(null, ident, GROUP_DEFAULT, permissionNode, permissionNode, PERMISSION_TRUE, point, true);
-        return null;
+        return new PermissionCache.Entry(null, null, GROUP_DEFAULT, null, true);
     }
 
     public String getPermissionProperty(Collection<Zone> zones, UserIdent ident, List<String> groups, String node, WorldPoint point)
     {
-        PermissionCheckEvent event = postPermissionCheckEvent(zones, ident, groups, Arrays.asList(node), true);
-        if (event.result != null)
-            return event.result;
-
-        // Check player permissions
-        if (ident != null)
+        if (PermissionCheckEvent.hasHandlers())
         {
-            for (Zone zone : zones)
-            {
-                String result = zone.getPlayerPermission(ident, node);
-                if (result != null)
-                {
-                    if (rootZone.permissionDebugger != null)
-                        rootZone.permissionDebugger.debugPermission(zone, ident, null, node, node, result, point, false);
-                    return result;
-                }
-            }
+            PermissionCheckEvent event = postPermissionCheckEvent(zones, ident, groups, Arrays.asList(node), true);
+            if (event.result != null)
+                return event.result;
         }
 
-        // Check group permissions
-        // Add default group
-        if (groups != null)
+        PermissionCache.Key key = permissionCache.createKey(ident, groups, zones, node, true);
+        PermissionCache.Entry entry = permissionCache.get(key);
+        if (entry == null)
         {
-            // Lowest order: group hierarchy
-            // (e.g. ADMIN, MEMBER, _OPS_, _ALL_)
-            for (String group : groups)
-            {
-                // Second order: zones
-                // (e.g. area, world, server, root)
-                for (Zone zone : zones)
-                {
-                    // First order: nodes
-                    // (e.g. fe.commands.time, fe.commands.time.*, fe.commands.*, fe.*, *)
-                    String result = zone.getGroupPermission(group, node);
-                    if (result != null)
-                    {
-                        if (rootZone.permissionDebugger != null)
-                            rootZone.permissionDebugger.debugPermission(zone, ident, group, node, node, result, point, true);
-                        return result;
-                    }
-                }
-            }
+            entry = resolvePermission(zones, ident, groups, node, false);
+            permissionCache.put(key, entry);
         }
         if (rootZone.permissionDebugger != null)
-            rootZone.permissionDebugger.debugPermission(null, null, GROUP_DEFAULT, node, node, "null", point, true);
-        return null;
+        {
+            if (entry.zone == null)
+                rootZone.permissionDebugger.debugPermission(null, null, GROUP_DEFAULT, node, node, "null", point, true);
+            else
+                rootZone.permissionDebugger.debugPermission(entry.zone, ident, entry.group, node, node, entry.value, point, entry.isGroupPermission);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Returns the cache used to memoize permission lookups in this permission tree
+     */
+    public PermissionCache getPermissionCache()
+    {
+        return permissionCache;
     }
 
     public static PermissionCheckEvent postPermissionCheckEvent(Collection<Zone> zones, UserIdent ident, List<String> groups, List<String> nodes,
             boolean isProperty)
     {
         PermissionCheckEvent event = new PermissionCheckEvent(ident, zones, groups, nodes, isProperty);
-        APIRegistry.FE_EVENTBUS.post(event);
+        event.callHooks();
+        if (PermissionCheckEvent.hasBusListeners())
+            APIRegistry.FE_EVENTBUS.post(event);
         return event;
     }
 
@@ -26,6 +26,9 @@ public class WorldZone extends Zone implements Loadable
 
     private List<AreaZone> areaZones = new ArrayList<AreaZone>();
 
+    @Expose(serialize = false)
+    private AreaZoneIndex areaZoneIndex;
+
     public WorldZone(int id)
     {
         super(id);
@@ -49,6 +52,7 @@ public class WorldZone extends Zone implements Loadable
     {
         for (AreaZone zone : areaZones)
             zone.worldZone = this;
+        getAreaZoneIndex().invalidate();
     }
     
     @Override
@@ -114,7 +118,9 @@ public class WorldZone extends Zone implements Loadable
     {
         if (APIRegistry.getFEEventBus().post(new PermissionEvent.Zone.Delete(getServerZone(), zone)))
             return false;
-        return serverZone.removeZone(zone) | areaZones.remove(zone);
+        boolean removed = serverZone.removeZone(zone) | areaZones.remove(zone);
+        getAreaZoneIndex().invalidate();
+        return removed;
     }
 
     public Collection<AreaZone> getAreaZones()
@@ -125,6 +131,64 @@ public class WorldZone extends Zone implements Loadable
     public void sortAreaZones()
     {
         Collections.sort(areaZones);
+        getAreaZoneIndex().invalidate();
+    }
+
+    void invalidateAreaZoneIndex()
+    {
+        getAreaZoneIndex().invalidate();
+    }
+
+    private AreaZoneIndex getAreaZoneIndex()
+    {
+        // Zones created by deserialization skip field initializers
+        if (areaZoneIndex == null)
+            areaZoneIndex = new AreaZoneIndex(this);
+        return areaZoneIndex;
+    }
+
+    /**
+     * Returns all area zones containing the point, ordered by priority
+     */
+    public List<AreaZone> getAreaZonesAt(WorldPoint point)
+    {
+        List<AreaZone> result = new ArrayList<AreaZone>();
+        getAreaZoneIndex().getZonesAt(result, point, null);
+        return result;
+    }
+
+    /**
+     * Returns all area zones which entirely contain the area, ordered by priority
+     */
+    public List<AreaZone> getAreaZonesAt(WorldArea area)
+    {
+        List<AreaZone> result = new ArrayList<AreaZone>();
+        getAreaZoneIndex().getZonesAt(result, null, area);
+        return result;
+    }
+
+    /**
+     * Checks, if all blocks of a chunk column are covered by the same set of area zones
+     */
+    public boolean isChunkUniform(int chunkX, int chunkZ)
+    {
+        return getAreaZoneIndex().isUniformCell(chunkX, chunkZ);
+    }
+
+    /**
+     * Returns a counter that changes every time area zones are added, removed, resized or reordered in this world
+     */
+    public int getAreaZoneRevision()
+    {
+        return getAreaZoneIndex().getRevision();
+    }
+
+    /**
+     * Adds all area zones containing the point or entirely containing the area to the list, ordered by priority
+     */
+    public void addAreaZonesAt(List<? super AreaZone> result, WorldPoint point, WorldArea area)
+    {
+        getAreaZoneIndex().getZonesAt(result, point, area);
     }
 
     void addAreaZone(AreaZone areaZone)
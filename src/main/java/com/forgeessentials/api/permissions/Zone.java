@@ -48,10 +48,121 @@ public abstract class Zone
     public static final String PERMISSION_TRUE = "true";
     public static final String ALL_PERMS = '.' + PERMISSION_ASTERIX;
 
+    /**
+     * Map of permission nodes to their values. Wildcard nodes are additionally indexed in a {@link PermissionNodeTrie},
+     * which is kept up to date by the mutating map methods of this class.
+     */
     public static class PermissionList extends HashMap<String, String>
     {
         private static final long serialVersionUID = 1L;
 
+        private transient PermissionNodeTrie wildcards;
+
+        /**
+         * Returns the most specific permission node stored in this list which applies to the passed node. An exact match
+         * has precedence over any wildcard node.
+         *
+         * @param permissionNode
+         * @return the matching node or null, if neither the node nor any wildcard covering it is set
+         */
+        public String resolveNode(String permissionNode)
+        {
+            if (get(permissionNode) != null)
+                return permissionNode;
+            PermissionNodeTrie.Node match = getWildcards().resolve(permissionNode);
+            return match == null ? null : match.getNode();
+        }
+
+        public PermissionNodeTrie getWildcards()
+        {
+            if (wildcards == null)
+            {
+                wildcards = new PermissionNodeTrie();
+                for (Map.Entry<String, String> perm : entrySet())
+                    if (perm.getKey() != null)
+                        wildcards.put(perm.getKey(), perm.getValue());
+            }
+            return wildcards;
+        }
+
+        private void updateWildcard(Object key)
+        {
+            if (wildcards != null && key instanceof String)
+                wildcards.put((String) key, super.get(key));
+        }
+
+        @Override
+        public String put(String key, String value)
+        {
+            String old = super.put(key, value);
+            updateWildcard(key);
+            return old;
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends String> m)
+        {
+            super.putAll(m);
+            if (wildcards != null)
+                for (String key : m.keySet())
+                    updateWildcard(key);
+        }
+
+        @Override
+        public String putIfAbsent(String key, String value)
+        {
+            String old = super.putIfAbsent(key, value);
+            updateWildcard(key);
+            return old;
+        }
+
+        @Override
+        public String remove(Object key)
+        {
+            String old = super.remove(key);
+            updateWildcard(key);
+            return old;
+        }
+
+        @Override
+        public boolean remove(Object key, Object value)
+        {
+            boolean removed = super.remove(key, value);
+            updateWildcard(key);
+            return removed;
+        }
+
+        @Override
+        public String replace(String key, String value)
+        {
+            String old = super.replace(key, value);
+            updateWildcard(key);
+            return old;
+        }
+
+        @Override
+        public boolean replace(String key, String oldValue, String newValue)
+        {
+            boolean replaced = super.replace(key, oldValue, newValue);
+            updateWildcard(key);
+            return replaced;
+        }
+
+        @Override
+        public void clear()
+        {
+            super.clear();
+            wildcards = null;
+        }
+
+        @Override
+        public Object clone()
+        {
+            PermissionList clone = (PermissionList) super.clone();
+            clone.wildcards = null;
+            return clone;
+        }
+
         public List<String> toList()
         {
             List<String> list = new ArrayList<>();
@@ -236,8 +347,12 @@ public abstract class Zone
 
     public void setDirty()
     {
-        if (getServerZone() != null && getServerZone().getRootZone() != null)
-            getServerZone().getRootZone().getPermissionHelper().setDirty(false);
+        if (getServerZone() != null)
+        {
+            getServerZone().getPermissionCache().invalidate();
+            if (getServerZone().getRootZone() != null)
+                getServerZone().getRootZone().getPermissionHelper().setDirty(false);
+        }
     }
 
     /**
@@ -382,6 +497,7 @@ public abstract class Zone
             if (map != null && !APIRegistry.getFEEventBus().post(new PermissionEvent.User.ModifyPermission(getServerZone(), ident, this, permissionNode, null)))
             {
                 map.remove(permissionNode);
+                setDirty();
                 return true;
             }
         }
@@ -574,6 +690,7 @@ public abstract class Zone
                     && !APIRegistry.getFEEventBus().post(new PermissionEvent.Group.ModifyPermission(getServerZone(), group, this, permissionNode, null)))
             {
                 map.remove(permissionNode);
+                setDirty();
                 return true;
             }
         }
@@ -610,6 +727,9 @@ public abstract class Zone
         Map<UserIdent, PermissionList> swapPlayerPermissions = zone.playerPermissions;
         zone.playerPermissions = playerPermissions;
         playerPermissions = swapPlayerPermissions;
+
+        if (getServerZone() != null)
+            getServerZone().getPermissionCache().invalidate();
     }
 
     /**
@@ -0,0 +1,119 @@
+package com.forgeessentials.backup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * List of region files contained in an incremental backup.
+ *
+ * Each entry references a file in the shared region store by the hash of its content. Size and modification time are
+ * used to detect unchanged files without reading them again. The manifest is stored as {@link #ENTRY_NAME} inside the
+ * backup zip file.
+ */
+public class BackupManifest
+{
+
+    public static final String ENTRY_NAME = "backup.manifest";
+
+    public static class FileEntry
+    {
+
+        public final long size;
+
+        public final long lastModified;
+
+        public final String hash;
+
+        public FileEntry(long size, long lastModified, String hash)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        public boolean isUnchanged(File file)
+        {
+            return size == file.length() && lastModified == file.lastModified();
+        }
+
+    }
+
+    private final Map<String, FileEntry> files = new TreeMap<>();
+
+    public FileEntry get(String path)
+    {
+        return files.get(path);
+    }
+
+    public void put(String path, FileEntry entry)
+    {
+        files.put(path, entry);
+    }
+
+    public Map<String, FileEntry> getFiles()
+    {
+        return Collections.unmodifiableMap(files);
+    }
+
+    public void write(OutputStream out) throws IOException
+    {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        for (Map.Entry<String, FileEntry> file : files.entrySet())
+            writer.write(String.format("%s\t%d\t%d\t%s\n", file.getKey(), file.getValue().size, file.getValue().lastModified, file.getValue().hash));
+        writer.flush();
+    }
+
+    public static BackupManifest read(InputStream in) throws IOException
+    {
+        BackupManifest manifest = new BackupManifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            String[] parts = line.split("\t");
+            if (parts.length != 4)
+                continue;
+            try
+            {
+                manifest.put(parts[0], new FileEntry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3]));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException("Invalid backup manifest entry: " + line);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Reads the manifest of a backup zip file
+     *
+     * @return the manifest or null, if the backup is not an incremental backup
+     */
+    public static BackupManifest read(File backupFile) throws IOException
+    {
+        try (ZipFile zip = new ZipFile(backupFile))
+        {
+            ZipEntry entry = zip.getEntry(ENTRY_NAME);
+            if (entry == null)
+                return null;
+            try (InputStream in = zip.getInputStream(entry))
+            {
+                return read(in);
+            }
+        }
+    }
+
+}
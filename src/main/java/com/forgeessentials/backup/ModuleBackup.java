@@ -4,30 +4,54 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import javax.xml.bind.DatatypeConverter;
+
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.IProgressUpdate;
 import net.minecraft.world.MinecraftException;
 import net.minecraft.world.WorldServer;
+import net.minecraft.world.storage.ThreadedFileIOBase;
 import net.minecraftforge.common.DimensionManager;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.common.config.ConfigCategory;
@@ -38,11 +62,13 @@ import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.server.permission.DefaultPermissionLevel;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import com.forgeessentials.api.APIRegistry;
+import com.forgeessentials.backup.BackupManifest.FileEntry;
 import com.forgeessentials.api.UserIdent;
 import com.forgeessentials.core.ForgeEssentials;
 import com.forgeessentials.core.misc.FECommandManager;
@@ -55,6 +81,7 @@ import com.forgeessentials.util.events.FEModuleEvent.FEModuleInitEvent;
 import com.forgeessentials.util.events.FEModuleEvent.FEModuleServerInitEvent;
 import com.forgeessentials.util.output.ChatOutputHandler;
 import com.forgeessentials.util.output.LoggingHandler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @FEModule(name = "Backups", parentMod = ForgeEssentials.class)
 public class ModuleBackup extends ConfigLoaderBase
@@ -71,6 +98,20 @@ public class ModuleBackup extends ConfigLoaderBase
     private static final String EXCLUDE_PATTERNS_HELP = "Define file patterns (regex) that should be excluded from each backup";
     public static final String[] DEFAULT_EXCLUDE_PATTERNS = new String[] { "DIM-?\\d+", "FEMultiworld", "FEData_backup", "DimensionalDoors", };
 
+    private static final String INCREMENTAL_HELP = "Store region files in a shared store next to the backups, so unchanged region files are not copied again. "
+            + "Each backup lists its region files in " + BackupManifest.ENTRY_NAME + ".";
+
+    public static final String REGION_STORE_DIR = "regions";
+
+    public static final String REGION_EXTENSION = ".mca";
+
+    public static final String STAGING_DIR = ".staging";
+
+    /**
+     * Time in seconds to wait for the server thread to save the world
+     */
+    public static final int SERVER_THREAD_TIMEOUT = 60;
+
     public static final SimpleDateFormat FILE_FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH-mm");
 
     /* ------------------------------------------------------------ */
@@ -93,6 +134,17 @@ public class ModuleBackup extends ConfigLoaderBase
 
     public static List<Pattern> exludePatterns = new ArrayList<>();
 
+    public static boolean incremental;
+
+    public static int backupThreads;
+
+    public static int compressionLevel;
+
+    /**
+     * Manifests of the last incremental backup of each dimension
+     */
+    private static Map<Integer, BackupManifest> lastManifests = new ConcurrentHashMap<>();
+
     private static Runnable backupTask = new Runnable() {
         @Override
         public void run()
@@ -101,7 +153,14 @@ public class ModuleBackup extends ConfigLoaderBase
         }
     };
 
-    private static Thread backupThread;
+    /**
+     * Runs all backups and backup cleanups one after another, so they do not need any further locking. The thread is not
+     * a daemon, so backups started when the server shuts down can finish.
+     */
+    private static ExecutorService backupExecutor = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("FE backup").build());
+
+    private static Future<?> backupFuture;
 
     /* ------------------------------------------------------------ */
 
@@ -124,7 +183,7 @@ public class ModuleBackup extends ConfigLoaderBase
     {
         APIRegistry.perms.registerPermission(PERM_NOTIFY, DefaultPermissionLevel.OP, "Backup notification permission");
         registerBackupTask();
-        cleanBackups();
+        backupExecutor.execute(ModuleBackup::cleanBackups);
     }
 
     private void registerBackupTask()
@@ -140,17 +199,10 @@ public class ModuleBackup extends ConfigLoaderBase
         if (!FMLCommonHandler.instance().getEffectiveSide().isServer() || !backupOnLoad)
             return;
         final WorldServer world = (WorldServer) event.getWorld();
+        // Worlds are loaded before the server starts ticking, so the backup (which saves the world on the server thread)
+        // is only started with the first tick
         if (shouldBackup(world))
-        {
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run()
-                {
-                    backup(world, true);
-                }
-            });
-            thread.start();
-        }
+            TaskRegistry.runLater(() -> backupExecutor.execute(() -> backup(world, true, false)));
     }
 
     @SubscribeEvent
@@ -160,16 +212,7 @@ public class ModuleBackup extends ConfigLoaderBase
             return;
         final WorldServer world = (WorldServer) event.getWorld();
         if (shouldBackup(world))
-        {
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run()
-                {
-                    backup(world, true);
-                }
-            });
-            thread.start();
-        }
+            backupExecutor.execute(() -> backup(world, true, true));
     }
 
     @Override
@@ -182,6 +225,11 @@ public class ModuleBackup extends ConfigLoaderBase
         keepBackups = config.get(CONFIG_CAT, "keep_backups", 12, "Keep at least this amount of last backups").getInt();
         dailyBackups = config.get(CONFIG_CAT, "keep_daily_backups", 7, "Keep at least one daily backup for this last number of last days").getInt();
         weeklyBackups = config.get(CONFIG_CAT, "keep_weekly_backups", 8, "Keep at least one weekly backup for this last number of weeks").getInt();
+        incremental = config.get(CONFIG_CAT, "incremental", false, INCREMENTAL_HELP).getBoolean();
+        backupThreads = Math.max(1, config.get(CONFIG_CAT, "threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+                "Number of threads used to compress region files of incremental backups").getInt());
+        compressionLevel = Math.min(9, Math.max(-1, config.get(CONFIG_CAT, "compression_level", -1,
+                "Compression level (0-9) of backups. Use -1 for the default level.").getInt()));
         baseFolder = new File(config.get(CONFIG_CAT, "base_folder", moduleDir.getPath(),
                 "Folder to store the backups in. Can be anywhere writable in the file system.").getString());
 
@@ -223,40 +271,32 @@ public class ModuleBackup extends ConfigLoaderBase
 
     public static void backupAll()
     {
-        if (backupThread != null)
+        if (isBackupRunning())
             return;
-        backupThread = new Thread(new Runnable() {
+        backupFuture = backupExecutor.submit(new Runnable() {
             @Override
             public void run()
             {
-                try
-                {
-                    List<Integer> backupDims = new ArrayList<>();
-                    List<WorldServer> backupWorlds = new ArrayList<>();
-                    for (WorldServer world : DimensionManager.getWorlds())
-                        if (shouldBackup(world))
-                        {
-                            backupDims.add(world.provider.getDimension());
-                            backupWorlds.add(world);
-                        }
-                    ModuleBackup.notify(Translator.format("Starting backup of dimensions %s", StringUtils.join(backupDims, ", ")));
-                    for (WorldServer worldServer : backupWorlds)
-                        backup(worldServer, false);
-                    cleanBackups();
-                    ModuleBackup.notify("Backup finished!");
-                }
-                finally
-                {
-                    backupThread = null;
-                }
+                List<Integer> backupDims = new ArrayList<>();
+                List<WorldServer> backupWorlds = new ArrayList<>();
+                for (WorldServer world : DimensionManager.getWorlds())
+                    if (shouldBackup(world))
+                    {
+                        backupDims.add(world.provider.getDimension());
+                        backupWorlds.add(world);
+                    }
+                ModuleBackup.notify(Translator.format("Starting backup of dimensions %s", StringUtils.join(backupDims, ", ")));
+                for (WorldServer worldServer : backupWorlds)
+                    backup(worldServer, false, false);
+                cleanBackups();
+                ModuleBackup.notify("Backup finished!");
             }
         });
-        backupThread.start();
     }
 
     public static void backup(int dimension)
     {
-        if (backupThread != null)
+        if (isBackupRunning())
         {
             ModuleBackup.notify("Backup still in progress");
             return;
@@ -267,22 +307,19 @@ public class ModuleBackup extends ConfigLoaderBase
             ModuleBackup.notify(Translator.format("Dimension %d does not exist or is not loaded", dimension));
             return;
         }
-        backupThread = new Thread(new Runnable() {
+        backupFuture = backupExecutor.submit(new Runnable() {
             @Override
             public void run()
             {
-                try
-                {
-                    backup(world, true);
-                    cleanBackups();
-                }
-                finally
-                {
-                    backupThread = null;
-                }
+                backup(world, true, false);
+                cleanBackups();
             }
         });
-        backupThread.start();
+    }
+
+    public static boolean isBackupRunning()
+    {
+        return backupFuture != null && !backupFuture.isDone();
     }
 
     protected static boolean shouldBackup(WorldServer world)
@@ -294,38 +331,71 @@ public class ModuleBackup extends ConfigLoaderBase
             return shouldBackup;
     }
 
-    private static synchronized void backup(WorldServer world, boolean notify)
+    /**
+     * Creates a backup of the world.
+     *
+     * The world is saved and level saving is disabled only while the world files are copied to a staging directory. The
+     * backup is created from the staged copies after saving has been enabled again. Must only be called on the
+     * {@link #backupExecutor}, because it waits for the server thread.
+     *
+     * @param unloaded
+     *            the world has been unloaded and was already saved, so saving does not need to be disabled
+     */
+    private static void backup(WorldServer world, boolean notify, boolean unloaded)
     {
         if (notify)
             notify(String.format("Starting backup of dim %d...", world.provider.getDimension()));
 
-        // Save world
-        if (!saveWorld(world))
-        {
-            notify(String.format("Backup of dim %s failed: Could not save world", world.provider.getDimension()));
-            return;
-        }
-
         // Prepare directory
         URI baseUri = ServerUtil.getWorldPath().toURI();
         File backupFile = getBackupFile(world);
         File backupDir = backupFile.getParentFile();
-        if (!backupDir.exists())
-            if (!backupDir.mkdirs())
-            {
-                notify(String.format("Backup of dim %s failed: Could not create backup directory", world.provider.getDimension()));
-                return;
-            }
+        File storeDir = new File(backupDir, REGION_STORE_DIR);
+        File stagingDir = new File(backupDir, STAGING_DIR);
+        if (!backupDir.exists() && !backupDir.mkdirs() || incremental && !storeDir.exists() && !storeDir.mkdirs())
+        {
+            notify(String.format("Backup of dim %s failed: Could not create backup directory", world.provider.getDimension()));
+            return;
+        }
+
+        BackupManifest previousManifest = incremental ? getLastManifest(world, backupDir) : null;
+        BackupManifest manifest = new BackupManifest();
+
+        // Save world and copy its files
+        Map<String, File> stagedFiles = new TreeMap<>();
+        long saveOffTime;
+        try
+        {
+            saveOffTime = stageWorldFiles(world, unloaded, baseUri, stagingDir, previousManifest, manifest, stagedFiles);
+        }
+        catch (Exception e)
+        {
+            LoggingHandler.felog.error(String.format("Could not save world %d: %s", world.provider.getDimension(), e.toString()));
+            notify(String.format("Backup of dim %s failed: Could not save world", world.provider.getDimension()));
+            FileUtils.deleteQuietly(stagingDir);
+            return;
+        }
+        int unchangedRegions = manifest.getFiles().size();
 
         // Save files
+        ExecutorService executor = null;
         try (FileOutputStream fileStream = new FileOutputStream(backupFile); //
                 ZipOutputStream zipStream = new ZipOutputStream(fileStream);)
         {
-            LoggingHandler.felog.info(String.format("Listing files for backup of world %d", world.provider.getDimension()));
-            for (File file : enumWorldFiles(world, world.getChunkSaveLocation(), null))
+            zipStream.setLevel(compressionLevel);
+            Map<String, Future<FileEntry>> regionTasks = new LinkedHashMap<>();
+            if (incremental)
+                executor = Executors.newFixedThreadPool(backupThreads, new ThreadFactoryBuilder().setNameFormat("FE backup compression %d").setDaemon(true).build());
+            for (Entry<String, File> file : stagedFiles.entrySet())
             {
-                String relativePath = baseUri.relativize(file.toURI()).getPath();
-                try (FileInputStream in = new FileInputStream(file))
+                String relativePath = file.getKey();
+                if (incremental && relativePath.endsWith(REGION_EXTENSION))
+                {
+                    // Region files are hashed and compressed into the store in parallel
+                    regionTasks.put(relativePath, executor.submit(() -> storeRegionFile(file.getValue(), storeDir)));
+                    continue;
+                }
+                try (FileInputStream in = new FileInputStream(file.getValue()))
                 {
                     ZipEntry ze = new ZipEntry(relativePath);
                     zipStream.putNextEntry(ze);
@@ -336,6 +406,24 @@ public class ModuleBackup extends ConfigLoaderBase
                     LoggingHandler.felog.warn(String.format("Unable to backup file %s", relativePath));
                 }
             }
+
+            if (incremental)
+            {
+                for (Entry<String, Future<FileEntry>> task : regionTasks.entrySet())
+                {
+                    try
+                    {
+                        manifest.put(task.getKey(), task.getValue().get());
+                    }
+                    catch (ExecutionException e)
+                    {
+                        LoggingHandler.felog.warn(String.format("Unable to backup file %s: %s", task.getKey(), e.getCause().toString()));
+                    }
+                }
+                zipStream.putNextEntry(new ZipEntry(BackupManifest.ENTRY_NAME));
+                manifest.write(zipStream);
+                lastManifests.put(world.provider.getDimension(), manifest);
+            }
             zipStream.closeEntry();
         }
         catch (Exception ex)
@@ -345,9 +433,234 @@ public class ModuleBackup extends ConfigLoaderBase
             if (notify)
                 notify(String.format("Error during backup of dim %d", world.provider.getDimension()));
         }
+        finally
+        {
+            if (executor != null)
+                executor.shutdownNow();
+            FileUtils.deleteQuietly(stagingDir);
+        }
 
+        String message = String.format("Backup of dim %d: saving was disabled for %d ms", world.provider.getDimension(), saveOffTime);
+        if (incremental)
+            message += String.format(", %d of %d region files changed", manifest.getFiles().size() - unchangedRegions, manifest.getFiles().size());
+        LoggingHandler.felog.info(message);
         if (notify)
+        {
+            notify(message);
             notify("Backup finished");
+        }
+    }
+
+    /**
+     * Saves the world and copies all files which need to be backed up to the staging directory. Level saving is only
+     * disabled while the files are copied.
+     *
+     * Region files which did not change since the previous incremental backup are not copied, but added to the
+     * manifest right away.
+     *
+     * @return the time in milliseconds level saving was disabled
+     */
+    private static long stageWorldFiles(final WorldServer world, boolean unloaded, URI baseUri, File stagingDir, BackupManifest previousManifest,
+            BackupManifest manifest, Map<String, File> stagedFiles) throws Exception
+    {
+        FileUtils.deleteQuietly(stagingDir);
+        File storeDir = new File(stagingDir.getParentFile(), REGION_STORE_DIR);
+
+        final Boolean oldLevelSaving;
+        if (unloaded)
+        {
+            ThreadedFileIOBase.getThreadedIOInstance().waitForFinish();
+            oldLevelSaving = null;
+        }
+        else
+            oldLevelSaving = callOnServerThread(() -> saveWorld(world));
+
+        long saveOffStart = System.currentTimeMillis();
+        try
+        {
+            LoggingHandler.felog.info(String.format("Listing files for backup of world %d", world.provider.getDimension()));
+            for (File file : enumWorldFiles(world, world.getChunkSaveLocation(), null))
+            {
+                String relativePath = baseUri.relativize(file.toURI()).getPath();
+                if (previousManifest != null && file.getName().endsWith(REGION_EXTENSION))
+                {
+                    FileEntry previousEntry = previousManifest.get(relativePath);
+                    if (previousEntry != null && previousEntry.isUnchanged(file) && getStoreFile(storeDir, previousEntry.hash).exists())
+                    {
+                        manifest.put(relativePath, previousEntry);
+                        continue;
+                    }
+                }
+                File stagedFile = new File(stagingDir, relativePath);
+                try
+                {
+                    copyFile(file, stagedFile);
+                    stagedFiles.put(relativePath, stagedFile);
+                }
+                catch (IOException e)
+                {
+                    LoggingHandler.felog.warn(String.format("Unable to backup file %s", relativePath));
+                }
+            }
+        }
+        finally
+        {
+            if (oldLevelSaving != null)
+                callOnServerThread(() -> world.disableLevelSaving = oldLevelSaving);
+        }
+        return System.currentTimeMillis() - saveOffStart;
+    }
+
+    private static void copyFile(File source, File target) throws IOException
+    {
+        target.getParentFile().mkdirs();
+        try (FileChannel in = new FileInputStream(source).getChannel(); //
+                FileChannel out = new FileOutputStream(target).getChannel())
+        {
+            long size = in.size();
+            long position = 0;
+            while (position < size)
+                position += in.transferTo(position, size - position, out);
+        }
+        // Keep the modification time, so incremental backups can detect unchanged files
+        target.setLastModified(source.lastModified());
+    }
+
+    /**
+     * Runs a task on the server thread and waits for its result
+     */
+    private static <T> T callOnServerThread(Callable<T> task) throws Exception
+    {
+        if (FMLCommonHandler.instance().getMinecraftServerInstance().isCallingFromMinecraftThread())
+            return task.call();
+        FutureTask<T> future = new FutureTask<>(task);
+        TaskRegistry.runLater(future);
+        try
+        {
+            return future.get(SERVER_THREAD_TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            // The task must not run anymore after giving up, unless it is already running
+            if (future.cancel(false))
+                throw e;
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Copies a region file into the shared store
+     *
+     * @return the manifest entry for the file
+     */
+    private static FileEntry storeRegionFile(File file, File storeDir) throws IOException, NoSuchAlgorithmException
+    {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        File tempFile = File.createTempFile("region", ".tmp", storeDir);
+        try
+        {
+            try (InputStream in = new DigestInputStream(new FileInputStream(file), digest); //
+                    OutputStream out = new GZIPOutputStream(new FileOutputStream(tempFile)) {
+                        {
+                            def.setLevel(compressionLevel);
+                        }
+                    })
+            {
+                IOUtils.copy(in, out);
+            }
+            String hash = DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+            File storeFile = getStoreFile(storeDir, hash);
+            if (!storeFile.exists() && !tempFile.renameTo(storeFile))
+                throw new IOException("Could not move region file to " + storeFile.getPath());
+            return new FileEntry(size, lastModified, hash);
+        }
+        finally
+        {
+            if (tempFile.exists())
+                tempFile.delete();
+        }
+    }
+
+    private static File getStoreFile(File storeDir, String hash)
+    {
+        return new File(storeDir, hash + REGION_EXTENSION + ".gz");
+    }
+
+    /**
+     * Returns the manifest of the last incremental backup of the world
+     */
+    private static BackupManifest getLastManifest(WorldServer world, File backupDir)
+    {
+        BackupManifest manifest = lastManifests.get(world.provider.getDimension());
+        if (manifest != null)
+            return manifest;
+        SortedMap<Date, File> backups = listBackups(backupDir);
+        if (backups.isEmpty())
+            return null;
+        try
+        {
+            return BackupManifest.read(backups.get(backups.lastKey()));
+        }
+        catch (IOException e)
+        {
+            LoggingHandler.felog.warn(String.format("Could not read manifest of backup %s", backups.get(backups.lastKey()).getPath()));
+            return null;
+        }
+    }
+
+    private static SortedMap<Date, File> listBackups(File backupDir)
+    {
+        SortedMap<Date, File> backups = new TreeMap<>();
+        for (File backupFile : backupDir.listFiles())
+        {
+            if (backupFile.isDirectory())
+                continue;
+            try
+            {
+                backups.put(FILE_FORMAT.parse(FilenameUtils.getBaseName(backupFile.getName())), backupFile);
+            }
+            catch (ParseException e)
+            {
+                /* ignore */
+            }
+        }
+        return backups;
+    }
+
+    /**
+     * Deletes all files from the region store that are not referenced by any remaining backup
+     */
+    private static void cleanRegionStore(File backupDir)
+    {
+        File storeDir = new File(backupDir, REGION_STORE_DIR);
+        if (!storeDir.isDirectory())
+            return;
+        Set<String> usedFiles = new HashSet<>();
+        for (File backupFile : listBackups(backupDir).values())
+        {
+            try
+            {
+                BackupManifest manifest = BackupManifest.read(backupFile);
+                if (manifest != null)
+                    for (FileEntry entry : manifest.getFiles().values())
+                        usedFiles.add(getStoreFile(storeDir, entry.hash).getName());
+            }
+            catch (IOException e)
+            {
+                // Do not delete anything if it is not known which files are still in use
+                LoggingHandler.felog.error(String.format("Could not read manifest of backup %s", backupFile.getAbsolutePath()));
+                return;
+            }
+        }
+        for (File storeFile : storeDir.listFiles())
+            if (!usedFiles.contains(storeFile.getName()) && !storeFile.delete())
+                LoggingHandler.felog.error(String.format("Could not delete region file %s", storeFile.getAbsolutePath()));
     }
 
     private static List<File> enumWorldFiles(WorldServer world, File dir, List<File> files)
@@ -383,29 +696,28 @@ public class ModuleBackup extends ConfigLoaderBase
                 FILE_FORMAT.format(new Date())));
     }
 
-    private static boolean saveWorld(WorldServer world)
+    /**
+     * Saves all chunks of the world, waits until they have been written to disk and disables level saving. Must be
+     * called on the server thread.
+     *
+     * @return the previous level saving state, which has to be restored once the world files have been copied
+     */
+    private static boolean saveWorld(WorldServer world) throws MinecraftException
     {
         boolean oldLevelSaving = world.disableLevelSaving;
         world.disableLevelSaving = false;
         try
         {
             world.saveAllChunks(true, (IProgressUpdate) null);
-            return true;
+            world.flushToDisk();
         }
-        catch (MinecraftException e)
-        {
-            LoggingHandler.felog.error(String.format("Could not save world %d", world.provider.getDimension()));
-            return false;
-        }
-        catch (Exception e)
-        {
-            LoggingHandler.felog.error("Error while saving world");
-            return false;
-        }
-        finally
+        catch (MinecraftException | RuntimeException e)
         {
             world.disableLevelSaving = oldLevelSaving;
+            throw e;
         }
+        world.disableLevelSaving = true;
+        return oldLevelSaving;
     }
 
     private static void cleanBackups()
@@ -420,6 +732,8 @@ public class ModuleBackup extends ConfigLoaderBase
             SortedMap<Calendar, File> files = new TreeMap<>();
             for (File backupFile : backupDir.listFiles())
             {
+                if (backupFile.isDirectory())
+                    continue;
                 try
                 {
                     Calendar date = Calendar.getInstance();
@@ -512,6 +826,8 @@ public class ModuleBackup extends ConfigLoaderBase
                 }
                 oldestWeeklyBackup = nextDate;
             }
+
+            cleanRegionStore(backupDir);
         }
     }
 
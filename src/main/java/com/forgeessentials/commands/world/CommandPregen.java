@@ -1,20 +1,19 @@
 package com.forgeessentials.commands.world;
 
-import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.BitSet;
 
 import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommandSender;
 import net.minecraft.entity.player.EntityPlayerMP;
-import net.minecraft.nbt.CompressedStreamTools;
-import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.world.World;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.AnvilChunkLoader;
-import net.minecraft.world.chunk.storage.RegionFileCache;
 import net.minecraft.world.gen.ChunkProviderServer;
 import net.minecraftforge.server.permission.DefaultPermissionLevel;
 
@@ -26,19 +25,54 @@ import com.forgeessentials.core.commands.ParserCommandBase;
 import com.forgeessentials.core.misc.TaskRegistry;
 import com.forgeessentials.core.misc.TaskRegistry.TickTask;
 import com.forgeessentials.core.misc.TranslatedCommandException;
+import com.forgeessentials.data.v2.DataManager;
 import com.forgeessentials.util.CommandParserArgs;
 import com.forgeessentials.util.ServerUtil;
 import com.forgeessentials.util.output.ChatOutputHandler;
 import com.forgeessentials.worldborder.ModuleWorldBorder;
 import com.forgeessentials.worldborder.WorldBorder;
 
+/**
+ * Generates all chunks within the world border.
+ *
+ * Regions are processed in a spiral around the border center and chunks are generated region by region, using the
+ * region file header to skip chunks which already exist. Each tick generates chunks for a time budget which adapts to
+ * the measured tick time. The progress is saved regularly, so an interrupted pregen can be resumed.
+ */
 public class CommandPregen extends ParserCommandBase implements TickTask
 {
 
+    public static final int REGION_CHUNKS = 32;
+
+    public static final int REGION_CHUNK_COUNT = REGION_CHUNKS * REGION_CHUNKS;
+
+    /**
+     * Tick time in milliseconds the generation budget adapts to
+     */
+    public static final double TARGET_TICK_TIME = 45;
+
+    public static final double MIN_TICK_BUDGET = 2;
+
+    public static final double MAX_TICK_BUDGET = 40;
+
+    public static final double INITIAL_TICK_BUDGET = 10;
+
+    public static final int MAX_LOADED_CHUNKS = 1024;
+
+    public static final long NOTIFY_INTERVAL = 1000 * 10;
+
+    public static final long SAVE_INTERVAL = 1000 * 30;
+
+    private static final int[] SPIRAL_DX = new int[] { 1, 0, -1, 0 };
+
+    private static final int[] SPIRAL_DZ = new int[] { 0, 1, 0, -1 };
+
     private boolean running = false;
 
     private WorldServer world;
 
+    private boolean cubicWorld;
+
     private AreaShape shape;
 
     private int minX;
@@ -64,9 +98,61 @@ public class CommandPregen extends ParserCommandBase implements TickTask
 
     private int z;
 
-    private int totalTicks;
+    /* Spiral of regions around the center */
+
+    private int centerRegionX;
+
+    private int centerRegionZ;
+
+    private int maxRing;
+
+    private int regionIndex;
+
+    private int spiralX;
+
+    private int spiralZ;
+
+    private int spiralDirection;
+
+    private int spiralLegLength;
+
+    private int spiralLegStep;
+
+    /* Current region */
+
+    private int regionX;
+
+    private int regionZ;
+
+    private int chunkIndex;
+
+    /**
+     * Chunks of the current region which already exist according to the region file header
+     */
+    private BitSet existingChunks;
+
+    /* Statistics */
+
+    private long totalChunks;
+
+    private long visitedChunks;
+
+    private long generatedChunks;
 
-    private int totalChunks;
+    private long startTime;
+
+    private long startVisitedChunks;
+
+    private long startGeneratedChunks;
+
+    private long lastNotify;
+
+    private long lastSave;
+
+    /**
+     * Time in milliseconds to spend on generating chunks each tick
+     */
+    private double tickBudget;
 
     @Override
     public String getName()
@@ -120,11 +206,12 @@ public class CommandPregen extends ParserCommandBase implements TickTask
                 arguments.notify("/pregen status");
                 arguments.notify("/pregen stop");
                 arguments.notify("/pregen flush");
+                arguments.notify("/pregen reset [dim]: Discard saved progress");
             }
             return;
         }
 
-        arguments.tabComplete("start", "stop", "status", "flush");
+        arguments.tabComplete("start", "stop", "status", "flush", "reset");
         String subCmd = arguments.remove().toLowerCase();
         switch (subCmd)
         {
@@ -140,6 +227,9 @@ public class CommandPregen extends ParserCommandBase implements TickTask
         case "status":
             parseStatus(arguments);
             break;
+        case "reset":
+            parseReset(arguments);
+            break;
         default:
             throw new TranslatedCommandException(FEPermissions.MSG_UNKNOWN_SUBCOMMAND, subCmd);
         }
@@ -162,11 +252,14 @@ public class CommandPregen extends ParserCommandBase implements TickTask
         if (border == null)
             throw new TranslatedCommandException("No worldborder defined");
 
-        centerX = border.getCenter().getX() / 16;
-        centerZ = border.getCenter().getZ() / 16;
-        sizeX = border.getSize().getX() / 16;
-        sizeZ = border.getSize().getZ() / 16;
-        minX = border.getArea().getLowPoint().getX() / 16;
+        centerX = border.getCenter().getX() >> 4;
+        centerZ = border.getCenter().getZ() >> 4;
+        sizeX = border.getSize().getX() >> 4;
+        sizeZ = border.getSize().getZ() >> 4;
+        minX = border.getArea().getLowPoint().getX() >> 4;
+        minZ = border.getArea().getLowPoint().getZ() >> 4;
+        maxX = border.getArea().getHighPoint().getX() >> 4;
+        maxZ = border.getArea().getHighPoint().getZ() >> 4;
         if (ModuleCommands.isCubicChunksInstalled)
         {
             try
@@ -177,8 +270,6 @@ public class CommandPregen extends ParserCommandBase implements TickTask
             {
                 minY = -8;
             }
-            minZ = border.getArea().getLowPoint().getZ() / 16;
-            maxX = border.getArea().getHighPoint().getX() / 16;
             try
             {
                 maxY = arguments.parseInt();
@@ -188,14 +279,43 @@ public class CommandPregen extends ParserCommandBase implements TickTask
                 maxY = 8;
             }
         }
-        maxZ = border.getArea().getHighPoint().getZ() / 16;
         shape = border.getShape();
+        cubicWorld = ModuleCommands.isCubicChunksInstalled && CCPregenCompat.isCCWorld(world);
 
-        x = minX - 1;
-        z = minZ;
-        running = true;
-        totalTicks = 0;
+        centerRegionX = centerX >> 5;
+        centerRegionZ = centerZ >> 5;
+        maxRing = Math.max(Math.max(centerRegionX - (minX >> 5), (maxX >> 5) - centerRegionX),
+                Math.max(centerRegionZ - (minZ >> 5), (maxZ >> 5) - centerRegionZ));
         totalChunks = 0;
+        for (int ix = minX; ix <= maxX; ix++)
+            for (int iz = minZ; iz <= maxZ; iz++)
+                if (isInside(ix, iz))
+                    totalChunks++;
+
+        resetSpiral();
+        int dimension = world.provider.getDimension();
+        PregenProgress progress = DataManager.getInstance().load(PregenProgress.class, Integer.toString(dimension));
+        if (progress != null && progress.matches(dimension, shape, minX, minZ, maxX, maxZ) && progress.minY == minY && progress.maxY == maxY)
+        {
+            while (regionIndex < progress.regionIndex)
+                stepSpiral();
+            loadRegion();
+            chunkIndex = progress.chunkIndex;
+            visitedChunks = progress.visitedChunks;
+            generatedChunks = progress.generatedChunks;
+            arguments.confirm("Resuming pregen at %d/%d chunks", visitedChunks, totalChunks);
+        }
+        else
+        {
+            visitedChunks = 0;
+            generatedChunks = 0;
+        }
+
+        running = true;
+        startTime = lastNotify = lastSave = System.currentTimeMillis();
+        startVisitedChunks = visitedChunks;
+        startGeneratedChunks = generatedChunks;
+        tickBudget = INITIAL_TICK_BUDGET;
 
         TaskRegistry.schedule(this);
         arguments.confirm("Pregen started");
@@ -230,119 +350,266 @@ public class CommandPregen extends ParserCommandBase implements TickTask
             arguments.error("No pregen running");
             return;
         }
-        ChunkProviderServer providerServer = (ChunkProviderServer) world.getChunkProvider();
-        arguments.confirm("Pregen: %d/%d chunks, tps:%.1f, lc:%d", totalChunks, sizeX * sizeZ * 4, ServerUtil.getTPS(), providerServer.getLoadedChunkCount());
+        arguments.confirm(getStatus());
     }
 
+    private void parseReset(CommandParserArgs arguments) throws CommandException
+    {
+        WorldServer resetWorld = arguments.parseWorld();
+        if (running && resetWorld == world)
+        {
+            arguments.error("Stop the pregen of this world first");
+            return;
+        }
+        if (DataManager.getInstance().delete(PregenProgress.class, Integer.toString(resetWorld.provider.getDimension())))
+            arguments.confirm("Discarded saved pregen progress");
+        else
+            arguments.error("No saved pregen progress");
+    }
+
+    private String getStatus()
+    {
+        double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+        double visitRate = (visitedChunks - startVisitedChunks) / seconds;
+        double generateRate = (generatedChunks - startGeneratedChunks) / seconds;
+        String eta = visitRate <= 0 ? "?" : ChatOutputHandler.formatTimeDurationReadable((long) ((totalChunks - visitedChunks) / visitRate), true);
+        return String.format("Pregen: %d/%d chunks (%.1f%%), %.1f chunks/s (%.1f generated/s), ETA %s, budget %.1f ms, tps %.1f, lc %d", //
+                visitedChunks, totalChunks, totalChunks == 0 ? 100.0 : visitedChunks * 100.0 / totalChunks, visitRate, generateRate, eta, tickBudget,
+                ServerUtil.getTPS(), world.getChunkProvider().getLoadedChunkCount());
+    }
+
+    /* ------------------------------------------------------------ */
+
     @Override
     public boolean tick()
     {
         if (!running)
         {
+            saveProgress();
             notifyPlayers("Pregen stopped");
             return true;
         }
 
-        double tps = ServerUtil.getTPS();
-        if (tps < 5)
-        {
+        if (ServerUtil.getTPS() < 5)
             return false;
-        }
-
-        totalTicks++;
+        adaptTickBudget();
 
         ChunkProviderServer providerServer = world.getChunkProvider();
-
-        if (totalTicks % 80 == 0)
-            notifyPlayers(String.format("Pregen: %d/%d chunks, tps:%.1f, lc:%d", totalChunks, sizeX * sizeZ, tps,
-                    providerServer.getLoadedChunkCount()));
-        for (int i = 0; i < 1; i++)
+        long deadline = System.nanoTime() + (long) (tickBudget * 1000000);
+        do
         {
-            int skippedChunks = 0;
-            while (true)
+            if (!next())
             {
-                totalChunks++;
-                if (!next())
-                {
-                    running = false;
-                    notifyPlayers("World pregen finished");
-                    return true;
-                }
-
-                if (!ModuleCommands.isCubicChunksInstalled || !CCPregenCompat.isCCWorld(world))
-                {
-                    if (RegionFileCache.createOrLoadRegionFile(world.getChunkSaveLocation(), x, z).chunkExists(x & 0x1F, z & 0x1F)
-                            || (providerServer.chunkExists(x, z)))
-                    {
-                        skippedChunks++;
-                        if (skippedChunks > 16 * 16)
-                            break;
-                        else
-                            continue;
-                    }
-
-                    if (providerServer.getLoadedChunkCount() > 256)
-                    {
-                        providerServer.saveChunks(true);
-                        providerServer.queueUnloadAll();
-                    }
-                    providerServer.provideChunk(x, z);
-                }
-                else
-                {
-                    boolean fullySkipped = true;
-                    for (int y = minY; y <= maxY; y++)
-                    {
-                        fullySkipped &= !CCPregenCompat.genCube(world, providerServer, x, y, z);
-                    }
-
-                    if (fullySkipped)
-                    {
-                        skippedChunks++;
-                        if (skippedChunks > 16 * 16)
-                            break;
-                        else
-                            continue;
-                    }
-                }
-
-                break;
+                running = false;
+                DataManager.getInstance().delete(PregenProgress.class, Integer.toString(world.provider.getDimension()));
+                notifyPlayers("World pregen finished");
+                return true;
             }
+            generate(providerServer);
+        }
+        while (System.nanoTime() < deadline);
+
+        if (providerServer.getLoadedChunkCount() > MAX_LOADED_CHUNKS)
+            providerServer.queueUnloadAll();
+
+        long now = System.currentTimeMillis();
+        if (now - lastNotify >= NOTIFY_INTERVAL)
+        {
+            lastNotify = now;
+            notifyPlayers(getStatus());
+        }
+        if (now - lastSave >= SAVE_INTERVAL)
+        {
+            lastSave = now;
+            saveProgress();
         }
         return false;
     }
 
+    /**
+     * Lowers the budget quickly when ticks take longer than {@link #TARGET_TICK_TIME} and raises it slowly otherwise
+     */
+    private void adaptTickBudget()
+    {
+        MinecraftServer server = world.getMinecraftServer();
+        double tickTime = 0;
+        for (long time : server.tickTimeArray)
+            tickTime += time;
+        tickTime /= server.tickTimeArray.length * 1000000.0;
+        if (tickTime > TARGET_TICK_TIME)
+            tickBudget = Math.max(MIN_TICK_BUDGET, tickBudget * 0.8);
+        else if (tickTime < TARGET_TICK_TIME - 5)
+            tickBudget = Math.min(MAX_TICK_BUDGET, tickBudget + 0.5);
+    }
+
+    private void generate(ChunkProviderServer providerServer)
+    {
+        if (!cubicWorld)
+        {
+            if (providerServer.isChunkGeneratedAt(x, z))
+                return;
+            providerServer.provideChunk(x, z);
+            generatedChunks++;
+        }
+        else
+        {
+            boolean generated = false;
+            for (int y = minY; y <= maxY; y++)
+                generated |= CCPregenCompat.genCube(world, providerServer, x, y, z);
+            if (generated)
+                generatedChunks++;
+        }
+    }
+
+    /**
+     * Advances to the next chunk within the border, which does not exist according to the region file header
+     *
+     * @return false, if all chunks have been visited
+     */
     private boolean next()
     {
-        switch (shape)
+        while (true)
         {
-        default:
-        case BOX:
-            if (++x > maxX)
+            if (chunkIndex >= REGION_CHUNK_COUNT && !nextRegion())
+                return false;
+            int index = chunkIndex++;
+            x = (regionX << 5) + (index & 0x1F);
+            z = (regionZ << 5) + (index >> 5);
+            if (!isInside(x, z))
+                continue;
+            visitedChunks++;
+            if (existingChunks == null || !existingChunks.get(index))
+                return true;
+        }
+    }
+
+    /**
+     * Advances to the next region along the spiral, which intersects the border and is not fully generated yet
+     *
+     * @return false, if all regions have been visited
+     */
+    private boolean nextRegion()
+    {
+        while (true)
+        {
+            stepSpiral();
+            if (Math.max(Math.abs(spiralX), Math.abs(spiralZ)) > maxRing)
+                return false;
+            if (!loadRegion())
+                continue;
+            if (existingChunks != null && existingChunks.cardinality() == REGION_CHUNK_COUNT)
             {
-                x = minX;
-                if (++z > maxZ)
-                    return false;
+                // Skip the whole region
+                for (int index = 0; index < REGION_CHUNK_COUNT; index++)
+                    if (isInside((regionX << 5) + (index & 0x1F), (regionZ << 5) + (index >> 5)))
+                        visitedChunks++;
+                continue;
             }
             return true;
+        }
+    }
+
+    /**
+     * Loads the current region of the spiral
+     *
+     * @return false, if the region does not intersect the border
+     */
+    private boolean loadRegion()
+    {
+        regionX = centerRegionX + spiralX;
+        regionZ = centerRegionZ + spiralZ;
+        chunkIndex = 0;
+        existingChunks = null;
+        if ((regionX << 5) + REGION_CHUNKS - 1 < minX || regionX << 5 > maxX || (regionZ << 5) + REGION_CHUNKS - 1 < minZ || regionZ << 5 > maxZ)
+        {
+            chunkIndex = REGION_CHUNK_COUNT;
+            return false;
+        }
+        if (!cubicWorld)
+            existingChunks = readRegionHeader(new File(new File(world.getChunkSaveLocation(), "region"), "r." + regionX + "." + regionZ + ".mca"));
+        return true;
+    }
+
+    /**
+     * Reads which chunks exist in a region file from the offset table in its header
+     */
+    private static BitSet readRegionHeader(File regionFile)
+    {
+        BitSet chunks = new BitSet(REGION_CHUNK_COUNT);
+        if (!regionFile.exists())
+            return chunks;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(regionFile), REGION_CHUNK_COUNT * 4)))
+        {
+            for (int index = 0; index < REGION_CHUNK_COUNT; index++)
+                if (in.readInt() != 0)
+                    chunks.set(index);
+        }
+        catch (IOException e)
+        {
+            /* Incomplete header - missing chunks are checked when generating */
+        }
+        return chunks;
+    }
+
+    private void resetSpiral()
+    {
+        regionIndex = 0;
+        spiralX = 0;
+        spiralZ = 0;
+        spiralDirection = 0;
+        spiralLegLength = 1;
+        spiralLegStep = 0;
+        loadRegion();
+    }
+
+    private void stepSpiral()
+    {
+        regionIndex++;
+        spiralX += SPIRAL_DX[spiralDirection];
+        spiralZ += SPIRAL_DZ[spiralDirection];
+        if (++spiralLegStep >= spiralLegLength)
+        {
+            spiralLegStep = 0;
+            spiralDirection = (spiralDirection + 1) % 4;
+            if (spiralDirection % 2 == 0)
+                spiralLegLength++;
+        }
+    }
+
+    private boolean isInside(int chunkX, int chunkZ)
+    {
+        if (chunkX < minX || chunkX > maxX || chunkZ < minZ || chunkZ > maxZ)
+            return false;
+        switch (shape)
+        {
         case CYLINDER:
         case ELLIPSOID:
-            while (true)
-            {
-                if (++x > maxX)
-                {
-                    x = minX;
-                    if (++z > maxZ)
-                        return false;
-                }
-                double dx = (double) (centerX - x) / sizeX;
-                double dz = (double) (centerZ - z) / sizeZ;
-                if (dx * dx + dz * dz <= 1)
-                    return true;
-            }
+            double dx = (double) (centerX - chunkX) / sizeX;
+            double dz = (double) (centerZ - chunkZ) / sizeZ;
+            return dx * dx + dz * dz <= 1;
+        default:
+            return true;
         }
     }
 
+    private void saveProgress()
+    {
+        PregenProgress progress = new PregenProgress();
+        progress.dimension = world.provider.getDimension();
+        progress.shape = shape;
+        progress.minX = minX;
+        progress.minZ = minZ;
+        progress.maxX = maxX;
+        progress.maxZ = maxZ;
+        progress.minY = minY;
+        progress.maxY = maxY;
+        progress.regionIndex = regionIndex;
+        progress.chunkIndex = chunkIndex;
+        progress.visitedChunks = visitedChunks;
+        progress.generatedChunks = generatedChunks;
+        DataManager.getInstance().save(progress, Integer.toString(progress.dimension));
+    }
+
     @Override
     public boolean editsBlocks()
     {
@@ -0,0 +1,46 @@
+package com.forgeessentials.commands.world;
+
+import com.forgeessentials.commons.selections.AreaShape;
+
+/**
+ * Saved state of a world pregen, so it can be resumed after a restart
+ */
+public class PregenProgress
+{
+
+    public int dimension;
+
+    public AreaShape shape;
+
+    public int minX;
+
+    public int minZ;
+
+    public int maxX;
+
+    public int maxZ;
+
+    public int minY;
+
+    public int maxY;
+
+    /**
+     * Index of the current region along the spiral around the border center
+     */
+    public int regionIndex;
+
+    /**
+     * Index of the next chunk within the current region
+     */
+    public int chunkIndex;
+
+    public long visitedChunks;
+
+    public long generatedChunks;
+
+    public boolean matches(int dimension, AreaShape shape, int minX, int minZ, int maxX, int maxZ)
+    {
+        return this.dimension == dimension && this.shape == shape && this.minX == minX && this.minZ == minZ && this.maxX == maxX && this.maxZ == maxZ;
+    }
+
+}
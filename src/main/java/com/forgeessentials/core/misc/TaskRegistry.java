@@ -20,7 +20,10 @@ public class TaskRegistry extends ServerEventHandler
     public static class RunLaterTimerTask extends TimerTask
     {
 
-        private boolean taskRunning = false;
+        /**
+         * Set by the timer thread and cleared by the server thread once the queued task has run
+         */
+        private volatile boolean taskRunning = false;
 
         private Runnable task;
 
@@ -113,9 +116,10 @@ public class TaskRegistry extends ServerEventHandler
     @SubscribeEvent
     public void onTick(TickEvent.ServerTickEvent event)
     {
-        for (Runnable task : runLater)
-            task.run();
-        runLater.clear();
+        // Tasks may be added by other threads at any time, so only remove the ones which have been run. A dropped task
+        // would also leave a RunLaterTimerTask blocked forever.
+        for (int count = runLater.size(); count > 0; count--)
+            runLater.poll().run();
 
         int blockTaskCount = 0;
         for (Iterator<TickTask> iterator = tickTasks.iterator(); iterator.hasNext(); )
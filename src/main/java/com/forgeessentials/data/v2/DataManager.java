@@ -246,41 +246,47 @@ public class DataManager
     public static Gson getGson()
     {
         if (gson == null || formatsChanged)
-        {
-            GsonBuilder builder = new GsonBuilder();
-            builder.setPrettyPrinting();
-            builder.setExclusionStrategies(new ExclusionStrategy() {
-                @Override
-                public boolean shouldSkipField(FieldAttributes f)
-                {
-                    Expose expose = f.getAnnotation(Expose.class);
-                    if (expose != null && (!expose.serialize() || !expose.deserialize()))
-                        return true;
-
-                    SerializationGroup groupAnnot = f.getAnnotation(SerializationGroup.class);
-                    if (groupAnnot != null && !serializationGroups.contains(groupAnnot.name()))
-                        return true;
-
-                    return false;
-                }
-
-                @Override
-                public boolean shouldSkipClass(Class<?> clazz)
-                {
-                    return false;
-                }
-            });
-
-            for (Entry<Class<?>, JsonSerializer<?>> format : serializers.entrySet())
-                builder.registerTypeAdapter(format.getKey(), format.getValue());
-            for (Entry<Class<?>, JsonDeserializer<?>> format : deserializers.entrySet())
-                builder.registerTypeAdapter(format.getKey(), format.getValue());
-
-            gson = builder.create();
-        }
+            gson = createGsonBuilder().create();
         return gson;
     }
 
+    /**
+     * Creates a builder with the settings and type adapters used by {@link #getGson()}, which can be used to create
+     * specialized Gson instances
+     */
+    public static GsonBuilder createGsonBuilder()
+    {
+        GsonBuilder builder = new GsonBuilder();
+        builder.setPrettyPrinting();
+        builder.setExclusionStrategies(new ExclusionStrategy() {
+            @Override
+            public boolean shouldSkipField(FieldAttributes f)
+            {
+                Expose expose = f.getAnnotation(Expose.class);
+                if (expose != null && (!expose.serialize() || !expose.deserialize()))
+                    return true;
+
+                SerializationGroup groupAnnot = f.getAnnotation(SerializationGroup.class);
+                if (groupAnnot != null && !serializationGroups.contains(groupAnnot.name()))
+                    return true;
+
+                return false;
+            }
+
+            @Override
+            public boolean shouldSkipClass(Class<?> clazz)
+            {
+                return false;
+            }
+        });
+
+        for (Entry<Class<?>, JsonSerializer<?>> format : serializers.entrySet())
+            builder.registerTypeAdapter(format.getKey(), format.getValue());
+        for (Entry<Class<?>, JsonDeserializer<?>> format : deserializers.entrySet())
+            builder.registerTypeAdapter(format.getKey(), format.getValue());
+        return builder;
+    }
+
     public static String toJson(Object src, String... groups)
     {
         try
@@ -0,0 +1,100 @@
+package com.forgeessentials.mapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * LRU cache of encoded map tiles, limited by the total size of the cached images.
+ */
+public class MapTileCache
+{
+
+    public static class MapTile
+    {
+
+        public final byte[] data;
+
+        public final String etag;
+
+        public final long lastModified;
+
+        public MapTile(byte[] data, long lastModified)
+        {
+            this.data = data;
+            this.lastModified = lastModified;
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            this.etag = String.format("%08x-%x", crc.getValue(), data.length);
+        }
+
+        public static MapTile read(File file) throws IOException
+        {
+            return new MapTile(Files.readAllBytes(file.toPath()), file.lastModified());
+        }
+
+    }
+
+    private final Map<String, MapTile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long maxSize;
+
+    private long size;
+
+    public MapTileCache(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized MapTile get(String key)
+    {
+        return tiles.get(key);
+    }
+
+    public synchronized void put(String key, MapTile tile)
+    {
+        MapTile oldTile = tiles.put(key, tile);
+        if (oldTile != null)
+            size -= oldTile.data.length;
+        size += tile.data.length;
+        evict();
+    }
+
+    public synchronized void remove(String key)
+    {
+        MapTile tile = tiles.remove(key);
+        if (tile != null)
+            size -= tile.data.length;
+    }
+
+    public synchronized void clear()
+    {
+        tiles.clear();
+        size = 0;
+    }
+
+    public synchronized void setMaxSize(long maxSize)
+    {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    private void evict()
+    {
+        for (Iterator<MapTile> it = tiles.values().iterator(); size > maxSize && it.hasNext();)
+        {
+            size -= it.next().data.length;
+            it.remove();
+        }
+    }
+
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+}
@@ -2,6 +2,8 @@ package com.forgeessentials.mapper;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -9,14 +11,17 @@ import java.util.Map;
 import java.util.Scanner;
 
 import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
-import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.AnvilChunkLoader;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraft.world.chunk.storage.RegionFileCache;
 
+import com.forgeessentials.util.output.LoggingHandler;
+
 public final class MapperUtil
 {
 
@@ -33,31 +38,127 @@ public final class MapperUtil
     public static Color[][] raincolors = new Color[64][];
     public static Color[][] tempcolors = new Color[64][];
 
+    /**
+     * RGB colors by block state id. Zero means the color has not been looked up yet. Workers may race on an entry, but
+     * they always store the same value.
+     */
+    private static int[] stateColors = new int[1 << 16];
+
     /* ------------------------------------------------------------ */
 
+    /**
+     * Renders the top block of each column of the chunk into the image.
+     *
+     * Columns are scanned directly on the block storage arrays of the chunk, skipping empty sections.
+     */
     public static void renderChunk(BufferedImage image, int offsetX, int offsetY, Chunk chunk)
     {
-        for (int ix = 0; ix < 16; ix++)
+        renderColumns(image, offsetX, offsetY, getTopBlocks(chunk, new int[CHUNK_BLOCKS * CHUNK_BLOCKS]));
+    }
+
+    /**
+     * Renders the top blocks of a chunk as returned by {@link RegionChunkReader#readTopBlocks} into the image. Images
+     * of type {@link BufferedImage#TYPE_3BYTE_BGR} are written directly into their data buffer.
+     */
+    public static void renderColumns(BufferedImage image, int offsetX, int offsetY, int[] topBlocks)
+    {
+        byte[] pixels = image.getType() == BufferedImage.TYPE_3BYTE_BGR ? ((DataBufferByte) image.getRaster().getDataBuffer()).getData() : null;
+        int width = image.getWidth();
+        for (int iz = 0; iz < CHUNK_BLOCKS; iz++)
         {
-            for (int iz = 0; iz < 16; iz++)
+            int offset = ((offsetY + iz) * width + offsetX) * 3;
+            for (int ix = 0; ix < CHUNK_BLOCKS; ix++, offset += 3)
             {
-                int iy = chunk.getHeight(new BlockPos(ix, 0, iz));
-                for (; iy >= 0; iy--)
-                {
-                    Block block = chunk.getBlockState(ix, iy, iz).getBlock();
-                    if (block == Blocks.AIR)
-                        continue;
-                    image.setRGB(offsetX + ix, offsetY + iz, getBlockColor(block, block.getMetaFromState(chunk.getBlockState(ix, iy, iz))).getRGB());
-                    break;
-                }
-                if (iy < 0)
+                int stateId = topBlocks[iz << 4 | ix];
+                if (stateId == RegionChunkReader.EMPTY)
+                    continue;
+                int rgb = getBlockRGB(stateId);
+                if (pixels == null)
                 {
-                    /* error */
+                    image.setRGB(offsetX + ix, offsetY + iz, rgb);
+                    continue;
                 }
+                pixels[offset] = (byte) rgb;
+                pixels[offset + 1] = (byte) (rgb >> 8);
+                pixels[offset + 2] = (byte) (rgb >> 16);
             }
         }
     }
 
+    /**
+     * Stores the state id of the top block of each column of a loaded chunk in the same format as
+     * {@link RegionChunkReader#readTopBlocks}
+     */
+    public static int[] getTopBlocks(Chunk chunk, int[] topBlocks)
+    {
+        ExtendedBlockStorage[] storage = chunk.getBlockStorageArray();
+        for (int iz = 0; iz < CHUNK_BLOCKS; iz++)
+            for (int ix = 0; ix < CHUNK_BLOCKS; ix++)
+            {
+                IBlockState state = getTopBlockState(storage, ix, Math.min(chunk.getHeightValue(ix, iz), 255), iz);
+                topBlocks[iz << 4 | ix] = state == null ? RegionChunkReader.EMPTY : Block.getStateId(state);
+            }
+        return topBlocks;
+    }
+
+    /**
+     * Returns the first non-air block state at or below y or null, if the column is empty
+     */
+    private static IBlockState getTopBlockState(ExtendedBlockStorage[] storage, int x, int y, int z)
+    {
+        while (y >= 0)
+        {
+            ExtendedBlockStorage section = storage[y >> 4];
+            if (section == Chunk.NULL_BLOCK_STORAGE || section.isEmpty())
+            {
+                y = (y & ~0xF) - 1;
+                continue;
+            }
+            IBlockState state = section.get(x, y & 0xF, z);
+            if (state.getBlock() != Blocks.AIR)
+                return state;
+            y--;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the top blocks of a chunk. Loaded chunks are used directly, all other chunks are read from the region
+     * file without loading them.
+     *
+     * @return the top blocks (see {@link RegionChunkReader#readTopBlocks}) or null, if the chunk does not exist
+     */
+    public static int[] loadTopBlocks(WorldServer world, int cx, int cz)
+    {
+        Chunk chunk = world.getChunkProvider().id2ChunkMap.get(ChunkPos.asLong(cx, cz));
+        if (chunk != null)
+            return getTopBlocks(chunk, new int[CHUNK_BLOCKS * CHUNK_BLOCKS]);
+        try
+        {
+            return RegionChunkReader.get().readTopBlocks(world.getChunkSaveLocation(), cx, cz);
+        }
+        catch (IOException e)
+        {
+            LoggingHandler.felog.warn(String.format("Error reading chunk %d.%d: %s", cx, cz, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Renders a chunk without loading it
+     *
+     * @return the chunk image or null, if the chunk does not exist
+     */
+    public static BufferedImage renderChunk(WorldServer world, int cx, int cz)
+    {
+        int[] topBlocks = loadTopBlocks(world, cx, cz);
+        if (topBlocks == null)
+            return null;
+        BufferedImage image = new BufferedImage(CHUNK_BLOCKS, CHUNK_BLOCKS, BufferedImage.TYPE_3BYTE_BGR);
+        renderColumns(image, 0, 0, topBlocks);
+        return image;
+    }
+
     public static BufferedImage renderChunk(Chunk chunk)
     {
         BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_3BYTE_BGR);
@@ -69,18 +170,14 @@ public final class MapperUtil
     {
         int chunkStartX = regionX * MapperUtil.REGION_CHUNKS;
         int chunkStartZ = regionZ * MapperUtil.REGION_CHUNKS;
-        // File regionFile = new File(file2, "r." + regionX + "." + regionZ + ".mca");
         BufferedImage image = new BufferedImage(MapperUtil.REGION_BLOCKS, MapperUtil.REGION_BLOCKS, BufferedImage.TYPE_3BYTE_BGR);
         for (int rx = 0; rx < MapperUtil.REGION_CHUNKS; rx++)
         {
             for (int rz = 0; rz < MapperUtil.REGION_CHUNKS; rz++)
             {
-                int cx = chunkStartX + rx;
-                int cz = chunkStartZ + rz;
-                if (!MapperUtil.chunkExists(world, cx, cz))
-                    continue;
-                Chunk chunk = loadChunk(world, cx, cz);
-                MapperUtil.renderChunk(image, rx * MapperUtil.CHUNK_BLOCKS, rz * MapperUtil.CHUNK_BLOCKS, chunk);
+                int[] topBlocks = loadTopBlocks(world, chunkStartX + rx, chunkStartZ + rz);
+                if (topBlocks != null)
+                    renderColumns(image, rx * MapperUtil.CHUNK_BLOCKS, rz * MapperUtil.CHUNK_BLOCKS, topBlocks);
             }
         }
         return image;
@@ -108,9 +205,62 @@ public final class MapperUtil
         return RegionFileCache.createOrLoadRegionFile(world.getChunkSaveLocation(), cx, cz).chunkExists(cx & 0x1F, cz & 0x1F);
     }
 
+    public static boolean regionExists(WorldServer world, int regionX, int regionZ)
+    {
+        return new File(new File(world.getChunkSaveLocation(), "region"), "r." + regionX + "." + regionZ + ".mca").exists();
+    }
+
+    /**
+     * Scales the image down to half its size and draws it into the target image at the given offset
+     */
+    public static void downsample(BufferedImage source, BufferedImage target, int offsetX, int offsetY)
+    {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] pixels = source.getRGB(0, 0, width, height, null, 0, width);
+        int[] scaled = new int[(width / 2) * (height / 2)];
+        for (int iy = 0; iy < height / 2; iy++)
+        {
+            for (int ix = 0; ix < width / 2; ix++)
+            {
+                int i = iy * 2 * width + ix * 2;
+                int p1 = pixels[i];
+                int p2 = pixels[i + 1];
+                int p3 = pixels[i + width];
+                int p4 = pixels[i + width + 1];
+                int r = (((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF) + ((p3 >> 16) & 0xFF) + ((p4 >> 16) & 0xFF)) >> 2;
+                int g = (((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF) + ((p3 >> 8) & 0xFF) + ((p4 >> 8) & 0xFF)) >> 2;
+                int b = ((p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + (p4 & 0xFF)) >> 2;
+                scaled[iy * (width / 2) + ix] = 0xFF000000 | r << 16 | g << 8 | b;
+            }
+        }
+        target.setRGB(offsetX, offsetY, width / 2, height / 2, scaled, 0, width / 2);
+    }
+
     /* ------------------------------------------------------------ */
 
-    public static Color getBlockColor(Block block, int meta)
+    /**
+     * Returns the color of a block by its state id ({@code blockId | meta << 12})
+     */
+    public static int getBlockRGB(int stateId)
+    {
+        int[] table = stateColors;
+        if (stateId < 0 || stateId >= table.length)
+            return Color.BLACK.getRGB();
+        int rgb = table[stateId];
+        if (rgb == 0)
+        {
+            rgb = getBlockColor(Block.getBlockById(stateId & 0xFFF), stateId >> 12 & 0xF).getRGB();
+            table[stateId] = rgb;
+        }
+        return rgb;
+    }
+
+    /**
+     * Returns the color of a block from the color scheme. Synchronized because render workers look up and fill in
+     * missing colors concurrently.
+     */
+    public static synchronized Color getBlockColor(Block block, int meta)
     {
         int id = Block.REGISTRY.getIDForObject(block);
         if (id >= colors.length)
@@ -193,10 +343,11 @@ public final class MapperUtil
 
     /* ------------------------------------------------------------ */
 
-    public static void loadColorScheme(InputStream stream)
+    public static synchronized void loadColorScheme(InputStream stream)
     {
         colors = new Color[4096][];
         datacolors = new Color[4096][][];
+        stateColors = new int[1 << 16];
         // biomecolors = new Color[BiomeMap.values().length][];
         // raincolors = new Color[64][];
         // tempcolors = new Color[64][];
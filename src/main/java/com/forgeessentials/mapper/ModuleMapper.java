@@ -6,6 +6,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -14,7 +16,6 @@ import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -26,7 +27,6 @@ import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagIntArray;
 import net.minecraft.server.MinecraftServer;
-import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.MinecraftForge;
@@ -41,22 +41,37 @@ import com.forgeessentials.core.ForgeEssentials;
 import com.forgeessentials.core.misc.FECommandManager;
 import com.forgeessentials.core.moduleLauncher.FEModule;
 import com.forgeessentials.core.moduleLauncher.config.ConfigLoaderBase;
+import com.forgeessentials.mapper.MapTileCache.MapTile;
 import com.forgeessentials.mapper.command.CommandMapper;
 import com.forgeessentials.util.events.FEModuleEvent.FEModuleInitEvent;
 import com.forgeessentials.util.events.FEModuleEvent.FEModuleServerInitEvent;
 import com.forgeessentials.util.events.FEModuleEvent.FEModuleServerStopEvent;
 import com.forgeessentials.util.output.LoggingHandler;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @FEModule(name = "mapper", parentMod = ForgeEssentials.class, canDisable = true)
 public class ModuleMapper extends ConfigLoaderBase
 {
 
+    public static final String CONFIG_CAT = "Mapper";
+
     public static final String TAG_MODIFIED = "lastModified";
 
     public static final int MAX_UPDATE_INTERVAL = 1000 * 5;
     public static final int MAX_REGION_UPDATE_INTERVAL = 1000 * 10;
     public static final long MAX_CACHE_SAVE_INTERVAL = 1000 * 60;
 
+    /**
+     * Highest zoom level of the tile pyramid. A tile of zoom level n covers 2^n x 2^n regions.
+     */
+    public static final int MAX_ZOOM = 4;
+
+    public static final int TILE_SIZE = MapperUtil.REGION_BLOCKS;
+
     public final String CACHE_FILE = "cache.dat";
 
     @FEModule.Instance
@@ -67,7 +82,9 @@ public class ModuleMapper extends ConfigLoaderBase
     @FEModule.ModuleDir
     private static File mapperDirectory;
 
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private ExecutorService executor;
+
+    private int renderThreads;
 
     private NBTTagCompound cacheStorage = new NBTTagCompound();
 
@@ -75,9 +92,22 @@ public class ModuleMapper extends ConfigLoaderBase
 
     private Set<Chunk> modifiedChunks = Collections.newSetFromMap(new WeakHashMap<Chunk, Boolean>());
 
-    protected Map<Long, Future<BufferedImage>> regionRenderers = new ConcurrentHashMap<>();
+    /**
+     * Running and queued render jobs by dimension and region / chunk coordinates
+     */
+    protected Map<String, ListenableFuture<BufferedImage>> regionRenderers = new ConcurrentHashMap<>();
 
-    protected Map<Long, Future<BufferedImage>> chunkRenderers = new ConcurrentHashMap<>();
+    protected Map<String, ListenableFuture<BufferedImage>> chunkRenderers = new ConcurrentHashMap<>();
+
+    protected Map<String, ListenableFuture<MapTile>> tileRenderers = new ConcurrentHashMap<>();
+
+    /**
+     * Locks by cache file name. Tiles also render their child tiles and regions inline, so the render job maps alone
+     * cannot keep two jobs from rendering and writing the same image at once.
+     */
+    private final Map<String, Object> renderLocks = new ConcurrentHashMap<>();
+
+    private MapTileCache tileCache = new MapTileCache(0);
 
     public static ModuleMapper getInstance()
     {
@@ -118,6 +148,19 @@ public class ModuleMapper extends ConfigLoaderBase
     @Override
     public void load(Configuration config, boolean isReload)
     {
+        int threads = Math.max(1, config.get(CONFIG_CAT, "render_threads", Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                "Number of threads used to render map tiles").getInt());
+        if (executor == null || threads != renderThreads)
+        {
+            if (executor != null)
+                executor.shutdown();
+            renderThreads = threads;
+            executor = Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setNameFormat("FE mapper %d").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+        }
+        tileCache.setMaxSize(1024L * 1024L * Math.max(0, config.get(CONFIG_CAT, "tile_cache_size", 32,
+                "Size of the in-memory cache for encoded map tiles in MB").getInt()));
+
         // localhostOnly = config.get(CONFIG_CAT, "localhostOnly", true, "Allow connections from the web").getBoolean();
         // hostname = config.get(CONFIG_CAT, "hostname", "localhost",
         // "Hostname of your server. Used for QR code generation.").getString();
@@ -205,10 +248,52 @@ public class ModuleMapper extends ConfigLoaderBase
     {
         int[] cache = getRegionCache(world, regionX, regionZ);
         if (cache[MapperUtil.REGION_CHUNK_COUNT] == 0)
+        {
             cache[MapperUtil.REGION_CHUNK_COUNT] = getCurrentMillisInt();
+            invalidateTiles(world, regionX, regionZ);
+        }
         saveCache(false);
     }
 
+    /**
+     * Marks all tiles containing the region as modified
+     */
+    public synchronized void invalidateTiles(WorldServer world, int regionX, int regionZ)
+    {
+        tileCache.remove(getTileKey(world, 0, regionX, regionZ));
+        for (int zoom = 1; zoom <= MAX_ZOOM; zoom++)
+            setTileModified(world, zoom, regionX >> zoom, regionZ >> zoom);
+    }
+
+    public synchronized void setTileModified(WorldServer world, int zoom, int x, int z)
+    {
+        String key = getTileKey(world, zoom, x, z);
+        cacheStorage.setBoolean(key, true);
+        tileCache.remove(key);
+    }
+
+    public synchronized void unsetTileModified(WorldServer world, int zoom, int x, int z)
+    {
+        cacheStorage.removeTag(getTileKey(world, zoom, x, z));
+    }
+
+    /**
+     * Returns true, if the tile has been modified since it was last rendered
+     */
+    public synchronized boolean isTileModified(WorldServer world, int zoom, int x, int z)
+    {
+        if (zoom == 0)
+            return getRegionCache(world, x, z)[MapperUtil.REGION_CHUNK_COUNT] != 0;
+        return cacheStorage.getBoolean(getTileKey(world, zoom, x, z));
+    }
+
+    public boolean shouldUpdateTile(WorldServer world, int zoom, int x, int z)
+    {
+        if (zoom == 0)
+            return shouldUpdateRegion(world, x, z);
+        return isTileModified(world, zoom, x, z);
+    }
+
     public synchronized void unsetChunkModified(WorldServer world, int chunkX, int chunkZ)
     {
         int regionX = MapperUtil.chunkToRegion(chunkX);
@@ -279,7 +364,7 @@ public class ModuleMapper extends ConfigLoaderBase
         }
     }
 
-    public void saveCache(boolean force)
+    public synchronized void saveCache(boolean force)
     {
         if (!force && lastCacheSave > System.currentTimeMillis() - MAX_CACHE_SAVE_INTERVAL)
             return;
@@ -304,16 +389,21 @@ public class ModuleMapper extends ConfigLoaderBase
 
     public BufferedImage renderChunk(final WorldServer world, final int chunkX, final int chunkZ)
     {
-        if (!MapperUtil.chunkExists(world, chunkX, chunkZ))
+        if (!MapperUtil.regionExists(world, MapperUtil.chunkToRegion(chunkX), MapperUtil.chunkToRegion(chunkZ)))
             return null;
         File cacheFile = getChunkCacheFile(world, chunkX, chunkZ);
         LoggingHandler.felog.warn(String.format("Rendering chunk %d.%d...", chunkX, chunkZ));
-        Chunk chunk = MapperUtil.loadChunk(world, chunkX, chunkZ);
-        BufferedImage image = MapperUtil.renderChunk(chunk);
+        BufferedImage image = MapperUtil.renderChunk(world, chunkX, chunkZ);
+        if (image == null)
+            return null;
         try
         {
-            ImageIO.write(image, "png", cacheFile);
-            unsetChunkModified(chunk);
+            writeCacheFile(image, cacheFile);
+            Chunk chunk = world.getChunkProvider().getLoadedChunk(chunkX, chunkZ);
+            if (chunk != null)
+                unsetChunkModified(chunk);
+            else
+                unsetChunkModified(world, chunkX, chunkZ);
             saveCache(false);
         }
         catch (IOException e)
@@ -326,59 +416,32 @@ public class ModuleMapper extends ConfigLoaderBase
     public BufferedImage getChunkImage(final WorldServer world, final int chunkX, final int chunkZ)
     {
         File cacheFile = getChunkCacheFile(world, chunkX, chunkZ);
-        if (cacheFile.exists() && !shouldUpdateChunk(world, chunkX, chunkZ))
+        synchronized (getRenderLock(cacheFile))
         {
-            try
-            {
-                return ImageIO.read(cacheFile);
-            }
-            catch (IOException e)
+            if (cacheFile.exists() && !shouldUpdateChunk(world, chunkX, chunkZ))
             {
-                LoggingHandler.felog.warn(String.format("Error reading mapper cache file %s", cacheFile));
+                try
+                {
+                    return ImageIO.read(cacheFile);
+                }
+                catch (IOException e)
+                {
+                    LoggingHandler.felog.warn(String.format("Error reading mapper cache file %s", cacheFile));
+                }
             }
+            return renderChunk(world, chunkX, chunkZ);
         }
-        return renderChunk(world, chunkX, chunkZ);
     }
 
     public synchronized Future<BufferedImage> getChunkImageAsync(final WorldServer world, final int chunkX, final int chunkZ)
     {
-        final long id = ChunkPos.asLong(chunkX, chunkZ);
-        Future<BufferedImage> result = chunkRenderers.get(id);
-        if (result != null)
-            return result;
-        result = executor.submit(new Callable<BufferedImage>() {
-            @Override
-            public BufferedImage call()
-            {
-                BufferedImage result = getChunkImage(world, chunkX, chunkZ);
-                chunkRenderers.remove(id);
-                return result;
-            }
-        });
-        chunkRenderers.put(id, result);
-        return result;
+        return submitRenderer(chunkRenderers, getRenderKey(world, chunkX, chunkZ), () -> getChunkImage(world, chunkX, chunkZ));
     }
 
     public Future<File> getChunkFileAsync(final WorldServer world, final int chunkX, final int chunkZ)
     {
-        final Future<BufferedImage> future = getChunkImageAsync(world, chunkX, chunkZ);
-        return executor.submit(new Callable<File>() {
-            @Override
-            public File call()
-            {
-                try
-                {
-                    if (future.get() == null)
-                        return null;
-                    return getChunkCacheFile(world, chunkX, chunkZ);
-                }
-                catch (InterruptedException | ExecutionException e)
-                {
-                    e.printStackTrace();
-                    return null;
-                }
-            }
-        });
+        ListenableFuture<BufferedImage> future = (ListenableFuture<BufferedImage>) getChunkImageAsync(world, chunkX, chunkZ);
+        return Futures.transform(future, image -> image == null ? null : getChunkCacheFile(world, chunkX, chunkZ), MoreExecutors.directExecutor());
     }
 
     /* ------------------------------------------------------------ */
@@ -397,8 +460,9 @@ public class ModuleMapper extends ConfigLoaderBase
         File cacheFile = getRegionCacheFile(world, regionX, regionZ);
         try
         {
-            ImageIO.write(image, "png", cacheFile);
+            writeCacheFile(image, cacheFile);
             unsetRegionModified(world, regionX, regionZ);
+            invalidateTiles(world, regionX, regionZ);
             saveCache(false);
         }
         catch (IOException e)
@@ -411,59 +475,191 @@ public class ModuleMapper extends ConfigLoaderBase
     public BufferedImage getRegionImage(WorldServer world, int regionX, int regionZ)
     {
         File cacheFile = getRegionCacheFile(world, regionX, regionZ);
-        if (cacheFile.exists() && !shouldUpdateRegion(world, regionX, regionZ))
+        synchronized (getRenderLock(cacheFile))
         {
-            try
-            {
-                return ImageIO.read(cacheFile);
-            }
-            catch (IOException e)
+            if (cacheFile.exists() && !shouldUpdateRegion(world, regionX, regionZ))
             {
-                LoggingHandler.felog.warn(String.format("Error reading mapper cache file %s", cacheFile));
+                try
+                {
+                    return ImageIO.read(cacheFile);
+                }
+                catch (IOException e)
+                {
+                    LoggingHandler.felog.warn(String.format("Error reading mapper cache file %s", cacheFile));
+                }
             }
+            return renderRegion(world, regionX, regionZ);
         }
-        return renderRegion(world, regionX, regionZ);
     }
 
     public synchronized Future<BufferedImage> getRegionImageAsync(final WorldServer world, final int regionX, final int regionZ)
     {
-        final long id = ChunkPos.asLong(regionX, regionZ);
-        Future<BufferedImage> result = regionRenderers.get(id);
-        if (result != null)
-            return result;
-        result = executor.submit(new Callable<BufferedImage>() {
-            @Override
-            public BufferedImage call()
-            {
-                BufferedImage result = getRegionImage(world, regionX, regionZ);
-                regionRenderers.remove(id);
-                return result;
-            }
-        });
-        regionRenderers.put(id, result);
-        return result;
+        return submitRenderer(regionRenderers, getRenderKey(world, regionX, regionZ), () -> getRegionImage(world, regionX, regionZ));
     }
 
     public Future<File> getRegionFileAsync(final WorldServer world, final int regionX, final int regionZ)
     {
-        final Future<BufferedImage> future = getRegionImageAsync(world, regionX, regionZ);
-        return executor.submit(new Callable<File>() {
-            @Override
-            public File call()
+        ListenableFuture<BufferedImage> future = (ListenableFuture<BufferedImage>) getRegionImageAsync(world, regionX, regionZ);
+        return Futures.transform(future, image -> image == null ? null : getRegionCacheFile(world, regionX, regionZ), MoreExecutors.directExecutor());
+    }
+
+    /* ------------------------------------------------------------ */
+
+    /* ------------------------------------------------------------ */
+
+    public File getTileCacheFile(WorldServer world, int zoom, int x, int z)
+    {
+        if (zoom == 0)
+            return getRegionCacheFile(world, x, z);
+        return new File(dataDirectory, String.format("%d.z%d.%d.%d.png", world.provider.getDimension(), zoom, x, z));
+    }
+
+    private static String getTileKey(WorldServer world, int zoom, int x, int z)
+    {
+        return String.format("%d-z%d-%d.%d", world.provider.getDimension(), zoom, x, z);
+    }
+
+    /**
+     * Renders a tile of the pyramid by downsampling its four child tiles
+     *
+     * @return the tile image or null, if the area of the tile does not contain any regions
+     */
+    public BufferedImage renderTile(WorldServer world, int zoom, int x, int z)
+    {
+        // Clear the flag first, so modifications while rendering are not lost
+        unsetTileModified(world, zoom, x, z);
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_3BYTE_BGR);
+        boolean empty = true;
+        for (int i = 0; i < 4; i++)
+        {
+            int childX = x * 2 + (i & 1);
+            int childZ = z * 2 + (i >> 1);
+            BufferedImage child = getTileImage(world, zoom - 1, childX, childZ);
+            if (child == null)
+                continue;
+            empty = false;
+            MapperUtil.downsample(child, image, (i & 1) * TILE_SIZE / 2, (i >> 1) * TILE_SIZE / 2);
+            // Children which were modified too recently to be updated need another pass later
+            if (isTileModified(world, zoom - 1, childX, childZ))
+                setTileModified(world, zoom, x, z);
+        }
+        File cacheFile = getTileCacheFile(world, zoom, x, z);
+        if (empty)
+        {
+            cacheFile.delete();
+            return null;
+        }
+        try
+        {
+            writeCacheFile(image, cacheFile);
+            saveCache(false);
+        }
+        catch (IOException e)
+        {
+            LoggingHandler.felog.warn(String.format("Error writing mapper cache file %s: %s", cacheFile, e.getMessage()));
+        }
+        return image;
+    }
+
+    /**
+     * Returns the image of a tile of the pyramid. Zoom level 0 returns region images.
+     *
+     * The tile is locked while it is rendered, so concurrent jobs sharing a child tile wait for the first one and then
+     * read its result from the cache. A tile only ever waits on tiles of a lower zoom level, so this cannot deadlock.
+     *
+     * @return the tile image or null, if the area of the tile does not contain any regions
+     */
+    public BufferedImage getTileImage(WorldServer world, int zoom, int x, int z)
+    {
+        if (zoom == 0)
+            return MapperUtil.regionExists(world, x, z) ? getRegionImage(world, x, z) : null;
+        File cacheFile = getTileCacheFile(world, zoom, x, z);
+        synchronized (getRenderLock(cacheFile))
+        {
+            if (cacheFile.exists() && !shouldUpdateTile(world, zoom, x, z))
             {
                 try
                 {
-                    if (future.get() == null)
-                        return null;
-                    return getRegionCacheFile(world, regionX, regionZ);
+                    return ImageIO.read(cacheFile);
                 }
-                catch (InterruptedException | ExecutionException e)
+                catch (IOException e)
                 {
-                    e.printStackTrace();
-                    return null;
+                    LoggingHandler.felog.warn(String.format("Error reading mapper cache file %s", cacheFile));
                 }
             }
-        });
+            return renderTile(world, zoom, x, z);
+        }
+    }
+
+    /**
+     * Returns the encoded image of a tile from the tile cache, rendering it if necessary
+     *
+     * @return future of the tile, which results in null if the area of the tile does not contain any regions
+     */
+    public Future<MapTile> getTileAsync(final WorldServer world, final int zoom, final int x, final int z)
+    {
+        if (zoom < 0 || zoom > MAX_ZOOM)
+            throw new IllegalArgumentException("Invalid zoom level");
+        final String key = getTileKey(world, zoom, x, z);
+        MapTile tile = tileCache.get(key);
+        if (tile != null && !shouldUpdateTile(world, zoom, x, z))
+            return Futures.immediateFuture(tile);
+        synchronized (this)
+        {
+            return submitRenderer(tileRenderers, key, () -> {
+                if (getTileImage(world, zoom, x, z) == null)
+                    return null;
+                MapTile result = MapTile.read(getTileCacheFile(world, zoom, x, z));
+                tileCache.put(key, result);
+                return result;
+            });
+        }
+    }
+
+    private Object getRenderLock(File cacheFile)
+    {
+        return renderLocks.computeIfAbsent(cacheFile.getName(), k -> new Object());
+    }
+
+    /**
+     * Writes the image to a temporary file first and moves it over the cache file, so readers never see a partially
+     * written image
+     */
+    private static void writeCacheFile(BufferedImage image, File cacheFile) throws IOException
+    {
+        File tmpFile = new File(cacheFile.getPath() + ".tmp");
+        if (!ImageIO.write(image, "png", tmpFile))
+            throw new IOException("No png writer available");
+        try
+        {
+            Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            tmpFile.delete();
+            throw e;
+        }
+    }
+
+    private static String getRenderKey(WorldServer world, int x, int z)
+    {
+        return String.format("%d-%d.%d", world.provider.getDimension(), x, z);
+    }
+
+    /**
+     * Returns the running render job for the key or queues a new one. The job is registered before it is queued and
+     * removed once it has finished, so each tile is only rendered once at a time.
+     */
+    private <T> ListenableFuture<T> submitRenderer(Map<String, ListenableFuture<T>> renderers, String key, Callable<T> renderer)
+    {
+        ListenableFuture<T> result = renderers.get(key);
+        if (result != null)
+            return result;
+        ListenableFutureTask<T> task = ListenableFutureTask.create(renderer);
+        task.addListener(() -> renderers.remove(key, task), MoreExecutors.directExecutor());
+        renderers.put(key, task);
+        executor.execute(task);
+        return task;
     }
 
     /* ------------------------------------------------------------ */
@@ -0,0 +1,294 @@
+package com.forgeessentials.mapper;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.minecraft.world.chunk.storage.RegionFileCache;
+
+/**
+ * Reads the top block of each column of a chunk directly from its region file.
+ *
+ * Only the height map and the block arrays of the chunk sections are decoded. All other data (entities, tile entities,
+ * light, ...) is skipped while streaming the chunk NBT, so no {@link net.minecraft.world.chunk.Chunk} and almost no
+ * temporary objects are created. Buffers are reused, so each thread should use its own reader (see {@link #get()}).
+ */
+public class RegionChunkReader
+{
+
+    /**
+     * Top block value of columns that do not contain any blocks
+     */
+    public static final int EMPTY = -1;
+
+    private static final int SECTIONS = 16;
+
+    private static final byte TAG_END = 0;
+    private static final byte TAG_BYTE = 1;
+    private static final byte TAG_SHORT = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_FLOAT = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_BYTE_ARRAY = 7;
+    private static final byte TAG_STRING = 8;
+    private static final byte TAG_LIST = 9;
+    private static final byte TAG_COMPOUND = 10;
+    private static final byte TAG_INT_ARRAY = 11;
+    private static final byte TAG_LONG_ARRAY = 12;
+
+    private static final ThreadLocal<RegionChunkReader> readers = ThreadLocal.withInitial(RegionChunkReader::new);
+
+    private final int[] heightMap = new int[256];
+
+    private boolean hasHeightMap;
+
+    private final byte[][] blocks = new byte[SECTIONS][4096];
+
+    private final byte[][] add = new byte[SECTIONS][2048];
+
+    private final byte[][] data = new byte[SECTIONS][2048];
+
+    private final boolean[] hasAdd = new boolean[SECTIONS];
+
+    /**
+     * Buffer slot of each section by its y index or -1, if the section is empty
+     */
+    private final int[] sectionSlots = new int[SECTIONS];
+
+    private int slotCount;
+
+    private final int[] topBlocks = new int[256];
+
+    // ------------------------------------------------------------
+
+    public static RegionChunkReader get()
+    {
+        return readers.get();
+    }
+
+    /**
+     * Reads the top blocks of a chunk from the region files in the save location.
+     *
+     * @return the state ids ({@code blockId | meta << 12}) of the top block of each column indexed by
+     *         {@code z << 4 | x}, or null if the chunk does not exist. The returned array is reused by the next read.
+     */
+    public int[] readTopBlocks(File saveLocation, int chunkX, int chunkZ) throws IOException
+    {
+        DataInputStream in = RegionFileCache.getChunkInputStream(saveLocation, chunkX, chunkZ);
+        if (in == null)
+            return null;
+        hasHeightMap = false;
+        slotCount = 0;
+        Arrays.fill(sectionSlots, -1);
+        try
+        {
+            if (in.readByte() != TAG_COMPOUND)
+                throw new IOException("Invalid chunk data");
+            skipFully(in, in.readUnsignedShort());
+            byte type;
+            while ((type = in.readByte()) != TAG_END)
+            {
+                String name = in.readUTF();
+                if (type == TAG_COMPOUND && name.equals("Level"))
+                    readLevel(in);
+                else
+                    skipTag(in, type);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return computeTopBlocks();
+    }
+
+    private void readLevel(DataInputStream in) throws IOException
+    {
+        byte type;
+        while ((type = in.readByte()) != TAG_END)
+        {
+            String name = in.readUTF();
+            if (type == TAG_INT_ARRAY && name.equals("HeightMap"))
+            {
+                int length = in.readInt();
+                if (length != heightMap.length)
+                {
+                    skipFully(in, 4L * length);
+                    continue;
+                }
+                for (int i = 0; i < length; i++)
+                    heightMap[i] = in.readInt();
+                hasHeightMap = true;
+            }
+            else if (type == TAG_LIST && name.equals("Sections"))
+            {
+                byte elementType = in.readByte();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++)
+                {
+                    if (elementType == TAG_COMPOUND)
+                        readSection(in);
+                    else
+                        skipTag(in, elementType);
+                }
+            }
+            else
+                skipTag(in, type);
+        }
+    }
+
+    private void readSection(DataInputStream in) throws IOException
+    {
+        // Tags of the section can come in any order, so the arrays are read into a free slot first
+        int slot = slotCount < SECTIONS ? slotCount : -1;
+        int y = -1;
+        boolean hasBlocks = false;
+        boolean hasData = false;
+        if (slot >= 0)
+            hasAdd[slot] = false;
+        byte type;
+        while ((type = in.readByte()) != TAG_END)
+        {
+            String name = in.readUTF();
+            if (type == TAG_BYTE && name.equals("Y"))
+                y = in.readByte();
+            else if (slot >= 0 && type == TAG_BYTE_ARRAY && name.equals("Blocks"))
+                hasBlocks = readByteArray(in, blocks[slot]);
+            else if (slot >= 0 && type == TAG_BYTE_ARRAY && name.equals("Add"))
+                hasAdd[slot] = readByteArray(in, add[slot]);
+            else if (slot >= 0 && type == TAG_BYTE_ARRAY && name.equals("Data"))
+                hasData = readByteArray(in, data[slot]);
+            else
+                skipTag(in, type);
+        }
+        if (slot >= 0 && y >= 0 && y < SECTIONS && hasBlocks && hasData)
+        {
+            sectionSlots[y] = slot;
+            slotCount++;
+        }
+    }
+
+    private static boolean readByteArray(DataInputStream in, byte[] buffer) throws IOException
+    {
+        int length = in.readInt();
+        if (length != buffer.length)
+        {
+            skipFully(in, length);
+            return false;
+        }
+        in.readFully(buffer);
+        return true;
+    }
+
+    private int[] computeTopBlocks()
+    {
+        for (int column = 0; column < 256; column++)
+        {
+            int y = hasHeightMap ? Math.min(heightMap[column], 255) : 255;
+            int result = EMPTY;
+            while (y >= 0)
+            {
+                int slot = sectionSlots[y >> 4];
+                if (slot < 0)
+                {
+                    y = (y & ~0xF) - 1;
+                    continue;
+                }
+                int index = (y & 0xF) << 8 | column;
+                int id = blocks[slot][index] & 0xFF;
+                if (hasAdd[slot])
+                    id |= getNibble(add[slot], index) << 8;
+                if (id != 0)
+                {
+                    result = id | getNibble(data[slot], index) << 12;
+                    break;
+                }
+                y--;
+            }
+            topBlocks[column] = result;
+        }
+        return topBlocks;
+    }
+
+    private static int getNibble(byte[] array, int index)
+    {
+        int value = array[index >> 1];
+        return (index & 1) == 0 ? value & 0xF : value >> 4 & 0xF;
+    }
+
+    // ------------------------------------------------------------
+
+    private static void skipTag(DataInputStream in, byte type) throws IOException
+    {
+        switch (type)
+        {
+        case TAG_BYTE:
+            skipFully(in, 1);
+            break;
+        case TAG_SHORT:
+            skipFully(in, 2);
+            break;
+        case TAG_INT:
+        case TAG_FLOAT:
+            skipFully(in, 4);
+            break;
+        case TAG_LONG:
+        case TAG_DOUBLE:
+            skipFully(in, 8);
+            break;
+        case TAG_BYTE_ARRAY:
+            skipFully(in, in.readInt());
+            break;
+        case TAG_STRING:
+            skipFully(in, in.readUnsignedShort());
+            break;
+        case TAG_LIST:
+        {
+            byte elementType = in.readByte();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+                skipTag(in, elementType);
+            break;
+        }
+        case TAG_COMPOUND:
+        {
+            byte childType;
+            while ((childType = in.readByte()) != TAG_END)
+            {
+                skipFully(in, in.readUnsignedShort());
+                skipTag(in, childType);
+            }
+            break;
+        }
+        case TAG_INT_ARRAY:
+            skipFully(in, 4L * in.readInt());
+            break;
+        case TAG_LONG_ARRAY:
+            skipFully(in, 8L * in.readInt());
+            break;
+        case TAG_END:
+            break;
+        default:
+            throw new IOException("Invalid NBT tag type " + type);
+        }
+    }
+
+    private static void skipFully(DataInputStream in, long count) throws IOException
+    {
+        while (count > 0)
+        {
+            long skipped = in.skip(count);
+            if (skipped <= 0)
+            {
+                if (in.read() < 0)
+                    throw new EOFException();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+}
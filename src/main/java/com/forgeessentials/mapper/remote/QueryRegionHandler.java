@@ -1,8 +1,5 @@
 package com.forgeessentials.mapper.remote;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 
 import net.minecraft.world.WorldServer;
@@ -17,6 +14,7 @@ import com.forgeessentials.api.remote.GenericRemoteHandler;
 import com.forgeessentials.api.remote.RemoteRequest;
 import com.forgeessentials.api.remote.RemoteResponse;
 import com.forgeessentials.api.remote.RemoteSession;
+import com.forgeessentials.mapper.MapTileCache.MapTile;
 import com.forgeessentials.mapper.ModuleMapper;
 import com.forgeessentials.mapper.remote.QueryRegionHandler.Request;
 
@@ -33,7 +31,7 @@ public class QueryRegionHandler extends GenericRemoteHandler<Request>
     }
 
     @Override
-    public synchronized RemoteResponse<?> handleData(RemoteSession session, RemoteRequest<Request> request)
+    public RemoteResponse<?> handleData(RemoteSession session, RemoteRequest<Request> request)
     {
         if (request.data == null)
             error("missing data");
@@ -42,22 +40,10 @@ public class QueryRegionHandler extends GenericRemoteHandler<Request>
             error("Invalid dimension");
         try
         {
-            File file = ModuleMapper.getInstance().getRegionFileAsync(world, request.data.x, request.data.z).get();
-            if (!file.exists())
+            MapTile tile = ModuleMapper.getInstance().getTileAsync(world, 0, request.data.x, request.data.z).get();
+            if (tile == null)
                 error("Error getting tile");
-            int length = (int) file.length();
-            byte[] data = new byte[length];
-            try (FileInputStream is = new FileInputStream(file))
-            {
-                is.read(data);
-            }
-            return new RemoteResponse<String>(request, Base64.encodeBase64String(data));
-        }
-        catch (IOException e)
-        {
-            e.printStackTrace();
-            error("Error getting tile");
-            return null;
+            return new RemoteResponse<String>(request, Base64.encodeBase64String(tile.data));
         }
         catch (InterruptedException | ExecutionException e)
         {
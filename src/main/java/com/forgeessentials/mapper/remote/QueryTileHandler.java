@@ -0,0 +1,115 @@
+package com.forgeessentials.mapper.remote;
+
+import java.util.concurrent.ExecutionException;
+
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+import net.minecraftforge.server.permission.DefaultPermissionLevel;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.forgeessentials.api.APIRegistry;
+import com.forgeessentials.api.remote.FERemoteHandler;
+import com.forgeessentials.api.remote.GenericRemoteHandler;
+import com.forgeessentials.api.remote.RemoteRequest;
+import com.forgeessentials.api.remote.RemoteResponse;
+import com.forgeessentials.api.remote.RemoteSession;
+import com.forgeessentials.mapper.MapTileCache.MapTile;
+import com.forgeessentials.mapper.ModuleMapper;
+import com.forgeessentials.mapper.remote.QueryTileHandler.Request;
+
+/**
+ * Returns tiles of the zoomable map. Tiles of zoom level 0 are region images, each higher level covers twice the size
+ * in both directions.
+ *
+ * Clients can pass the etag or modification time of a tile they already have. If the tile did not change, the response
+ * only contains its etag and modification time, but no image data.
+ */
+@FERemoteHandler(id = "mapper.query.tile")
+public class QueryTileHandler extends GenericRemoteHandler<Request>
+{
+
+    public static final String PERM = PERM_REMOTE + ".mapper.query.tile";
+
+    public QueryTileHandler()
+    {
+        super(PERM, Request.class);
+        APIRegistry.perms.registerPermission(PERM, DefaultPermissionLevel.ALL, "Allows querying map tiles");
+    }
+
+    @Override
+    public RemoteResponse<?> handleData(RemoteSession session, RemoteRequest<Request> request)
+    {
+        if (request.data == null)
+            error("missing data");
+        WorldServer world = DimensionManager.getWorld(request.data.dim);
+        if (world == null)
+            error("Invalid dimension");
+        if (request.data.zoom < 0 || request.data.zoom > ModuleMapper.MAX_ZOOM)
+            error("Invalid zoom level (0 - %d)", ModuleMapper.MAX_ZOOM);
+        MapTile tile;
+        try
+        {
+            tile = ModuleMapper.getInstance().getTileAsync(world, request.data.zoom, request.data.x, request.data.z).get();
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            e.printStackTrace();
+            error("Error getting tile");
+            return null;
+        }
+        if (tile == null)
+            error("Tile does not exist");
+
+        Response response = new Response();
+        response.etag = tile.etag;
+        response.lastModified = tile.lastModified;
+        if (request.data.etag != null)
+            response.notModified = request.data.etag.equals(tile.etag);
+        else
+            response.notModified = request.data.modifiedSince > 0 && tile.lastModified <= request.data.modifiedSince;
+        if (!response.notModified)
+            response.data = Base64.encodeBase64String(tile.data);
+        return new RemoteResponse<Response>(request, response);
+    }
+
+    public static class Request
+    {
+
+        public int dim;
+
+        public int zoom;
+
+        public int x;
+
+        public int z;
+
+        /**
+         * Etag of the tile the client already has
+         */
+        public String etag;
+
+        /**
+         * Modification time of the tile the client already has
+         */
+        public long modifiedSince;
+
+    }
+
+    public static class Response
+    {
+
+        public String etag;
+
+        public long lastModified;
+
+        public boolean notModified;
+
+        /**
+         * Base64 encoded PNG image or null, if the tile was not modified
+         */
+        public String data;
+
+    }
+
+}
@@ -50,6 +50,8 @@ public class ModulePermissions extends ConfigLoaderBase
 
     private static final String PERSISTENCE_HELP = "Choose a permission persistence backend (flatfile, sql, json, singlejson). DO NOT use SQL, unless you really need to use it.";
 
+    private static final String ASYNC_SAVE_HELP = "Save permissions on a background thread. The server thread only takes a snapshot of the permissions.";
+
     public static ZonedPermissionHelper permissionHelper;
 
     private String persistenceBackend = "flatfile";
@@ -149,7 +151,7 @@ public class ModulePermissions extends ConfigLoaderBase
     {
         // permissionHelper.verbosePermissionDebug = false;
         permissionHelper.disableAutoSave = false;
-        permissionHelper.save();
+        permissionHelper.save(false);
         permissionHelper.clear();
         permissionScheduler.saveAll();
     }
@@ -205,6 +207,7 @@ public class ModulePermissions extends ConfigLoaderBase
         APIRegistry.perms.registerPermission(PermissionCommandParser.PERM_RELOAD, DefaultPermissionLevel.OP, "Allow reloading changed permission files");
         APIRegistry.perms.registerPermission(PermissionCommandParser.PERM_SAVE, DefaultPermissionLevel.OP, "Allow force-saving permission files");
         APIRegistry.perms.registerPermission(PermissionCommandParser.PERM_DEBUG, DefaultPermissionLevel.ALL, "Allow using permission-debug command");
+        APIRegistry.perms.registerPermission(PermissionCommandParser.PERM_CACHE, DefaultPermissionLevel.OP, "Allow viewing and clearing the permission cache");
 
         // Other
         APIRegistry.perms.registerPermission("fe.perm.autoPromote", DefaultPermissionLevel.OP, "Auto-promote a user after some time has passed");
@@ -215,6 +218,7 @@ public class ModulePermissions extends ConfigLoaderBase
     public void load(Configuration config, boolean isReload)
     {
         persistenceBackend = config.get(CONFIG_CAT, "persistenceBackend", "singlejson", PERSISTENCE_HELP).getString();
+        permissionHelper.asyncSave = config.get(CONFIG_CAT, "asyncSave", true, ASYNC_SAVE_HELP).getBoolean();
         dbConnector.loadOrGenerate(config, CONFIG_CAT + ".SQL");
     }
 
@@ -90,6 +90,7 @@ public class CommandItemPermission extends ParserCommandBase
         default:
             throw new TranslatedCommandException(FEPermissions.MSG_UNKNOWN_SUBCOMMAND, subCmd);
         }
+        ItemPermissionManager.invalidate(arguments.senderPlayer);
     }
 
     public static void parseMode(CommandParserArgs arguments, ItemStack stack) throws CommandException
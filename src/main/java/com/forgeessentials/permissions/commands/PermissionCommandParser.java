@@ -23,6 +23,7 @@ import com.forgeessentials.api.APIRegistry;
 import com.forgeessentials.api.UserIdent;
 import com.forgeessentials.api.permissions.FEPermissions;
 import com.forgeessentials.api.permissions.GroupEntry;
+import com.forgeessentials.api.permissions.PermissionCache;
 import com.forgeessentials.api.permissions.RootZone;
 import com.forgeessentials.api.permissions.ServerZone;
 import com.forgeessentials.api.permissions.WorldZone;
@@ -34,10 +35,12 @@ import com.forgeessentials.core.commands.ForgeEssentialsCommandBase;
 import com.forgeessentials.core.misc.TranslatedCommandException;
 import com.forgeessentials.core.misc.Translator;
 import com.forgeessentials.permissions.ModulePermissions;
+import com.forgeessentials.permissions.core.ZonedPermissionHelper;
 import com.forgeessentials.permissions.persistence.FlatfileProvider;
 import com.forgeessentials.permissions.persistence.JsonProvider;
 import com.forgeessentials.permissions.persistence.SingleFileProvider;
 import com.forgeessentials.protection.ModuleProtection;
+import com.forgeessentials.protection.SpawnPermissionCache;
 import com.forgeessentials.util.CommandParserArgs;
 import com.forgeessentials.util.DoAsCommandSender;
 import com.forgeessentials.util.ServerUtil;
@@ -52,6 +55,7 @@ public class PermissionCommandParser
     public static final String PERM_RELOAD = PERM + ".reload";
     public static final String PERM_SAVE = PERM + ".save";
     public static final String PERM_DEBUG = PERM + ".debug";
+    public static final String PERM_CACHE = PERM + ".cache";
 
     public static final String PERM_USER = PERM + ".user";
     public static final String PERM_USER_PERMS = PERM_USER + ".perms";
@@ -75,7 +79,7 @@ public class PermissionCommandParser
     }
 
     // Variables for auto-complete
-    private static final String[] parseMainArgs = { "user", "group", "global", "list", "test", "reload", "save", "debug" }; // "export",
+    private static final String[] parseMainArgs = { "user", "group", "global", "list", "test", "reload", "save", "debug", "cache" }; // "export",
                                                                                                                             // "promote",
     private static final String[] parseListArgs = { "zones", "perms", "users", "groups", "worlds" };
     private static final String[] parseUserArgs = { "zone", "group", "allow", "deny", "clear", "value", "true", "false", "spawn", "prefix", "suffix", "perms",
@@ -143,6 +147,9 @@ public class PermissionCommandParser
                     arguments.confirm("Permission debug mode on");
                 }
                 break;
+            case "cache":
+                parseCache(arguments);
+                break;
             default:
                 arguments.error("Unknown command argument");
                 break;
@@ -150,10 +157,59 @@ public class PermissionCommandParser
         }
     }
 
+    public static void parseCache(CommandParserArgs arguments) throws CommandException
+    {
+        arguments.checkPermission(PERM_CACHE);
+        arguments.tabComplete("clear", "reset", "enable", "disable");
+        if (arguments.isTabCompletion)
+            return;
+        PermissionCache cache = APIRegistry.perms.getServerZone().getPermissionCache();
+        SpawnPermissionCache spawnCache = ModuleProtection.getSpawnPermissionCache();
+        if (!arguments.isEmpty())
+        {
+            String action = arguments.remove().toLowerCase();
+            switch (action)
+            {
+            case "clear":
+                cache.invalidate();
+                if (spawnCache != null)
+                    spawnCache.invalidate();
+                arguments.confirm("Permission cache cleared");
+                return;
+            case "reset":
+                cache.resetStatistics();
+                if (spawnCache != null)
+                    spawnCache.resetStatistics();
+                arguments.confirm("Permission cache statistics reset");
+                return;
+            case "enable":
+                cache.setEnabled(true);
+                arguments.confirm("Permission cache enabled");
+                return;
+            case "disable":
+                cache.setEnabled(false);
+                arguments.confirm("Permission cache disabled");
+                return;
+            default:
+                throw new TranslatedCommandException(FEPermissions.MSG_UNKNOWN_SUBCOMMAND, action);
+            }
+        }
+        arguments.confirm("Permission cache %s: %d entries (max %d)", cache.isEnabled() ? "enabled" : "disabled", cache.size(), cache.getMaxSize());
+        arguments.confirm("  hits: %d, misses: %d (%.1f%% hit ratio)", cache.getHits(), cache.getMisses(), cache.getHitRatio() * 100);
+        arguments.confirm("  invalidations: %d", cache.getInvalidations());
+        arguments.confirm("  cached player groups: %d", cache.getPlayerGroupsSize());
+        if (spawnCache != null)
+        {
+            arguments.confirm("Mob spawn cache: %d chunks", spawnCache.size());
+            arguments.confirm("  hits: %d, misses: %d, uncacheable: %d, denied spawns: %d", spawnCache.getHits(), spawnCache.getMisses(),
+                    spawnCache.getUncached(), spawnCache.getDenials());
+        }
+    }
+
     public static void parseSave(CommandParserArgs arguments) throws CommandException
     {
         arguments.checkPermission(PERM_SAVE);
-        arguments.tabComplete("disable", "enable", "flatfile", "singlejson", "json");
+        arguments.tabComplete("disable", "enable", "status", "flatfile", "singlejson", "json");
         if (arguments.isTabCompletion)
             return;
         if (arguments.isEmpty())
@@ -175,6 +231,16 @@ public class PermissionCommandParser
                 ModulePermissions.permissionHelper.disableAutoSave = true;
                 arguments.confirm("Permission saving disabled");
                 break;
+            case "status":
+                ZonedPermissionHelper helper = ModulePermissions.permissionHelper;
+                arguments.confirm("Permission saving %s (%s)", helper.disableAutoSave ? "disabled" : "enabled", helper.asyncSave ? "async" : "sync");
+                arguments.notify("Last save took %d ms", helper.getLastSaveDuration());
+                if (helper.asyncSave)
+                {
+                    arguments.notify("Last snapshot took %d ms", helper.getLastSnapshotDuration());
+                    arguments.notify("Save queue: %d", helper.getSaveQueueDepth());
+                }
+                break;
             case "flatfile":
                 new FlatfileProvider().save(APIRegistry.perms.getServerZone());
                 arguments.confirm("Permissions saved to flatfile format");
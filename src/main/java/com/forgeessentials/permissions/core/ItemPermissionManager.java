@@ -1,7 +1,13 @@
 package com.forgeessentials.permissions.core;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.InventoryPlayer;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTBase;
@@ -10,18 +16,21 @@ import net.minecraft.nbt.NBTTagList;
 import net.minecraftforge.common.config.Configuration;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.common.util.Constants.NBT;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent.PlayerLoggedOutEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
 
 import com.forgeessentials.api.APIRegistry;
 import com.forgeessentials.api.UserIdent;
 import com.forgeessentials.api.permissions.GroupEntry;
 import com.forgeessentials.api.permissions.PermissionCheckEvent;
+import com.forgeessentials.api.permissions.PermissionCheckHook;
 import com.forgeessentials.core.ForgeEssentials;
 import com.forgeessentials.core.moduleLauncher.config.ConfigLoader;
 import com.forgeessentials.util.ServerUtil;
 import com.forgeessentials.util.events.FEModuleEvent.FEModuleServerPreInitEvent;
 import com.forgeessentials.util.events.ServerEventHandler;
 
-public class ItemPermissionManager extends ServerEventHandler implements ConfigLoader
+public class ItemPermissionManager extends ServerEventHandler implements ConfigLoader, PermissionCheckHook
 {
 
     public static final String HELP = "Enable the item permission manager";
@@ -43,11 +52,140 @@ public class ItemPermissionManager extends ServerEventHandler implements ConfigL
 
     protected static boolean enabled;
 
+    /**
+     * Compiled permission items of each online player
+     */
+    private static final Map<UUID, ItemOverlay> overlays = new ConcurrentHashMap<>();
+
+    /* ------------------------------------------------------------ */
+
+    /**
+     * Groups and permissions granted by the permission items in the inventory of a player.
+     *
+     * The overlay keeps the stacks and tags it was compiled from, so it only needs to be rebuilt when one of them was
+     * replaced or the held item changed.
+     */
+    private static class ItemOverlay
+    {
+
+        private final InventoryPlayer inventory;
+
+        private final ItemStack[] stacks;
+
+        private final NBTTagCompound[] tags;
+
+        private final int currentItem;
+
+        /**
+         * Groups of all active items in reverse inventory order, which is the order in which they end up in the group
+         * list if each one is inserted behind the primary group
+         */
+        private final List<String> groups = new ArrayList<>();
+
+        /**
+         * Permission settings of each active item in inventory order
+         */
+        private final List<Map<String, String>> permissions = new ArrayList<>();
+
+        public ItemOverlay(InventoryPlayer inventory)
+        {
+            this.inventory = inventory;
+            this.currentItem = inventory.currentItem;
+            stacks = new ItemStack[inventory.getSizeInventory()];
+            tags = new NBTTagCompound[stacks.length];
+            for (int slotIdx = 0; slotIdx < stacks.length; slotIdx++)
+            {
+                ItemStack stack = inventory.getStackInSlot(slotIdx);
+                stacks[slotIdx] = stack;
+                if (stack == null)
+                    continue;
+                tags[slotIdx] = stack.getTagCompound();
+                boolean isEquipped = slotIdx == inventory.currentItem || slotIdx > inventory.mainInventory.size();
+                compile(stack, isEquipped);
+            }
+        }
+
+        private void compile(ItemStack stack, boolean isEquipped)
+        {
+            NBTTagCompound tag = getPermissionTag(stack);
+            if (tag == null || !isActive(tag, isEquipped))
+                return;
+            Map<String, String> itemPermissions = new LinkedHashMap<>();
+            NBTTagList settings = getSettingsTag(tag);
+            for (int i = 0; i < settings.tagCount(); i++)
+            {
+                String setting = settings.getStringTagAt(i);
+                String[] parts = setting.split("=", 2);
+                if (parts.length == 2)
+                {
+                    // Only the first setting of a node can ever match
+                    if (!itemPermissions.containsKey(parts[0]))
+                        itemPermissions.put(parts[0], parts[1]);
+                }
+                else
+                    groups.add(0, parts[0]);
+            }
+            if (!itemPermissions.isEmpty())
+                permissions.add(itemPermissions);
+        }
+
+        public boolean isOutdated(InventoryPlayer inventory)
+        {
+            if (inventory != this.inventory || inventory.currentItem != currentItem || inventory.getSizeInventory() != stacks.length)
+                return true;
+            for (int slotIdx = 0; slotIdx < stacks.length; slotIdx++)
+            {
+                ItemStack stack = inventory.getStackInSlot(slotIdx);
+                if (stack != stacks[slotIdx] || stack != null && stack.getTagCompound() != tags[slotIdx])
+                    return true;
+            }
+            return false;
+        }
+
+        public boolean isEmpty()
+        {
+            return groups.isEmpty() && permissions.isEmpty();
+        }
+
+        /**
+         * Adds the item groups behind the primary group
+         */
+        public void addGroups(List<String> groupList)
+        {
+            if (!groups.isEmpty())
+                groupList.addAll(Math.min(1, groupList.size()), groups);
+        }
+
+        /**
+         * Returns the value of the first setting matching one of the nodes of the last item that has one
+         */
+        public String getPermission(List<String> nodes)
+        {
+            for (int i = permissions.size() - 1; i >= 0; i--)
+            {
+                Map<String, String> itemPermissions = permissions.get(i);
+                if (nodes.size() == 1)
+                {
+                    String value = itemPermissions.get(nodes.get(0));
+                    if (value != null)
+                        return value;
+                    continue;
+                }
+                for (Map.Entry<String, String> setting : itemPermissions.entrySet())
+                    if (nodes.contains(setting.getKey()))
+                        return setting.getValue();
+            }
+            return null;
+        }
+
+    }
+
     /* ------------------------------------------------------------ */
 
     public ItemPermissionManager()
     {
         ForgeEssentials.getConfigManager().registerLoader(ForgeEssentials.getConfigManager().getMainConfigName(), this);
+        PermissionCheckEvent.registerHook(this);
     }
 
     @Override
@@ -60,20 +198,61 @@ public class ItemPermissionManager extends ServerEventHandler implements ConfigL
 
     /* ------------------------------------------------------------ */
 
+    @Override
+    public boolean isActive()
+    {
+        return enabled;
+    }
+
+    @Override
+    public void checkPermission(PermissionCheckEvent event)
+    {
+        if (event.ident == null || !event.ident.hasPlayer())
+            return;
+        ItemOverlay overlay = getOverlay(event.ident.getPlayer());
+        if (overlay.isEmpty())
+            return;
+        String result = overlay.getPermission(event.nodes);
+        if (result != null)
+            event.result = result;
+        overlay.addGroups(event.groups);
+    }
+
     @SubscribeEvent
-    public void permissionCheckEvent(PermissionCheckEvent event)
+    public void playerTickEvent(TickEvent.PlayerTickEvent event)
     {
-        if (!enabled || event.ident == null || !event.ident.hasPlayer())
+        if (event.phase != TickEvent.Phase.END || event.player.world.isRemote)
             return;
-        InventoryPlayer inventory = event.ident.getPlayer().inventory;
-        for (int slotIdx = 0; slotIdx < inventory.getSizeInventory(); slotIdx++)
+        ItemOverlay overlay = overlays.get(event.player.getPersistentID());
+        if (overlay == null || overlay.isOutdated(event.player.inventory))
+            overlays.put(event.player.getPersistentID(), new ItemOverlay(event.player.inventory));
+    }
+
+    @SubscribeEvent
+    public void playerLoggedOutEvent(PlayerLoggedOutEvent event)
+    {
+        overlays.remove(event.player.getPersistentID());
+    }
+
+    private static ItemOverlay getOverlay(EntityPlayer player)
+    {
+        ItemOverlay overlay = overlays.get(player.getPersistentID());
+        if (overlay == null)
         {
-            ItemStack stack = inventory.getStackInSlot(slotIdx);
-            if (stack == null)
-                continue;
-            boolean isEquipped = slotIdx == inventory.currentItem || slotIdx > inventory.mainInventory.size();
-            check(event, stack, isEquipped);
+            // Player has not been ticked yet
+            overlay = new ItemOverlay(player.inventory);
+            overlays.put(player.getPersistentID(), overlay);
         }
+        return overlay;
+    }
+
+    /**
+     * Drops the compiled permission items of a player. Must be called whenever the permission tag of an item is
+     * modified in place.
+     */
+    public static void invalidate(EntityPlayer player)
+    {
+        overlays.remove(player.getPersistentID());
     }
 
     public static List<String> getPlayerGroups(UserIdent ident)
@@ -81,44 +260,7 @@ public class ItemPermissionManager extends ServerEventHandler implements ConfigL
         List<String> groups = GroupEntry.toList(APIRegistry.perms.getPlayerGroups(ident));
         if (!enabled || ident == null || !ident.hasPlayer())
             return groups;
-        InventoryPlayer inventory = ident.getPlayer().inventory;
-        for (int slotIdx = 0; slotIdx < inventory.getSizeInventory(); slotIdx++)
-        {
-            ItemStack stack = inventory.getStackInSlot(slotIdx);
-            if (stack == null)
-                continue;
-            boolean isEquipped = slotIdx == inventory.currentItem || slotIdx > inventory.mainInventory.size();
-
-            NBTTagCompound tag = getPermissionTag(stack);
-            if (tag == null)
-                continue;
-
-            // Check mode
-            int mode = tag.getByte(TAG_MODE);
-            switch (mode)
-            {
-            case MODE_INVENTORY:
-                break;
-            case MODE_EQUIP:
-                if (!isEquipped)
-                    continue;
-                break;
-            case MODE_DISABLED:
-            case MODE_USE:
-            default:
-                break;
-            }
-
-            // Check permissions
-            NBTTagList settings = getSettingsTag(tag);
-            for (int i = 0; i < settings.tagCount(); i++)
-            {
-                String setting = settings.getStringTagAt(i);
-                String[] parts = setting.split("=", 2);
-                if (parts.length == 1)
-                    groups.add(1, parts[0]);
-            }
-        }
+        getOverlay(ident.getPlayer()).addGroups(groups);
         return groups;
     }
 
@@ -140,49 +282,21 @@ public class ItemPermissionManager extends ServerEventHandler implements ConfigL
         return settings;
     }
 
-    public static void check(PermissionCheckEvent event, ItemStack stack, boolean isEquipped)
+    /**
+     * Checks if the settings of a permission item apply to its owner
+     */
+    public static boolean isActive(NBTTagCompound tag, boolean isEquipped)
     {
-        NBTTagCompound tag = getPermissionTag(stack);
-        if (tag == null)
-            return;
-
-        // Check mode
-        int mode = tag.getByte(TAG_MODE);
-        switch (mode)
+        switch (tag.getByte(TAG_MODE))
         {
         case MODE_INVENTORY:
-            break;
+            return true;
         case MODE_EQUIP:
-            if (!isEquipped)
-                return;
-            break;
+            return isEquipped;
         case MODE_DISABLED:
         case MODE_USE:
         default:
-            return;
-        }
-
-        // Check permissions
-        NBTTagList settings = getSettingsTag(tag);
-        for (int i = 0; i < settings.tagCount(); i++)
-        {
-            String setting = settings.getStringTagAt(i);
-            String[] parts = setting.split("=", 2);
-            if (parts.length == 2)
-            {
-                for (String node : event.nodes)
-                {
-                    if (node.equals(parts[0]))
-                    {
-                        event.result = parts[1];
-                        return;
-                    }
-                }
-            }
-            else
-            {
-                event.groups.add(1, parts[0]);
-            }
+            return false;
         }
     }
 
@@ -198,6 +312,7 @@ public class ItemPermissionManager extends ServerEventHandler implements ConfigL
                 register();
             else
                 unregister();
+            overlays.clear();
         }
     }
 
@@ -1,5 +1,7 @@
 package com.forgeessentials.permissions.core;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -20,11 +22,23 @@ public abstract class ZonePersistenceProvider
     {
         // Clear groups from players (leftovers, if player was removed from all groups)
         for (UserIdent ident : serverZone.getPlayerPermissions().keySet())
-            serverZone.clearPlayerPermission(ident, FEPermissions.PLAYER_GROUPS);
+            if (!serverZone.getPlayerGroups().containsKey(ident) && serverZone.getPlayerPermission(ident, FEPermissions.PLAYER_GROUPS) != null)
+                serverZone.clearPlayerPermission(ident, FEPermissions.PLAYER_GROUPS);
 
-        // Add groups to players
+        // Add groups to players. Unchanged group lists are not written again, so saving a snapshot of the permissions
+        // does not cause any permission events.
         for (Entry<UserIdent, Set<String>> entry : serverZone.getPlayerGroups().entrySet())
-            serverZone.setPlayerPermissionProperty(entry.getKey(), FEPermissions.PLAYER_GROUPS, StringUtils.join(entry.getValue(), ","));
+            if (!isSameGroupList(serverZone.getPlayerPermission(entry.getKey(), FEPermissions.PLAYER_GROUPS), entry.getValue()))
+                serverZone.setPlayerPermissionProperty(entry.getKey(), FEPermissions.PLAYER_GROUPS, StringUtils.join(entry.getValue(), ","));
+    }
+
+    private static boolean isSameGroupList(String groupList, Set<String> groups)
+    {
+        if (groupList == null)
+            return false;
+        if (groups.isEmpty())
+            return groupList.isEmpty();
+        return new HashSet<>(Arrays.asList(groupList.replace(" ", "").split(","))).equals(groups);
     }
 
     public static void readUserGroupPermissions(ServerZone serverZone)
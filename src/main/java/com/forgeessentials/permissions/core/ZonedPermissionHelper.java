@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -16,16 +17,27 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.UUID;
 import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import javax.annotation.Nullable;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import net.minecraft.command.ICommandSender;
 import net.minecraft.tileentity.CommandBlockBaseLogic;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.TextComponentTranslation;
 import net.minecraft.util.text.TextFormatting;
@@ -38,6 +50,7 @@ import net.minecraftforge.event.world.WorldEvent;
 import com.forgeessentials.api.APIRegistry;
 import com.forgeessentials.api.UserIdent;
 import com.forgeessentials.api.UserIdent.UserIdentInvalidatedEvent;
+import com.forgeessentials.api.permissions.AreaZone;
 import com.forgeessentials.api.permissions.FEPermissions;
 import com.forgeessentials.api.permissions.GroupEntry;
 import com.forgeessentials.api.permissions.IPermissionsHelper;
@@ -54,6 +67,7 @@ import com.forgeessentials.commons.selections.WorldArea;
 import com.forgeessentials.commons.selections.WorldPoint;
 import com.forgeessentials.core.FEConfig;
 import com.forgeessentials.core.ForgeEssentials;
+import com.forgeessentials.data.v2.DataManager;
 import com.forgeessentials.protection.ModuleProtection;
 import com.forgeessentials.util.DoAsCommandSender;
 import com.forgeessentials.util.events.PlayerChangedZone;
@@ -61,6 +75,9 @@ import com.forgeessentials.util.events.PlayerMoveEvent;
 import com.forgeessentials.util.events.ServerEventHandler;
 import com.forgeessentials.util.output.ChatOutputHandler;
 import com.forgeessentials.util.output.LoggingHandler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.InstanceCreator;
 import com.mojang.authlib.GameProfile;
 
 import net.minecraftforge.fml.common.eventhandler.EventPriority;
@@ -117,6 +134,31 @@ public class ZonedPermissionHelper extends ServerEventHandler implements IPermis
 
     public boolean disableAutoSave = false;
 
+    /**
+     * If enabled, the server thread only takes a snapshot of the permissions which is then saved on a background thread
+     */
+    public boolean asyncSave = false;
+
+    private ExecutorService saveExecutor;
+
+    /**
+     * Snapshot waiting to be saved. Newer snapshots replace older ones that have not been saved yet.
+     */
+    private final AtomicReference<ServerZone> pendingSnapshot = new AtomicReference<>();
+
+    private volatile boolean saveInProgress;
+
+    private volatile boolean asyncSaveFailed;
+
+    private volatile long lastSaveDuration;
+
+    private volatile long lastSnapshotDuration;
+
+    /**
+     * Last zone each player was found in, used to detect zone changes on movement
+     */
+    protected Map<UUID, CachedZoneLocation> playerZones = new HashMap<>();
+
     // public boolean verbosePermissionDebug = false;
 
     // ------------------------------------------------------------
@@ -151,13 +193,28 @@ public class ZonedPermissionHelper extends ServerEventHandler implements IPermis
     }
 
     public void save()
+    {
+        save(asyncSave);
+    }
+
+    public void save(boolean async)
     {
         dirty = false;
         if (persistenceProvider != null)
         {
             LoggingHandler.felog.debug("Saving permissions...");
             APIRegistry.getFEEventBus().post(new PermissionEvent.BeforeSave(rootZone.getServerZone()));
-            persistenceProvider.save(rootZone.getServerZone());
+            if (async)
+            {
+                saveAsync();
+            }
+            else
+            {
+                waitForSave();
+                long start = System.currentTimeMillis();
+                persistenceProvider.save(rootZone.getServerZone());
+                lastSaveDuration = System.currentTimeMillis() - start;
+            }
             dirty = false;
         }
 
@@ -168,8 +225,97 @@ public class ZonedPermissionHelper extends ServerEventHandler implements IPermis
         }
     }
 
+    /**
+     * Takes a snapshot of the current permissions and hands it to the background save thread
+     */
+    protected void saveAsync()
+    {
+        long start = System.currentTimeMillis();
+        ServerZone serverZone = rootZone.getServerZone();
+        ZonePersistenceProvider.writeUserGroupPermissions(serverZone);
+        // Deserialize into a zone created without posting PermissionEvent.Initialize and copy the state gson skips
+        Gson snapshotGson = DataManager.createGsonBuilder()
+                .registerTypeAdapter(ServerZone.class, (InstanceCreator<ServerZone>) type -> ServerZone.createSnapshotZone()).create();
+        ServerZone snapshot = snapshotGson.fromJson(snapshotGson.toJsonTree(serverZone), ServerZone.class);
+        snapshot.copySnapshotState(serverZone);
+        snapshot.afterLoad();
+        lastSnapshotDuration = System.currentTimeMillis() - start;
+
+        if (pendingSnapshot.getAndSet(snapshot) != null)
+            // The background thread will pick up the new snapshot instead of the old one
+            return;
+        if (saveExecutor == null)
+            saveExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("FE permission save").setDaemon(true).build());
+        final ZonePersistenceProvider provider = persistenceProvider;
+        saveExecutor.submit(() -> {
+            ServerZone zone = pendingSnapshot.getAndSet(null);
+            if (zone == null)
+                return;
+            saveInProgress = true;
+            try
+            {
+                long saveStart = System.currentTimeMillis();
+                provider.save(zone);
+                lastSaveDuration = System.currentTimeMillis() - saveStart;
+                LoggingHandler.felog.debug(String.format("Saved permissions in %d ms", lastSaveDuration));
+            }
+            catch (RuntimeException e)
+            {
+                LoggingHandler.felog.error("Error saving permissions", e);
+                asyncSaveFailed = true;
+            }
+            finally
+            {
+                saveInProgress = false;
+            }
+        });
+    }
+
+    /**
+     * Blocks until all pending asynchronous saves are finished
+     */
+    public void waitForSave()
+    {
+        if (saveExecutor == null)
+            return;
+        try
+        {
+            saveExecutor.submit(() -> {
+            }).get();
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            LoggingHandler.felog.error("Error waiting for permission save", e);
+        }
+    }
+
+    /**
+     * Returns the number of permission snapshots which are waiting to be saved or are currently being saved
+     */
+    public int getSaveQueueDepth()
+    {
+        return (pendingSnapshot.get() != null ? 1 : 0) + (saveInProgress ? 1 : 0);
+    }
+
+    /**
+     * Time in milliseconds the last save took to write the permissions
+     */
+    public long getLastSaveDuration()
+    {
+        return lastSaveDuration;
+    }
+
+    /**
+     * Time in milliseconds the server thread spent taking the last snapshot for an asynchronous save
+     */
+    public long getLastSnapshotDuration()
+    {
+        return lastSnapshotDuration;
+    }
+
     public boolean load()
     {
+        waitForSave();
         if (persistenceProvider != null)
         {
             ServerZone serverZone = persistenceProvider.load();
@@ -531,11 +677,22 @@ public class ZonedPermissionHelper extends ServerEventHandler implements IPermis
         event.serverZone.setPlayerPermission(APIRegistry.IDENT_RCON, "*", true);
     }
 
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void permissionChangedEvent(PermissionEvent event)
+    {
+        // Not every modification marks the permissions as dirty, so drop cached results on any event that got through.
+        // This runs before the change is applied, so the modifications themselves must invalidate the cache again.
+        if (event instanceof PermissionEvent.BeforeSave || event.serverZone == null)
+            return;
+        event.serverZone.getPermissionCache().invalidate();
+    }
+
     @SubscribeEvent
     public void userIdentInvalidatedEvent(UserIdentInvalidatedEvent event)
     {
         for (Zone zone : getServerZone().getZones())
             zone.userIdentInvalidated(event);
+        getServerZone().getPermissionCache().invalidate();
     }
 
     @SubscribeEvent(priority = EventPriority.HIGHEST)
@@ -559,6 +716,7 @@ public class ZonedPermissionHelper extends ServerEventHandler implements IPermis
     public void playerLoggedOut(PlayerLoggedOutEvent e)
     {
         permissionDebugUsers.remove(e.player);
+        playerZones.remove(e.player.getPersistentID());
     }
 
     @SubscribeEvent
@@ -567,11 +725,79 @@ public class ZonedPermissionHelper extends ServerEventHandler implements IPermis
         getServerZone().getWorldZone(e.getWorld().provider.getDimension());
     }
 
+    /**
+     * The highest priority zone at a location together with the bounds in which it is valid. The bounds are either the
+     * whole chunk column (if no area zone boundary crosses it) or just a single block.
+     */
+    protected static class CachedZoneLocation
+    {
+
+        private final WorldZone worldZone;
+
+        private final int revision;
+
+        private final int minX, minY, minZ, maxX, maxY, maxZ;
+
+        public final Zone zone;
+
+        public CachedZoneLocation(WorldZone worldZone, int x, int y, int z)
+        {
+            this.worldZone = worldZone;
+            this.revision = worldZone.getAreaZoneRevision();
+            if (y >= 0 && y < 256 && worldZone.isChunkUniform(x >> 4, z >> 4))
+            {
+                minX = x & ~15;
+                minY = 0;
+                minZ = z & ~15;
+                maxX = minX + 15;
+                maxY = 255;
+                maxZ = minZ + 15;
+            }
+            else
+            {
+                minX = maxX = x;
+                minY = maxY = y;
+                minZ = maxZ = z;
+            }
+            List<AreaZone> areaZones = worldZone.getAreaZonesAt(new WorldPoint(worldZone.getDimensionID(), x, y, z));
+            zone = areaZones.isEmpty() ? worldZone : areaZones.get(0);
+        }
+
+        public boolean isValid(WorldZone worldZone, int x, int y, int z)
+        {
+            return this.worldZone == worldZone && revision == worldZone.getAreaZoneRevision() //
+                    && x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+        }
+
+    }
+
+    /**
+     * Returns the highest priority zone at the point. Moves within the bounds of the last zone a player was found in
+     * only cost a bounds check.
+     */
+    protected Zone getPlayerZoneAt(EntityPlayer player, WarpPoint point)
+    {
+        WorldZone worldZone = getServerZone().getWorldZone(point.getDimension());
+        int x = point.getBlockX();
+        int y = point.getBlockY();
+        int z = point.getBlockZ();
+        CachedZoneLocation location = playerZones.get(player.getPersistentID());
+        if (location == null || !location.isValid(worldZone, x, y, z))
+        {
+            location = new CachedZoneLocation(worldZone, x, y, z);
+            playerZones.put(player.getPersistentID(), location);
+        }
+        return location.zone;
+    }
+
     @SubscribeEvent
     public void playerMoveEvent(PlayerMoveEvent e)
     {
-        Zone before = APIRegistry.perms.getServerZone().getZonesAt(e.before.toWorldPoint()).get(0);
-        Zone after = APIRegistry.perms.getServerZone().getZonesAt(e.after.toWorldPoint()).get(0);
+        if (e.before.getDimension() == e.after.getDimension() && e.before.getBlockX() == e.after.getBlockX() && e.before.getBlockY() == e.after.getBlockY()
+                && e.before.getBlockZ() == e.after.getBlockZ())
+            return;
+        Zone before = getPlayerZoneAt(e.getEntityPlayer(), e.before);
+        Zone after = getPlayerZoneAt(e.getEntityPlayer(), e.after);
         if (!before.equals(after))
         {
             PlayerChangedZone event = new PlayerChangedZone(e.getEntityPlayer(), before, after, e.before, e.after);
@@ -598,6 +824,11 @@ public class ZonedPermissionHelper extends ServerEventHandler implements IPermis
     @SubscribeEvent
     public void serverTickEvent(TickEvent.ServerTickEvent e)
     {
+        if (asyncSaveFailed)
+        {
+            asyncSaveFailed = false;
+            setDirty(false);
+        }
         if (!disableAutoSave && dirty && (//
         System.currentTimeMillis() - lastDirtyTime > 1000 * 5 || //
                 System.currentTimeMillis() - firstDirtyTime > 1000 * 60))
@@ -635,16 +866,10 @@ public class ZonedPermissionHelper extends ServerEventHandler implements IPermis
         List<Zone> zones = new ArrayList<>();
         if (worldZone != null)
         {
-            for (Zone zone : worldZone.getAreaZones())
-            {
-                // TODO (2) It should be possible in some way to change zone inclusion to isPartOfZone instead of
-                // isInZone
-                // This is necessary for inverse allowing permissions (like explosions e.g.)
-                if (point != null && zone.isInZone(point) || area != null && zone.isInZone(area))
-                {
-                    zones.add(zone);
-                }
-            }
+            // TODO (2) It should be possible in some way to change zone inclusion to isPartOfZone instead of
+            // isInZone
+            // This is necessary for inverse allowing permissions (like explosions e.g.)
+            worldZone.addAreaZonesAt(zones, point, area);
             zones.add(worldZone);
         }
         zones.add(rootZone.getServerZone());
@@ -992,6 +1217,75 @@ public class ZonedPermissionHelper extends ServerEventHandler implements IPermis
         return getPermission(ident, targetPoint, null, GroupEntry.toList(getServerZone().getPlayerGroups(ident, targetPoint)), permissionNode, true);
     }
 
+    private static class ZoneChainResults
+    {
+
+        final List<Zone> zones;
+
+        final List<String> groups;
+
+        final Map<String, Boolean> results = new HashMap<>();
+
+        ZoneChainResults(List<Zone> zones, List<String> groups)
+        {
+            this.zones = zones;
+            this.groups = groups;
+        }
+
+    }
+
+    @Override
+    public BitSet checkUserPermissions(UserIdent ident, int dimension, List<BlockPos> positions, Function<BlockPos, String> permissionNodes)
+    {
+        BitSet allowed = new BitSet(positions.size());
+        WorldZone worldZone = getServerZone().getWorldZone(dimension);
+        Map<List<Zone>, ZoneChainResults> chains = new HashMap<>();
+        // Chunks in which every position resolves to the same zones only need to be looked up once
+        Long2ObjectMap<ZoneChainResults> uniformChunks = new Long2ObjectOpenHashMap<>();
+        LongSet nonUniformChunks = new LongOpenHashSet();
+        WorldPoint point = new WorldPoint(dimension, 0, 0, 0);
+        for (int i = 0; i < positions.size(); i++)
+        {
+            BlockPos pos = positions.get(i);
+            point.setX(pos.getX()).setY(pos.getY()).setZ(pos.getZ());
+
+            long chunkKey = ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4);
+            ZoneChainResults chain = uniformChunks.get(chunkKey);
+            if (chain == null)
+            {
+                List<Zone> zones = new ArrayList<>();
+                worldZone.addAreaZonesAt(zones, point, null);
+                zones.add(worldZone);
+                zones.add(rootZone.getServerZone());
+                zones.add(rootZone);
+                chain = chains.get(zones);
+                if (chain == null)
+                {
+                    chain = new ZoneChainResults(zones, GroupEntry.toList(getServerZone().getPlayerGroups(ident, point)));
+                    chains.put(zones, chain);
+                }
+                if (!nonUniformChunks.contains(chunkKey))
+                {
+                    if (worldZone.isChunkUniform(pos.getX() >> 4, pos.getZ() >> 4))
+                        uniformChunks.put(chunkKey, chain);
+                    else
+                        nonUniformChunks.add(chunkKey);
+                }
+            }
+
+            String permissionNode = permissionNodes.apply(pos);
+            Boolean result = chain.results.get(permissionNode);
+            if (result == null)
+            {
+                result = checkBooleanPermission(getServerZone().getPermission(chain.zones, ident, chain.groups, permissionNode, point));
+                chain.results.put(permissionNode, result);
+            }
+            if (result)
+                allowed.set(i);
+        }
+        return allowed;
+    }
+
     // ------------------------------------------------------------
 
     @Override
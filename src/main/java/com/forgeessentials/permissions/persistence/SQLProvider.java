@@ -1,10 +1,12 @@
 package com.forgeessentials.permissions.persistence;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -31,7 +33,12 @@ import com.forgeessentials.util.EnumDBType;
 import com.forgeessentials.util.output.LoggingHandler;
 import com.google.common.base.Throwables;
 
-//FIXME: This class should be modified to use PreparedStatements instead of dynamic sql
+/**
+ * Stores permissions in an SQL database.
+ *
+ * The provider keeps a copy of the rows it last wrote (or loaded), so a save only upserts and deletes the rows which
+ * actually changed. All changes of a save are written with batched prepared statements in a single transaction.
+ */
 public class SQLProvider extends ZonePersistenceProvider
 {
 
@@ -118,11 +125,55 @@ public class SQLProvider extends ZonePersistenceProvider
             return sb.toString();
         }
 
+        public String createPreparedInsertOrReplace(List<String> fields)
+        {
+            for (String f : fields)
+                if (!columns.containsKey(f))
+                    throw new RuntimeException("Error in insert statement.");
+            StringBuilder sb = new StringBuilder();
+            if (dbType == EnumDBType.H2_FILE)
+                sb.append("MERGE INTO `");
+            else
+                sb.append("REPLACE INTO `");
+            sb.append(name);
+            sb.append("` (`");
+            sb.append(StringUtils.join(fields, "`, `"));
+            sb.append("`) VALUES (");
+            sb.append(StringUtils.repeat("?", ", ", fields.size()));
+            sb.append(")");
+            return sb.toString();
+        }
+
+        public String createPreparedDelete(List<String> keys)
+        {
+            StringBuilder sb = new StringBuilder("DELETE FROM `");
+            sb.append(name);
+            sb.append("` WHERE `");
+            sb.append(StringUtils.join(keys, "` = ? AND `"));
+            sb.append("` = ?");
+            return sb.toString();
+        }
+
+        public void setParameter(PreparedStatement statement, int index, String column, Object value) throws SQLException
+        {
+            if (value != null)
+                statement.setObject(index, value);
+            else if (columns.get(column).startsWith("INT"))
+                statement.setNull(index, Types.INTEGER);
+            else
+                statement.setNull(index, Types.VARCHAR);
+        }
+
         public String createTruncate()
         {
             return "TRUNCATE TABLE `" + name + "`";
         }
 
+        public String createDeleteAll()
+        {
+            return "DELETE FROM `" + name + "`";
+        }
+
         public List<Map<String, Object>> loadList() throws SQLException
         {
             ResultSet resultSet = db.createStatement().executeQuery(createSelectStatement());
@@ -170,6 +221,73 @@ public class SQLProvider extends ZonePersistenceProvider
 
     }
 
+    /**
+     * Primary key of a group or user permission row
+     */
+    private static class PermissionRow
+    {
+
+        public final String owner;
+
+        public final int zoneId;
+
+        public final String permission;
+
+        public PermissionRow(String owner, int zoneId, String permission)
+        {
+            this.owner = owner;
+            this.zoneId = zoneId;
+            this.permission = permission;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (owner.hashCode() * 31 + zoneId) * 31 + permission.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof PermissionRow))
+                return false;
+            PermissionRow other = (PermissionRow) obj;
+            return zoneId == other.zoneId && owner.equals(other.owner) && permission.equals(other.permission);
+        }
+
+    }
+
+    /**
+     * Rows as they are currently stored in the database. Null if unknown, which causes the next save to rewrite all
+     * tables.
+     */
+    private static class SavedState
+    {
+
+        public Map<Integer, Map<String, Object>> zones = new HashMap<>();
+
+        public Map<String, String> users = new HashMap<>();
+
+        public Map<PermissionRow, String> groupPermissions = new HashMap<>();
+
+        public Map<PermissionRow, String> userPermissions = new HashMap<>();
+
+        public String maxZoneId;
+
+    }
+
+    private static final List<String> ZONE_COLUMNS = Arrays.asList("id", "type", "parent_id", "name", "dimension", "area", "shape");
+
+    private static final List<String> USER_COLUMNS = Arrays.asList("uuid", "name");
+
+    private static final List<String> GROUP_PERMISSION_COLUMNS = Arrays.asList("group", "zone_id", "permission", "value");
+
+    private static final List<String> GROUP_PERMISSION_KEYS = Arrays.asList("group", "zone_id", "permission");
+
+    private static final List<String> USER_PERMISSION_COLUMNS = Arrays.asList("user", "zone_id", "permission", "value");
+
+    private static final List<String> USER_PERMISSION_KEYS = Arrays.asList("user", "zone_id", "permission");
+
     private static final String TABLE_PREFIX = "fepermissions_";
 
     private static final String TABLE_INFO = "INFO";
@@ -253,6 +371,8 @@ public class SQLProvider extends ZonePersistenceProvider
 
     protected EnumDBType dbType;
 
+    private SavedState savedState;
+
     // ------------------------------------------------------------
 
     public SQLProvider(Connection connection, EnumDBType dbType)
@@ -354,48 +474,49 @@ public class SQLProvider extends ZonePersistenceProvider
     @Override
     public void save(ServerZone serverZone)
     {
+        writeUserGroupPermissions(serverZone);
+
+        SavedState state = new SavedState();
+        collectRows(serverZone, state);
+
+        boolean autoCommit = true;
         try
         {
-            writeUserGroupPermissions(serverZone);
-
             // Use a transaction to be able to rollback, if there is an error
-            // db.setAutoCommit(false);
+            autoCommit = db.getAutoCommit();
+            db.setAutoCommit(false);
 
-            // Truncate old data
-            db.createStatement().executeUpdate(TABLES.get(TABLE_ZONE).createTruncate());
-            // db.createStatement().executeUpdate(TABLES.get(TABLE_USER).createTruncate());
-            // db.createStatement().executeUpdate(TABLES.get(TABLE_GROUP).createTruncate());
-            db.createStatement().executeUpdate(TABLES.get(TABLE_GROUP_PERMISSIONS).createTruncate());
-            db.createStatement().executeUpdate(TABLES.get(TABLE_USER_PERMISSIONS).createTruncate());
-
-            for (UserIdent ident : serverZone.getKnownPlayers())
+            SavedState oldState = savedState;
+            if (oldState == null)
             {
-                if (!ident.hasUuid())
-                    continue;
-                Map<String, Object> fieldsAndValues = new HashMap<>();
-                fieldsAndValues.put("uuid", ident.getOrGenerateUuid().toString());
-                if (ident.hasUsername())
-                    fieldsAndValues.put("name", ident.getUsername());
-                db.createStatement().executeUpdate(TABLES.get(TABLE_USER).createInsertOrReplace(fieldsAndValues));
+                // State of the database is unknown, so rewrite everything. TRUNCATE would end the transaction on some
+                // databases, so rows are deleted instead.
+                oldState = new SavedState();
+                db.createStatement().executeUpdate(TABLES.get(TABLE_ZONE).createDeleteAll());
+                db.createStatement().executeUpdate(TABLES.get(TABLE_GROUP_PERMISSIONS).createDeleteAll());
+                db.createStatement().executeUpdate(TABLES.get(TABLE_USER_PERMISSIONS).createDeleteAll());
             }
 
-            saveServerZone(serverZone);
-            saveZonePermissions(serverZone);
-            for (WorldZone worldZone : serverZone.getWorldZones().values())
+            saveZones(oldState.zones, state.zones);
+            saveUsers(oldState.users, state.users);
+            savePermissions(TABLES.get(TABLE_GROUP_PERMISSIONS), GROUP_PERMISSION_COLUMNS, GROUP_PERMISSION_KEYS, oldState.groupPermissions,
+                    state.groupPermissions);
+            savePermissions(TABLES.get(TABLE_USER_PERMISSIONS), USER_PERMISSION_COLUMNS, USER_PERMISSION_KEYS, oldState.userPermissions,
+                    state.userPermissions);
+            if (!state.maxZoneId.equals(oldState.maxZoneId))
             {
-                saveWorldZone(worldZone);
-                saveZonePermissions(worldZone);
-                for (AreaZone areaZone : worldZone.getAreaZones())
-                {
-                    saveAreaZone(areaZone);
-                    saveZonePermissions(areaZone);
-                }
+                Map<String, Object> fieldsAndValues = new HashMap<>();
+                fieldsAndValues.put("key", INFO_MAX_ZONE_ID);
+                fieldsAndValues.put("value", state.maxZoneId);
+                db.createStatement().executeUpdate(TABLES.get(TABLE_INFO).createInsertOrReplace(fieldsAndValues));
             }
-            // db.commit();
-            // db.setAutoCommit(true);
+
+            db.commit();
+            savedState = state;
         }
         catch (SQLException se)
         {
+            savedState = null;
             try
             {
                 db.rollback();
@@ -406,92 +527,160 @@ public class SQLProvider extends ZonePersistenceProvider
             }
             Throwables.propagate(se);
         }
+        finally
+        {
+            try
+            {
+                db.setAutoCommit(autoCommit);
+            }
+            catch (SQLException e)
+            {
+                LoggingHandler.felog.error("Error resetting auto-commit for permission database");
+            }
+        }
     }
 
-    private void saveZonePermissions(Zone zone)
+    private static void collectRows(ServerZone serverZone, SavedState state)
     {
-        try
+        for (UserIdent ident : serverZone.getKnownPlayers())
+            if (ident.hasUuid())
+                state.users.put(ident.getOrGenerateUuid().toString(), ident.hasUsername() ? ident.getUsername() : null);
+
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", serverZone.getId());
+        row.put("type", 0);
+        row.put("parent_id", 0);
+        state.zones.put(serverZone.getId(), row);
+        collectPermissionRows(serverZone, state);
+        for (WorldZone worldZone : serverZone.getWorldZones().values())
         {
-            for (Entry<String, PermissionList> group : zone.getGroupPermissions().entrySet())
+            row = new HashMap<>();
+            row.put("id", worldZone.getId());
+            row.put("type", 1);
+            row.put("parent_id", worldZone.getParent().getId());
+            row.put("dimension", worldZone.getDimensionID());
+            state.zones.put(worldZone.getId(), row);
+            collectPermissionRows(worldZone, state);
+            for (AreaZone areaZone : worldZone.getAreaZones())
             {
-                for (Entry<String, String> perm : group.getValue().entrySet())
-                {
-                    Map<String, Object> fieldsAndValues = new HashMap<>();
-                    fieldsAndValues.put("group", group.getKey());
-                    fieldsAndValues.put("zone_id", zone.getId());
-                    fieldsAndValues.put("permission", perm.getKey());
-                    fieldsAndValues.put("value", perm.getValue());
-                    db.createStatement().executeUpdate(TABLES.get(TABLE_GROUP_PERMISSIONS).createInsertOrReplace(fieldsAndValues));
-                }
-            }
-            for (Entry<UserIdent, PermissionList> user : zone.getPlayerPermissions().entrySet())
-            {
-                for (Entry<String, String> perm : user.getValue().entrySet())
-                {
-                    Map<String, Object> fieldsAndValues = new HashMap<>();
-                    fieldsAndValues.put("user", user.getKey().getOrGenerateUuid().toString());
-                    fieldsAndValues.put("zone_id", zone.getId());
-                    fieldsAndValues.put("permission", perm.getKey());
-                    fieldsAndValues.put("value", perm.getValue());
-                    db.createStatement().executeUpdate(TABLES.get(TABLE_USER_PERMISSIONS).createInsertOrReplace(fieldsAndValues));
-                }
+                row = new HashMap<>();
+                row.put("id", areaZone.getId());
+                row.put("type", 2);
+                row.put("parent_id", areaZone.getParent().getId());
+                row.put("name", areaZone.getShortName());
+                row.put("dimension", worldZone.getDimensionID());
+                row.put("area", areaZone.getArea().toString());
+                row.put("shape", areaZone.getShape().toString());
+                state.zones.put(areaZone.getId(), row);
+                collectPermissionRows(areaZone, state);
             }
-            // PreparedStatement pstmt = db.prepareStatement("UPDATE");
-            //
-            // // Add rows to a batch in a loop. Each iteration adds a new row.
-            // for (int i = 0; i < firstNames.length; i++)
-            // {
-            // // Add each parameter to the row.
-            // pstmt.setInt(1, i + 1);
-            // pstmt.setString(2, lastNames[i]);
-            // pstmt.setString(3, firstNames[i]);
-            // pstmt.setString(4, emails[i]);
-            // pstmt.setString(5, phoneNumbers[i]);
-            // // Add row to the batch.
-            // pstmt.addBatch();
-            // }
         }
-        catch (SQLException e)
+        state.maxZoneId = Integer.toString(serverZone.getMaxZoneID());
+    }
+
+    private static void collectPermissionRows(Zone zone, SavedState state)
+    {
+        for (Entry<String, PermissionList> group : zone.getGroupPermissions().entrySet())
+            for (Entry<String, String> perm : group.getValue().entrySet())
+                state.groupPermissions.put(new PermissionRow(group.getKey(), zone.getId(), perm.getKey()), perm.getValue());
+        for (Entry<UserIdent, PermissionList> user : zone.getPlayerPermissions().entrySet())
         {
-            Throwables.propagate(e);
+            String uuid = user.getKey().getOrGenerateUuid().toString();
+            for (Entry<String, String> perm : user.getValue().entrySet())
+                state.userPermissions.put(new PermissionRow(uuid, zone.getId(), perm.getKey()), perm.getValue());
         }
     }
 
-    public void saveServerZone(ServerZone zone) throws SQLException
+    private void saveZones(Map<Integer, Map<String, Object>> oldZones, Map<Integer, Map<String, Object>> zones) throws SQLException
     {
-        Map<String, Object> fieldsAndValues = new HashMap<>();
-        fieldsAndValues.put("id", zone.getId());
-        fieldsAndValues.put("type", 0);
-        fieldsAndValues.put("parent_id", 0);
-        db.createStatement().executeUpdate(TABLES.get(TABLE_ZONE).createInsertOrReplace(fieldsAndValues));
-
-        fieldsAndValues = new HashMap<>();
-        fieldsAndValues.put("key", INFO_MAX_ZONE_ID);
-        fieldsAndValues.put("value", zone.getMaxZoneID());
-        db.createStatement().executeUpdate(TABLES.get(TABLE_INFO).createInsertOrReplace(fieldsAndValues));
+        TableInfo tbl = TABLES.get(TABLE_ZONE);
+        try (PreparedStatement insert = db.prepareStatement(tbl.createPreparedInsertOrReplace(ZONE_COLUMNS)))
+        {
+            int count = 0;
+            for (Entry<Integer, Map<String, Object>> zone : zones.entrySet())
+            {
+                if (zone.getValue().equals(oldZones.get(zone.getKey())))
+                    continue;
+                for (int i = 0; i < ZONE_COLUMNS.size(); i++)
+                    tbl.setParameter(insert, i + 1, ZONE_COLUMNS.get(i), zone.getValue().get(ZONE_COLUMNS.get(i)));
+                insert.addBatch();
+                count++;
+            }
+            if (count > 0)
+                insert.executeBatch();
+        }
+        try (PreparedStatement delete = db.prepareStatement(tbl.createPreparedDelete(Arrays.asList("id"))))
+        {
+            int count = 0;
+            for (Integer id : oldZones.keySet())
+            {
+                if (zones.containsKey(id))
+                    continue;
+                delete.setInt(1, id);
+                delete.addBatch();
+                count++;
+            }
+            if (count > 0)
+                delete.executeBatch();
+        }
     }
 
-    private void saveWorldZone(WorldZone zone) throws SQLException
+    private void saveUsers(Map<String, String> oldUsers, Map<String, String> users) throws SQLException
     {
-        Map<String, Object> fieldsAndValues = new HashMap<>();
-        fieldsAndValues.put("id", zone.getId());
-        fieldsAndValues.put("type", 1);
-        fieldsAndValues.put("parent_id", zone.getParent().getId());
-        fieldsAndValues.put("dimension", zone.getDimensionID());
-        db.createStatement().executeUpdate(TABLES.get(TABLE_ZONE).createInsertOrReplace(fieldsAndValues));
+        TableInfo tbl = TABLES.get(TABLE_USER);
+        try (PreparedStatement insert = db.prepareStatement(tbl.createPreparedInsertOrReplace(USER_COLUMNS)))
+        {
+            int count = 0;
+            for (Entry<String, String> user : users.entrySet())
+            {
+                if (oldUsers.containsKey(user.getKey()) && StringUtils.equals(oldUsers.get(user.getKey()), user.getValue()))
+                    continue;
+                insert.setString(1, user.getKey());
+                tbl.setParameter(insert, 2, "name", user.getValue());
+                insert.addBatch();
+                count++;
+            }
+            if (count > 0)
+                insert.executeBatch();
+        }
     }
 
-    private void saveAreaZone(AreaZone zone) throws SQLException
+    private void savePermissions(TableInfo tbl, List<String> columns, List<String> keys, Map<PermissionRow, String> oldRows, Map<PermissionRow, String> rows)
+            throws SQLException
     {
-        Map<String, Object> fieldsAndValues = new HashMap<>();
-        fieldsAndValues.put("id", zone.getId());
-        fieldsAndValues.put("type", 2);
-        fieldsAndValues.put("parent_id", zone.getParent().getId());
-        fieldsAndValues.put("name", zone.getShortName());
-        fieldsAndValues.put("dimension", zone.getWorldZone().getDimensionID());
-        fieldsAndValues.put("area", zone.getArea().toString());
-        fieldsAndValues.put("shape", zone.getShape().toString());
-        db.createStatement().executeUpdate(TABLES.get(TABLE_ZONE).createInsertOrReplace(fieldsAndValues));
+        try (PreparedStatement insert = db.prepareStatement(tbl.createPreparedInsertOrReplace(columns)))
+        {
+            int count = 0;
+            for (Entry<PermissionRow, String> row : rows.entrySet())
+            {
+                if (oldRows.containsKey(row.getKey()) && StringUtils.equals(oldRows.get(row.getKey()), row.getValue()))
+                    continue;
+                insert.setString(1, row.getKey().owner);
+                insert.setInt(2, row.getKey().zoneId);
+                insert.setString(3, row.getKey().permission);
+                insert.setString(4, row.getValue());
+                insert.addBatch();
+                count++;
+            }
+            if (count > 0)
+                insert.executeBatch();
+        }
+        try (PreparedStatement delete = db.prepareStatement(tbl.createPreparedDelete(keys)))
+        {
+            int count = 0;
+            for (PermissionRow row : oldRows.keySet())
+            {
+                if (rows.containsKey(row))
+                    continue;
+                delete.setString(1, row.owner);
+                delete.setInt(2, row.zoneId);
+                delete.setString(3, row.permission);
+                delete.addBatch();
+                count++;
+            }
+            if (count > 0)
+                delete.executeBatch();
+        }
     }
 
     @Override
@@ -573,6 +762,26 @@ public class SQLProvider extends ZonePersistenceProvider
                 }
             }
 
+            // Remember the rows that are stored in the database, so the next save only writes changes
+            SavedState state = new SavedState();
+            for (Map<String, Object> zoneData : zonesData)
+            {
+                Map<String, Object> row = new HashMap<>();
+                for (String column : ZONE_COLUMNS)
+                    if (zoneData.get(column) != null)
+                        row.put(column, zoneData.get(column));
+                state.zones.put((Integer) zoneData.get("id"), row);
+            }
+            for (Map<String, Object> permData : groupPermissions)
+                state.groupPermissions.put(new PermissionRow((String) permData.get("group"), (Integer) permData.get("zone_id"), (String) permData.get("permission")),
+                        (String) permData.get("value"));
+            for (Map<String, Object> permData : userPermissions)
+                state.userPermissions.put(new PermissionRow((String) permData.get("user"), (Integer) permData.get("zone_id"), (String) permData.get("permission")),
+                        (String) permData.get("value"));
+            state.users.putAll(TABLES.get(TABLE_USER).loadMap("uuid", "name"));
+            state.maxZoneId = infoData.get(INFO_MAX_ZONE_ID);
+            savedState = state;
+
             // Load maxZoneId
             try
             {
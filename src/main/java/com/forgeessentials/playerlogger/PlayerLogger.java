@@ -1,21 +1,40 @@
 package com.forgeessentials.playerlogger;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Blob;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.NonUniqueResultException;
 import javax.persistence.Persistence;
-import javax.persistence.Query;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -23,6 +42,7 @@ import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import javax.persistence.metamodel.SingularAttribute;
 import javax.sql.rowset.serial.SerialBlob;
+import javax.xml.bind.DatatypeConverter;
 
 import net.minecraft.block.Block;
 import net.minecraft.entity.player.EntityPlayerMP;
@@ -32,10 +52,12 @@ import net.minecraft.item.ItemBlock;
 import net.minecraft.item.ItemDoor;
 import net.minecraft.item.ItemRedstone;
 import net.minecraft.item.ItemSkull;
+import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.GameType;
+import net.minecraft.world.World;
 import net.minecraftforge.common.util.BlockSnapshot;
 import net.minecraftforge.event.CommandEvent;
 import net.minecraftforge.event.entity.player.PlayerInteractEvent;
@@ -59,12 +81,16 @@ import com.forgeessentials.core.misc.TaskRegistry;
 import com.forgeessentials.playerlogger.entity.Action;
 import com.forgeessentials.playerlogger.entity.Action01Block;
 import com.forgeessentials.playerlogger.entity.Action02Command;
+import com.forgeessentials.playerlogger.entity.Action03PlayerEvent;
 import com.forgeessentials.playerlogger.entity.Action03PlayerEvent.PlayerEventType;
+import com.forgeessentials.playerlogger.entity.Action04PlayerPosition;
 import com.forgeessentials.playerlogger.entity.Action_;
 import com.forgeessentials.playerlogger.entity.BlockData;
 import com.forgeessentials.playerlogger.entity.BlockData_;
 import com.forgeessentials.playerlogger.entity.PlayerData;
 import com.forgeessentials.playerlogger.entity.PlayerData_;
+import com.forgeessentials.playerlogger.entity.TileEntityData;
+import com.forgeessentials.playerlogger.entity.TileEntityData_;
 import com.forgeessentials.playerlogger.entity.WorldData;
 import com.forgeessentials.playerlogger.event.LogEventBreak;
 import com.forgeessentials.playerlogger.event.LogEventBurn;
@@ -86,7 +112,41 @@ import io.netty.buffer.Unpooled;
 public class PlayerLogger extends ServerEventHandler implements Runnable
 {
 
-    private Thread thread;
+    /**
+     * What to do with new events when the event queue is full
+     */
+    public static enum OverflowPolicy
+    {
+        /**
+         * Block the thread logging the event until there is space in the queue
+         */
+        BLOCK,
+        /**
+         * Drop the oldest event in the queue
+         */
+        DROP_OLDEST;
+    }
+
+    /**
+     * Tables of all action types which are joined to the {@link Action} table
+     */
+    private static final List<Class<? extends Action>> ACTION_TABLES = Arrays.asList(Action01Block.class, Action02Command.class,
+            Action03PlayerEvent.class, Action04PlayerPosition.class);
+
+    private static final String[] OBSOLETE_INDEXES = new String[] { "x_idx", "y_idx", "z_idx" };
+
+    private static final int PURGE_CHUNK_SIZE = 50000;
+
+    private static final int TILE_ENTITY_CACHE_SIZE = 4096;
+
+    /**
+     * Time in milliseconds to wait for the writer thread to finish its current batch when closing the database
+     */
+    private static final int WRITER_STOP_TIMEOUT = 30000;
+
+    private volatile Thread thread;
+
+    private volatile boolean running;
 
     private EntityManagerFactory entityManagerFactory;
 
@@ -98,23 +158,72 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
 
     private Map<UUID, Long> playerCache = new HashMap<>();
 
+    private Map<String, Long> tileEntityCache = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+        {
+            return size() > TILE_ENTITY_CACHE_SIZE;
+        }
+    };
+
+    private final RecentActionIndex recentActions = new RecentActionIndex();
+
+    private static final Map<String, Class<? extends TileEntity>> tileEntityClasses = new ConcurrentHashMap<>();
+
     /* ------------------------------------------------------------ */
 
-    private ConcurrentLinkedQueue<PlayerLoggerEvent<?>> eventQueue = new ConcurrentLinkedQueue<>();
+    private volatile BlockingQueue<PlayerLoggerEvent<?>> eventQueue = new LinkedBlockingQueue<>();
+
+    private final AtomicLong eventsLogged = new AtomicLong();
+
+    private final AtomicLong eventsWritten = new AtomicLong();
+
+    private final AtomicLong eventsDropped = new AtomicLong();
+
+    private volatile int lastBatchSize;
+
+    private volatile long lastBatchDuration;
+
+    private volatile long lastLatency;
+
+    private volatile long maxLatency;
 
     /* ------------------------------------------------------------ */
 
     /**
      * Closes any existing database connection and frees resources
      */
-    protected synchronized void close()
+    protected void close()
     {
         TaskRegistry.remove(playerPositionTimer);
 
+        // Stop the writer thread first. This must not hold the lock, because the writer needs it to write the batch it
+        // already took from the queue.
+        stopThread();
+        synchronized (this)
+        {
+            closeDatabase();
+        }
+    }
+
+    private void closeDatabase()
+    {
+        // Write all remaining events
+        if (em != null && em.isOpen())
+        {
+            List<PlayerLoggerEvent<?>> batch = new ArrayList<>();
+            while (eventQueue.drainTo(batch, PlayerLoggerConfig.batchSize) > 0)
+            {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
         eventQueue.clear();
         blockCache.clear();
         blockTypeCache.clear();
         playerCache.clear();
+        tileEntityCache.clear();
+        recentActions.clear();
 
         if (em != null && em.isOpen())
         {
@@ -131,9 +240,17 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
     /**
      * Initialize the database connection
      */
-    protected synchronized void loadDatabase()
+    protected void loadDatabase()
     {
         close();
+        synchronized (this)
+        {
+            openDatabase();
+        }
+    }
+
+    private void openDatabase()
+    {
 
         // Set log level
         Logger.getLogger("org.hibernate").setLevel(Level.SEVERE);
@@ -156,6 +273,7 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
         }
         properties.setProperty("hibernate.connection.username", PlayerLoggerConfig.databaseUsername);
         properties.setProperty("hibernate.connection.password", PlayerLoggerConfig.databasePassword);
+        properties.setProperty("hibernate.jdbc.batch_size", Integer.toString(PlayerLoggerConfig.jdbcBatchSize));
         // properties.setProperty("hibernate.hbm2ddl.auto", "update");
         // properties.setProperty("hibernate.format_sql", "false");
         // properties.setProperty("hibernate.show_sql", "true");
@@ -164,6 +282,10 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
         // entityManagerFactory = Persistence.createEntityManagerFactory("playerlogger_eclipselink_" +
         // PlayerLoggerConfig.databaseType, properties);
         em = entityManagerFactory.createEntityManager();
+        migrateDatabase();
+
+        eventQueue = new LinkedBlockingQueue<>(PlayerLoggerConfig.queueSize);
+        startThread();
 
         if (PlayerLoggerConfig.playerPositionInterval > 0)
             TaskRegistry.scheduleRepeated(playerPositionTimer, (int) (PlayerLoggerConfig.playerPositionInterval * 1000));
@@ -172,108 +294,291 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
     @Override
     public void run()
     {
-        while (!eventQueue.isEmpty())
+        List<PlayerLoggerEvent<?>> batch = new ArrayList<>();
+        // A new writer thread is started each time the database is (re)loaded
+        while (running && thread == Thread.currentThread())
         {
-            synchronized (this)
+            try
             {
-                if (em == null)
-                    return;
-                if (!em.isOpen())
-                {
-                    LoggingHandler.felog.error("[PL] Playerlogger database closed. Trying to reconnect...");
-                    try
-                    {
-                        em = entityManagerFactory.createEntityManager();
-                    }
-                    catch (IllegalStateException e)
-                    {
-                        LoggingHandler.felog.error("[PL] ------------------------------------------------------------------------");
-                        LoggingHandler.felog.error("[PL] Fatal error! Database connection was lost and could not be reestablished");
-                        LoggingHandler.felog.error("[PL] Stopping playerlogger!");
-                        LoggingHandler.felog.error("[PL] ------------------------------------------------------------------------");
-                        em = null;
-                        eventQueue.clear();
-                        return;
-                    }
-                }
-                try
+                PlayerLoggerEvent<?> event = eventQueue.poll(PlayerLoggerConfig.flushInterval, TimeUnit.MILLISECONDS);
+                if (event == null)
+                    continue;
+                batch.add(event);
+
+                // Collect more events until the batch is full or the flush interval has passed
+                long flushTime = System.currentTimeMillis() + PlayerLoggerConfig.flushInterval;
+                while (batch.size() < PlayerLoggerConfig.batchSize)
                 {
-                    em.getTransaction().begin();
-                    int count;
-                    for (count = 0; count < 1000; count++)
-                    {
-                        PlayerLoggerEvent<?> logEvent = eventQueue.poll();
-                        if (logEvent == null)
-                            break;
-                        logEvent.process(em);
-                    }
-                    em.getTransaction().commit();
-                    // System.out.println(String.format("%d: Wrote %d playerlogger entries", System.currentTimeMillis()
-                    // % (1000 * 60), count));
-                }
-                catch (Exception e1)
-                {
-                    LoggingHandler.felog.error("[PL] Exception while persisting playerlogger entries");
-                    e1.printStackTrace();
-                    try
-                    {
-                        em.getTransaction().rollback();
-                    }
-                    catch (Exception e2)
-                    {
-                        LoggingHandler.felog.error("[PL] Exception while rolling back changes!");
-                        e2.printStackTrace();
-                        em.close();
-                        return;
-                    }
-                }
-                finally
-                {
-                    em.clear();
+                    eventQueue.drainTo(batch, PlayerLoggerConfig.batchSize - batch.size());
+                    long timeout = flushTime - System.currentTimeMillis();
+                    if (batch.size() >= PlayerLoggerConfig.batchSize || timeout <= 0)
+                        break;
+                    event = eventQueue.poll(timeout, TimeUnit.MILLISECONDS);
+                    if (event == null)
+                        break;
+                    batch.add(event);
                 }
             }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes a batch of events in a single transaction
+     */
+    protected synchronized void writeBatch(List<PlayerLoggerEvent<?>> batch)
+    {
+        if (em == null)
+            return;
+        if (!em.isOpen())
+        {
+            LoggingHandler.felog.error("[PL] Playerlogger database closed. Trying to reconnect...");
             try
             {
-                // Try to give other threads some time to enter synchronized blocks
-                Thread.sleep(1);
+                em = entityManagerFactory.createEntityManager();
             }
-            catch (InterruptedException e)
+            catch (IllegalStateException e)
+            {
+                LoggingHandler.felog.error("[PL] ------------------------------------------------------------------------");
+                LoggingHandler.felog.error("[PL] Fatal error! Database connection was lost and could not be reestablished");
+                LoggingHandler.felog.error("[PL] Stopping playerlogger!");
+                LoggingHandler.felog.error("[PL] ------------------------------------------------------------------------");
+                em = null;
+                running = false;
+                eventQueue.clear();
+                return;
+            }
+        }
+        long start = System.currentTimeMillis();
+        try
+        {
+            em.getTransaction().begin();
+            for (PlayerLoggerEvent<?> logEvent : batch)
+                logEvent.process(em);
+            em.getTransaction().commit();
+            for (PlayerLoggerEvent<?> logEvent : batch)
+                logEvent.committed(this);
+
+            long now = System.currentTimeMillis();
+            lastBatchSize = batch.size();
+            lastBatchDuration = now - start;
+            lastLatency = now - batch.get(0).date.getTime();
+            maxLatency = Math.max(maxLatency, lastLatency);
+            eventsWritten.addAndGet(batch.size());
+        }
+        catch (Exception e1)
+        {
+            LoggingHandler.felog.error("[PL] Exception while persisting playerlogger entries");
+            tileEntityCache.clear();
+            // Indexed actions of this batch will never be written
+            recentActions.clear();
+            e1.printStackTrace();
+            try
             {
-                e.printStackTrace();
+                em.getTransaction().rollback();
             }
+            catch (Exception e2)
+            {
+                LoggingHandler.felog.error("[PL] Exception while rolling back changes!");
+                e2.printStackTrace();
+                em.close();
+            }
+        }
+        finally
+        {
+            if (em.isOpen())
+                em.clear();
         }
     }
 
     protected void startThread()
     {
-        // TODO: Instead of creating a new thread all the time, try to use one single thread in waiting mode
-        if (thread != null && thread.isAlive())
-            return;
+        running = true;
         thread = new Thread(this, "Playerlogger");
+        thread.setDaemon(true);
         thread.start();
     }
 
+    /**
+     * Stops the writer thread and waits until it has written the events it already took from the queue
+     */
+    protected void stopThread()
+    {
+        running = false;
+        Thread writer = thread;
+        if (writer == null || writer == Thread.currentThread())
+            return;
+        try
+        {
+            writer.join(WRITER_STOP_TIMEOUT);
+            if (writer.isAlive())
+                LoggingHandler.felog.warn("[PL] Writer thread did not finish its last batch in time");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Statistics */
+
+    public int getQueueSize()
+    {
+        return eventQueue.size();
+    }
+
+    public int getQueueCapacity()
+    {
+        return eventQueue.size() + eventQueue.remainingCapacity();
+    }
+
+    public long getEventsLogged()
+    {
+        return eventsLogged.get();
+    }
+
+    public long getEventsWritten()
+    {
+        return eventsWritten.get();
+    }
+
+    public long getEventsDropped()
+    {
+        return eventsDropped.get();
+    }
+
+    public int getLastBatchSize()
+    {
+        return lastBatchSize;
+    }
+
+    /**
+     * Time in milliseconds it took to write the last batch
+     */
+    public long getLastBatchDuration()
+    {
+        return lastBatchDuration;
+    }
+
+    /**
+     * Time in milliseconds between the oldest event of the last batch being logged and it being written
+     */
+    public long getLastLatency()
+    {
+        return lastLatency;
+    }
+
+    public long getMaxLatency()
+    {
+        return maxLatency;
+    }
+
     // ============================================================
 
+    /**
+     * Deletes all actions older than startTime.
+     *
+     * Action ids are assigned in the order events are written, so old data always forms a contiguous id range at the
+     * start of the tables. Instead of a mass delete by time (which hibernate runs through temporary id tables for
+     * the joined action tables), the range is dropped by primary key in chunks of {@link #PURGE_CHUNK_SIZE} ids.
+     */
     public synchronized void purgeOldData(Date startTime)
     {
-        String hql = "delete from Action where time < :startTime";
-        Query q = em.createQuery(hql).setParameter("startTime", startTime);
-        try
+        // Everything before the first action that has to be kept can be dropped
+        Long endId = em.createQuery("select min(a.id) from Action a where a.time >= :startTime", Long.class) //
+                .setParameter("startTime", startTime).getSingleResult();
+        if (endId == null)
+        {
+            Long maxId = em.createQuery("select max(a.id) from Action a", Long.class).getSingleResult();
+            if (maxId == null)
+                return;
+            endId = maxId + 1;
+        }
+        Long startId = em.createQuery("select min(a.id) from Action a", Long.class).getSingleResult();
+        if (startId == null || startId >= endId)
+            return;
+
+        int count = 0;
+        for (long chunkEnd = Math.min(startId + PURGE_CHUNK_SIZE, endId);; chunkEnd = Math.min(chunkEnd + PURGE_CHUNK_SIZE, endId))
         {
             em.getTransaction().begin();
-            int count = q.executeUpdate();
-            LoggingHandler.felog.info(String.format("Purged %d old Playerlogger entries", count));
+            try
+            {
+                for (Class<? extends Action> actionType : ACTION_TABLES)
+                    em.createNativeQuery("DELETE FROM " + actionType.getSimpleName() + " WHERE id < ?") //
+                            .setParameter(1, chunkEnd).executeUpdate();
+                count += em.createNativeQuery("DELETE FROM Action WHERE id < ?").setParameter(1, chunkEnd).executeUpdate();
+                em.getTransaction().commit();
+            }
+            catch (RuntimeException e)
+            {
+                if (em.getTransaction().isActive())
+                    em.getTransaction().rollback();
+                throw e;
+            }
+            if (chunkEnd >= endId)
+                break;
         }
-        finally
+
+        // Remove tile entity snapshots which are no longer referenced by any action
+        em.getTransaction().begin();
+        try
         {
+            em.createNativeQuery("DELETE FROM TileEntityData WHERE id NOT IN " //
+                    + "(SELECT tile_entity_id FROM Action01Block WHERE tile_entity_id IS NOT NULL)").executeUpdate();
             em.getTransaction().commit();
         }
+        catch (RuntimeException e)
+        {
+            if (em.getTransaction().isActive())
+                em.getTransaction().rollback();
+            throw e;
+        }
+        tileEntityCache.clear();
+        em.clear();
+        LoggingHandler.felog.info(String.format("Purged %d old Playerlogger entries", count));
+    }
+
+    /**
+     * Drops indexes of older database layouts that are superseded by the indexes declared on {@link Action}. New
+     * indexes are created by hibernate's schema update.
+     */
+    protected void migrateDatabase()
+    {
+        for (String index : OBSOLETE_INDEXES)
+        {
+            String sql = "h2".equals(PlayerLoggerConfig.databaseType) ? //
+                    "DROP INDEX IF EXISTS " + index : "DROP INDEX " + index + " ON Action";
+            em.getTransaction().begin();
+            try
+            {
+                em.createNativeQuery(sql).executeUpdate();
+                em.getTransaction().commit();
+            }
+            catch (PersistenceException e)
+            {
+                // Index does not exist
+                if (em.getTransaction().isActive())
+                    em.getTransaction().rollback();
+            }
+        }
     }
 
     // ============================================================
     // Utilities
 
+    public RecentActionIndex getRecentActions()
+    {
+        return recentActions;
+    }
+
     /**
      * <b>NEVER</b> call this and do write operations with this entity manager unless you do it in a synchronized block with this object.
      * <p>
@@ -334,8 +639,39 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
     {
         if (em == null)
             return;
-        eventQueue.add(event);
-        startThread();
+        eventsLogged.incrementAndGet();
+        if (event.recentActions != null)
+            recentActions.add(event.recentActions);
+        if (eventQueue.offer(event))
+            return;
+        switch (PlayerLoggerConfig.overflowPolicy)
+        {
+        case BLOCK:
+            try
+            {
+                eventQueue.put(event);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                eventsDropped.incrementAndGet();
+                if (event.recentActions != null)
+                    recentActions.discard(event.recentActions);
+            }
+            break;
+        case DROP_OLDEST:
+        default:
+            while (!eventQueue.offer(event))
+            {
+                PlayerLoggerEvent<?> dropped = eventQueue.poll();
+                if (dropped == null)
+                    continue;
+                eventsDropped.incrementAndGet();
+                if (dropped.recentActions != null)
+                    recentActions.discard(dropped.recentActions);
+            }
+            break;
+        }
     }
 
     protected synchronized WorldData getWorld(int dimensionId)
@@ -370,6 +706,16 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
         return data;
     }
 
+    synchronized Long getCachedPlayerId(UUID uuid)
+    {
+        return playerCache.get(uuid);
+    }
+
+    synchronized Integer getCachedBlockId(String name)
+    {
+        return blockCache.get(name);
+    }
+
     protected synchronized BlockData getBlock(String name)
     {
         Integer id = blockCache.get(name);
@@ -399,18 +745,16 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
 
     /* ------------------------------------------------------------ */
 
-    public static SerialBlob tileEntityToBlob(TileEntity tileEntity)
+    /**
+     * Takes a snapshot of the tile entity data. Must be called on the server thread.
+     */
+    public static NBTTagCompound tileEntityToNbt(TileEntity tileEntity)
     {
+        if (tileEntity == null)
+            return null;
         try
         {
-            if (tileEntity == null)
-                return null;
-            NBTTagCompound nbt = new NBTTagCompound();
-            tileEntity.writeToNBT(nbt);
-            nbt.setString("ENTITY_CLASS", tileEntity.getClass().getName());
-            ByteBuf buf = Unpooled.buffer();
-            ByteBufUtils.writeTag(buf, nbt);
-            return new SerialBlob(buf.array());
+            return tileEntity.writeToNBT(new NBTTagCompound());
         }
         catch (Exception e)
         {
@@ -420,8 +764,95 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
         return null;
     }
 
+    /**
+     * Returns the shared snapshot for the passed tile entity data and stores it, if it does not exist yet
+     */
+    protected synchronized TileEntityData getTileEntityData(NBTTagCompound nbt)
+    {
+        if (nbt == null)
+            return null;
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CompressedStreamTools.write(nbt, new DataOutputStream(bytes));
+            byte[] raw = bytes.toByteArray();
+            String hash = DatatypeConverter.printHexBinary(MessageDigest.getInstance("SHA-1").digest(raw));
+
+            Long id = tileEntityCache.get(hash);
+            if (id != null)
+                return em.getReference(TileEntityData.class, id);
+
+            TileEntityData data = getOneOrNullResult(buildSimpleQuery(TileEntityData.class, TileEntityData_.hash, hash));
+            if (data == null)
+            {
+                data = new TileEntityData();
+                data.hash = hash;
+                data.compressed = PlayerLoggerConfig.tileEntityCompression > 0;
+                data.data = new SerialBlob(data.compressed ? deflate(raw, PlayerLoggerConfig.tileEntityCompression) : raw);
+                em.persist(data);
+            }
+            tileEntityCache.put(hash, data.id);
+            return data;
+        }
+        catch (IOException | NoSuchAlgorithmException | SQLException e)
+        {
+            LoggingHandler.felog.error("[PL] Unable to store tile entity data: " + e.toString());
+        }
+        return null;
+    }
+
+    private static byte[] deflate(byte[] data, int level) throws IOException
+    {
+        Deflater deflater = new Deflater(level);
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater))
+            {
+                out.write(data);
+            }
+            return bytes.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Creates the tile entity that existed before the logged block change
+     */
+    public static TileEntity getTileEntity(World world, Action01Block action)
+    {
+        if (action.tileEntity != null)
+            return dataToTileEntity(world, action.tileEntity);
+        return blobToTileEntity(world, action.entity);
+    }
+
+    public static TileEntity dataToTileEntity(World world, TileEntityData data)
+    {
+        try
+        {
+            if (data.data == null || data.data.length() == 0)
+                return null;
+            InputStream in = new ByteArrayInputStream(data.data.getBytes(1, (int) data.data.length()));
+            if (data.compressed)
+                in = new InflaterInputStream(in);
+            NBTTagCompound nbt = CompressedStreamTools.read(new DataInputStream(in));
+            return TileEntity.create(world, nbt);
+        }
+        catch (IOException | SQLException e)
+        {
+            LoggingHandler.felog.error("Unable to load tile entity data: " + e.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Loads tile entity data stored by older versions directly in the action
+     */
     @SuppressWarnings("unchecked")
-    public static TileEntity blobToTileEntity(Blob blob)
+    public static TileEntity blobToTileEntity(World world, Blob blob)
     {
         try
         {
@@ -433,14 +864,23 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
             if (nbt == null)
                 return null;
 
+            // Tile entities are registered by their id, which avoids looking up classes by name
+            if (nbt.hasKey("id"))
+                return TileEntity.create(world, nbt);
+
             String className = nbt.getString("ENTITY_CLASS");
             if (className.isEmpty())
                 return null;
 
-            Class<?> clazz = Class.forName(className);
-            if (!TileEntity.class.isAssignableFrom(clazz))
-                return null;
-            Class<TileEntity> teClazz = (Class<TileEntity>) clazz;
+            Class<? extends TileEntity> teClazz = tileEntityClasses.get(className);
+            if (teClazz == null)
+            {
+                Class<?> clazz = Class.forName(className);
+                if (!TileEntity.class.isAssignableFrom(clazz))
+                    return null;
+                teClazz = (Class<? extends TileEntity>) clazz;
+                tileEntityClasses.put(className, teClazz);
+            }
 
             TileEntity entity = teClazz.newInstance();
             entity.readFromNBT(nbt);
@@ -593,6 +1033,31 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
         return executeQuery(query);
     }
 
+    /**
+     * Returns block changes ordered by id, newest first. Large results can be paged through by passing the id of the
+     * last returned change as fromId.
+     *
+     * @param area
+     * @param startTime startTime <= t <= endTime
+     * @param endTime startTime <= t <= endTime
+     * @param fromId if fromId != 0 returns only entries with id < fromId
+     * @param maxResults
+     * @return
+     */
+    public List<Action01Block> getLoggedBlockChangesById(WorldArea area, Date startTime, Date endTime, long fromId, int maxResults)
+    {
+        CriteriaBuilder cBuilder = em.getCriteriaBuilder();
+        CriteriaQuery<Action01Block> cQuery = cBuilder.createQuery(Action01Block.class);
+        Root<Action01Block> cRoot = cQuery.from(Action01Block.class);
+        cQuery.select(cRoot);
+        cQuery.where(getActionPredicate(cRoot, area, startTime, endTime, fromId));
+        cQuery.orderBy(cBuilder.desc(cRoot.get(Action_.id)));
+        TypedQuery<Action01Block> query = em.createQuery(cQuery);
+        if (maxResults > 0)
+            query.setMaxResults(maxResults);
+        return executeQuery(query);
+    }
+
     public List<Action01Block> getLoggedBlockChanges(WorldPoint point, Date startTime, Date endTime, long fromId, int maxResults)
     {
         CriteriaBuilder cBuilder = em.getCriteriaBuilder();
@@ -643,7 +1108,6 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
         public void run()
         {
             logEvent(new LogEventPlayerPositions());
-            startThread();
         }
     };
 
@@ -651,7 +1115,6 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
     public void worldLoad(WorldEvent.Load event)
     {
         logEvent(new LogEventWorldLoad(event));
-        startThread();
     }
 
     @SubscribeEvent(priority = EventPriority.LOWEST)
@@ -666,8 +1129,7 @@ public class PlayerLogger extends ServerEventHandler implements Runnable
             for (BlockSnapshot snapshot : ((BlockEvent.MultiPlaceEvent) event).getReplacedBlockSnapshots())
                 changes.put(snapshot.getPos(), snapshot);
             for (BlockSnapshot snapshot : changes.values())
-                eventQueue.add(new LogEventPlace(new BlockEvent.PlaceEvent(snapshot, null, event.getPlayer(), event.getHand())));
-            startThread();
+                logEvent(new LogEventPlace(new BlockEvent.PlaceEvent(snapshot, null, event.getPlayer(), event.getHand())));
         }
         else
         {
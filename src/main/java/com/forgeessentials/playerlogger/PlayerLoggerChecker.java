@@ -1,5 +1,6 @@
 package com.forgeessentials.playerlogger;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
@@ -16,6 +17,7 @@ import com.forgeessentials.commons.selections.Point;
 import com.forgeessentials.commons.selections.WorldArea;
 import com.forgeessentials.commons.selections.WorldPoint;
 import com.forgeessentials.playerlogger.FilterConfig.ActionEnum;
+import com.forgeessentials.playerlogger.RecentActionIndex.RecentAction;
 import com.forgeessentials.playerlogger.entity.Action;
 import com.forgeessentials.playerlogger.entity.Action01Block;
 import com.forgeessentials.playerlogger.entity.Action02Command;
@@ -27,6 +29,9 @@ public class PlayerLoggerChecker
 {
     public static PlayerLoggerChecker instance = new PlayerLoggerChecker();
 
+    private static final ActionEnum[] NON_BLOCK_ACTIONS = { ActionEnum.command, ActionEnum.playerLogin, ActionEnum.playerLogout,
+            ActionEnum.playerRespawn, ActionEnum.playerChangeDim, ActionEnum.playerPosition, ActionEnum.other };
+
     private PlayerLoggerChecker()
     {
 
@@ -45,6 +50,17 @@ public class PlayerLoggerChecker
                 new Point(wp.getX() + radius, wp.getY() + radius, wp.getZ() + radius));
     }
 
+    /**
+     * Checks, if the filter only shows block changes. Only those can be answered by the {@link RecentActionIndex}.
+     */
+    private static boolean isBlockFilter(FilterConfig fc)
+    {
+        for (ActionEnum action : NON_BLOCK_ACTIONS)
+            if (fc.hasAction(action))
+                return false;
+        return true;
+    }
+
     public static class LoggerCheckInfo
     {
 
@@ -94,8 +110,24 @@ public class PlayerLoggerChecker
                 ChatOutputHandler.chatNotification(sender, "Showing recent block changes (clicked block):");
         }
 
-        ChatOutputHandler.chatNotification(sender, "Loading logs from database!  This may take a while.");
-        List<Action> changes = ModulePlayerLogger.getLogger().getLoggedActions(getAreaAround(point,fc.pickerRange),fc.After(),fc.Before(),info.checkStartId,pageSize);
+        WorldArea area = getAreaAround(point, fc.pickerRange);
+        RecentActionIndex recentActions = ModulePlayerLogger.getLogger().getRecentActions();
+        List<Action> changes = new ArrayList<>();
+
+        // Show changes which have not been written to the database yet first
+        if (info.checkStartId == 0)
+            for (RecentAction recentAction : recentActions.getPendingActions(area, fc.After(), fc.Before()))
+                changes.add(recentAction.toAction());
+
+        List<? extends Action> loggedChanges = null;
+        if (isBlockFilter(fc))
+            loggedChanges = recentActions.getLoggedBlockChanges(area, fc.After(), fc.Before(), info.checkStartId, pageSize);
+        if (loggedChanges == null)
+        {
+            ChatOutputHandler.chatNotification(sender, "Loading logs from database!  This may take a while.");
+            loggedChanges = ModulePlayerLogger.getLogger().getLoggedActions(area, fc.After(), fc.Before(), info.checkStartId, pageSize);
+        }
+        changes.addAll(loggedChanges);
 
         //List<Action01Block> changes = ModulePlayerLogger.getLogger().getLoggedBlockChanges(getAreaAround(point, fc.pickerRange),fc.After(), fc.Before(), info.checkStartId, pageSize);
 
@@ -107,7 +139,9 @@ public class PlayerLoggerChecker
 
         for (Action change : changes)
         {
-            info.checkStartId = change.id;
+            // Changes which have not been written yet have no id
+            if (change.id != null)
+                info.checkStartId = change.id;
 
             String msg = String.format("%1$tm/%1$te %1$tH:%1$tM:%1$tS", change.time);
             if (change.player != null)
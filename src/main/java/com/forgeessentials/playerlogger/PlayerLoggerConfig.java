@@ -19,6 +19,23 @@ public class PlayerLoggerConfig extends ConfigLoaderBase
 
     public static double playerPositionInterval;
 
+    // Writer
+    public static int queueSize;
+    public static int batchSize;
+    public static int flushInterval;
+    public static int jdbcBatchSize;
+    public static PlayerLogger.OverflowPolicy overflowPolicy = PlayerLogger.OverflowPolicy.DROP_OLDEST;
+    public static int tileEntityCompression;
+
+    // Recent action index
+    public static int recentIndexDuration;
+    public static int recentIndexChunkSize;
+    public static int recentIndexMaxEntries;
+
+    // Rollback
+    public static int rollbackPageSize;
+    public static int rollbackTickBudget;
+
     @Override
     public void load(Configuration config, boolean isReload)
     {
@@ -32,6 +49,29 @@ public class PlayerLoggerConfig extends ConfigLoaderBase
         playerPositionInterval = config.get(CAT, "player_pos_interval", 5, "Log player positions every X seconds. Set to 0 to disable.").getDouble();
         if (playerPositionInterval > 0 && playerPositionInterval < 0.5)
             playerPositionInterval = 0.5;
+        queueSize = Math.max(1000, config.get(CAT, "queue_size", 100000, "Maximum number of events waiting to be written to the database").getInt());
+        batchSize = Math.max(1, config.get(CAT, "batch_size", 1000, "Maximum number of events written in one transaction").getInt());
+        flushInterval = Math.max(1, config.get(CAT, "flush_interval", 250, "Time in milliseconds to wait for more events before writing a batch").getInt());
+        jdbcBatchSize = Math.max(1, config.get(CAT, "jdbc_batch_size", 50, "Number of statements sent to the database at once").getInt());
+        tileEntityCompression = Math.min(9, Math.max(0, config.get(CAT, "tile_entity_compression", 6,
+                "Deflate compression level (1-9) for stored tile entity data. Set to 0 to disable compression.").getInt()));
+        String policy = config.get(CAT, "overflow_policy", "drop_oldest",
+                "What to do when the event queue is full (drop_oldest / block). block keeps all events, but stalls the server if the database is too slow.")
+                .getString();
+        try
+        {
+            overflowPolicy = PlayerLogger.OverflowPolicy.valueOf(policy.toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            overflowPolicy = PlayerLogger.OverflowPolicy.DROP_OLDEST;
+        }
+        recentIndexDuration = Math.max(0, config.get(CAT, "recent_index_duration", 600,
+                "Seconds to keep recent block changes in memory for fast lookups. Set to 0 to disable.").getInt());
+        recentIndexChunkSize = Math.max(1, config.get(CAT, "recent_index_chunk_size", 256, "Maximum number of recent block changes kept per chunk").getInt());
+        recentIndexMaxEntries = Math.max(1, config.get(CAT, "recent_index_max_entries", 100000, "Maximum number of recent block changes kept in memory").getInt());
+        rollbackPageSize = Math.max(100, config.get(CAT, "rollback_page_size", 1000, "Number of block changes loaded at once for rollbacks").getInt());
+        rollbackTickBudget = Math.max(1, config.get(CAT, "rollback_tick_budget", 10, "Time in milliseconds per tick a confirmed rollback may spend changing blocks").getInt());
         if (ModulePlayerLogger.getLogger().getEntityManager() != null)
             ModulePlayerLogger.getLogger().loadDatabase();
     }
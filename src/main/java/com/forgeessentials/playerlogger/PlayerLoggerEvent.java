@@ -1,18 +1,27 @@
 package com.forgeessentials.playerlogger;
 
-import java.sql.Blob;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import javax.persistence.EntityManager;
 
 import net.minecraft.block.Block;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
 
 import com.forgeessentials.api.UserIdent;
+import com.forgeessentials.playerlogger.RecentActionIndex.RecentAction;
+import com.forgeessentials.playerlogger.entity.Action01Block;
+import com.forgeessentials.playerlogger.entity.Action01Block.ActionBlockType;
 import com.forgeessentials.playerlogger.entity.BlockData;
 import com.forgeessentials.playerlogger.entity.PlayerData;
+import com.forgeessentials.playerlogger.entity.TileEntityData;
 import com.forgeessentials.playerlogger.entity.WorldData;
+import com.forgeessentials.util.ServerUtil;
 
 public abstract class PlayerLoggerEvent<T>
 {
@@ -20,6 +29,11 @@ public abstract class PlayerLoggerEvent<T>
 
     public T event;
 
+    /**
+     * Block changes of this event which are added to the {@link RecentActionIndex}
+     */
+    List<RecentAction> recentActions;
+
     public PlayerLoggerEvent(T event)
     {
         this.event = event;
@@ -28,6 +42,39 @@ public abstract class PlayerLoggerEvent<T>
 
     public abstract void process(EntityManager em);
 
+    /**
+     * Called by the writer thread after the transaction containing this event has been committed
+     */
+    void committed(PlayerLogger logger)
+    {
+        if (recentActions != null)
+            for (RecentAction action : recentActions)
+                action.committed(logger);
+    }
+
+    /**
+     * Adds a block change of this event to the index of recent actions. Must be called from the constructor.
+     */
+    public RecentAction addRecentAction(World world, BlockPos pos, ActionBlockType type, Block block, int metadata, EntityPlayer player)
+    {
+        RecentAction action = new RecentAction(date, world.provider.getDimension(), pos, type, block == null ? null : ServerUtil.getBlockName(block),
+                metadata, player == null ? null : player.getPersistentID(), player == null ? null : player.getDisplayNameString());
+        if (recentActions == null)
+            recentActions = new ArrayList<>(1);
+        recentActions.add(action);
+        return action;
+    }
+
+    /**
+     * Persists a block change and links it to its entry in the index of recent actions
+     */
+    public void persist(EntityManager em, Action01Block action, RecentAction recentAction)
+    {
+        em.persist(action);
+        if (recentAction != null)
+            recentAction.pending = action;
+    }
+
     public BlockData getBlock(Block block)
     {
         return ModulePlayerLogger.getLogger().getBlock(block);
@@ -48,9 +95,14 @@ public abstract class PlayerLoggerEvent<T>
         return ModulePlayerLogger.getLogger().getPlayer(player.getPersistentID(), player.getDisplayNameString());
     }
 
-    public Blob getTileEntityBlob(TileEntity tileEntity)
+    public NBTTagCompound getTileEntityNbt(TileEntity tileEntity)
+    {
+        return PlayerLogger.tileEntityToNbt(tileEntity);
+    }
+
+    public TileEntityData getTileEntityData(NBTTagCompound nbt)
     {
-        return PlayerLogger.tileEntityToBlob(tileEntity);
+        return ModulePlayerLogger.getLogger().getTileEntityData(nbt);
     }
 
 }
\ No newline at end of file
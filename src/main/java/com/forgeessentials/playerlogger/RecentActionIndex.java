@@ -0,0 +1,386 @@
+package com.forgeessentials.playerlogger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import com.forgeessentials.commons.selections.WorldArea;
+import com.forgeessentials.commons.selections.WorldPoint;
+import com.forgeessentials.playerlogger.entity.Action01Block;
+import com.forgeessentials.playerlogger.entity.Action01Block.ActionBlockType;
+import com.forgeessentials.playerlogger.entity.BlockData;
+import com.forgeessentials.playerlogger.entity.PlayerData;
+import com.forgeessentials.playerlogger.entity.WorldData;
+
+/**
+ * In-memory index of the most recent block changes, kept in a ring per chunk.
+ *
+ * Block changes are added as soon as they are logged, so they can be queried before the writer thread flushed them to
+ * the database. For every chunk the index knows the time since which it holds all block changes, which allows
+ * answering queries for recent changes without hitting the database at all.
+ */
+public class RecentActionIndex
+{
+
+    /**
+     * Chunk queries for areas spanning more chunks than this are always answered by the database
+     */
+    public static final int MAX_QUERY_CHUNKS = 256;
+
+    public static class RecentAction
+    {
+
+        public final Date time;
+
+        public final int dimension;
+
+        public final int x;
+
+        public final int y;
+
+        public final int z;
+
+        public final ActionBlockType type;
+
+        public final String blockName;
+
+        public final int metadata;
+
+        public final UUID playerUuid;
+
+        public final String playerName;
+
+        /**
+         * Database id of the action or 0, if it has not been written yet
+         */
+        private volatile long id;
+
+        private volatile Long playerId;
+
+        private volatile Integer blockId;
+
+        /**
+         * Persisted action waiting for the transaction to be committed. Only accessed by the writer thread.
+         */
+        Action01Block pending;
+
+        boolean evicted;
+
+        public RecentAction(Date time, int dimension, BlockPos pos, ActionBlockType type, String blockName, int metadata, UUID playerUuid,
+                String playerName)
+        {
+            this.time = time;
+            this.dimension = dimension;
+            this.x = pos.getX();
+            this.y = pos.getY();
+            this.z = pos.getZ();
+            this.type = type;
+            this.blockName = blockName;
+            this.metadata = metadata;
+            this.playerUuid = playerUuid;
+            this.playerName = playerName;
+        }
+
+        void committed(PlayerLogger logger)
+        {
+            if (pending == null)
+                return;
+            if (playerUuid != null)
+                playerId = logger.getCachedPlayerId(playerUuid);
+            if (blockName != null)
+                blockId = logger.getCachedBlockId(blockName);
+            id = pending.id;
+            pending = null;
+        }
+
+        public boolean isWritten()
+        {
+            return id != 0;
+        }
+
+        public long getId()
+        {
+            return id;
+        }
+
+        /**
+         * Creates a detached action entity with the data of this change. Actions which have not been written yet have
+         * no ids.
+         */
+        public Action01Block toAction()
+        {
+            Action01Block action = new Action01Block();
+            if (id != 0)
+                action.id = id;
+            action.time = time;
+            action.x = x;
+            action.y = y;
+            action.z = z;
+            action.type = type;
+            action.metadata = metadata;
+            action.world = new WorldData();
+            action.world.id = dimension;
+            if (blockName != null)
+            {
+                action.block = new BlockData();
+                action.block.id = blockId;
+                action.block.name = blockName;
+            }
+            if (playerUuid != null)
+            {
+                action.player = new PlayerData();
+                action.player.id = playerId;
+                action.player.uuid = playerUuid.toString();
+                action.player.username = playerName;
+            }
+            return action;
+        }
+
+        boolean matches(WorldArea area, Date startTime, Date endTime, long fromId)
+        {
+            if (evicted)
+                return false;
+            if (startTime != null && time.before(startTime) || endTime != null && time.after(endTime))
+                return false;
+            if (fromId != 0 && (id == 0 || id >= fromId))
+                return false;
+            return area.getDimension() == dimension //
+                    && x >= area.getLowPoint().getX() && x <= area.getHighPoint().getX() //
+                    && y >= area.getLowPoint().getY() && y <= area.getHighPoint().getY() //
+                    && z >= area.getLowPoint().getZ() && z <= area.getHighPoint().getZ();
+        }
+
+    }
+
+    private static class ChunkRing
+    {
+
+        final ArrayDeque<RecentAction> actions = new ArrayDeque<>();
+
+        /**
+         * All changes in this chunk logged after this time are part of the ring
+         */
+        long coveredSince;
+
+        ChunkRing(long coveredSince)
+        {
+            this.coveredSince = coveredSince;
+        }
+
+    }
+
+    private final Map<Integer, Long2ObjectMap<ChunkRing>> dimensions = new HashMap<>();
+
+    /**
+     * All actions in the order they were added
+     */
+    private final ArrayDeque<RecentAction> actions = new ArrayDeque<>();
+
+    private long coveredSince = System.currentTimeMillis();
+
+    private long hits;
+
+    private long misses;
+
+    // ------------------------------------------------------------
+
+    public static boolean isEnabled()
+    {
+        return PlayerLoggerConfig.recentIndexDuration > 0;
+    }
+
+    public synchronized void add(List<RecentAction> recentActions)
+    {
+        if (!isEnabled())
+            return;
+        for (RecentAction action : recentActions)
+        {
+            ChunkRing ring = getRing(action.dimension, action.x >> 4, action.z >> 4, true);
+            if (ring.actions.size() >= PlayerLoggerConfig.recentIndexChunkSize)
+            {
+                RecentAction evicted = ring.actions.removeFirst();
+                evicted.evicted = true;
+                ring.coveredSince = Math.max(ring.coveredSince, evicted.time.getTime() + 1);
+            }
+            ring.actions.addLast(action);
+            actions.addLast(action);
+        }
+        evict();
+    }
+
+    /**
+     * Marks actions which will never be written to the database
+     */
+    public synchronized void discard(List<RecentAction> recentActions)
+    {
+        for (RecentAction action : recentActions)
+            action.evicted = true;
+    }
+
+    /**
+     * Removes actions older than the configured duration and keeps the total number of actions below the limit
+     */
+    private void evict()
+    {
+        long cutoff = System.currentTimeMillis() - PlayerLoggerConfig.recentIndexDuration * 1000L;
+        while (!actions.isEmpty())
+        {
+            RecentAction action = actions.peekFirst();
+            if (action.time.getTime() >= cutoff && actions.size() <= PlayerLoggerConfig.recentIndexMaxEntries)
+                break;
+            actions.removeFirst();
+            coveredSince = Math.max(coveredSince, action.time.getTime() + 1);
+            if (action.evicted)
+                continue;
+            action.evicted = true;
+            ChunkRing ring = getRing(action.dimension, action.x >> 4, action.z >> 4, false);
+            if (ring == null)
+                continue;
+            ring.actions.remove(action);
+            if (ring.actions.isEmpty())
+                dimensions.get(action.dimension).remove(ChunkPos.asLong(action.x >> 4, action.z >> 4));
+        }
+        coveredSince = Math.max(coveredSince, cutoff);
+    }
+
+    private ChunkRing getRing(int dimension, int chunkX, int chunkZ, boolean create)
+    {
+        Long2ObjectMap<ChunkRing> rings = dimensions.get(dimension);
+        if (rings == null)
+        {
+            if (!create)
+                return null;
+            rings = new Long2ObjectOpenHashMap<>();
+            dimensions.put(dimension, rings);
+        }
+        long key = ChunkPos.asLong(chunkX, chunkZ);
+        ChunkRing ring = rings.get(key);
+        if (ring == null && create)
+        {
+            ring = new ChunkRing(coveredSince);
+            rings.put(key, ring);
+        }
+        return ring;
+    }
+
+    public synchronized void clear()
+    {
+        for (RecentAction action : actions)
+            action.evicted = true;
+        actions.clear();
+        dimensions.clear();
+        coveredSince = System.currentTimeMillis();
+    }
+
+    // ------------------------------------------------------------
+
+    /**
+     * Returns all indexed actions in the area that have not been written to the database yet, newest first
+     */
+    public synchronized List<RecentAction> getPendingActions(WorldArea area, Date startTime, Date endTime)
+    {
+        List<RecentAction> result = new ArrayList<>();
+        if (!isEnabled() || getChunkCount(area) > MAX_QUERY_CHUNKS)
+            return result;
+        for (Iterator<RecentAction> it = actions.descendingIterator(); it.hasNext();)
+        {
+            RecentAction action = it.next();
+            if (!action.isWritten() && action.matches(area, startTime, endTime, 0))
+                result.add(action);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the newest written block changes like {@link PlayerLogger#getLoggedBlockChanges}, if the index contains
+     * every matching change.
+     *
+     * @return the block changes or null, if the query has to be answered by the database
+     */
+    public synchronized List<Action01Block> getLoggedBlockChanges(WorldArea area, Date startTime, Date endTime, long fromId, int maxResults)
+    {
+        if (!isEnabled() || getChunkCount(area) > MAX_QUERY_CHUNKS)
+        {
+            misses++;
+            return null;
+        }
+
+        long covered = coveredSince;
+        List<RecentAction> matches = new ArrayList<>();
+        Long2ObjectMap<ChunkRing> rings = dimensions.get(area.getDimension());
+        for (int cx = area.getLowPoint().getX() >> 4; cx <= area.getHighPoint().getX() >> 4; cx++)
+            for (int cz = area.getLowPoint().getZ() >> 4; cz <= area.getHighPoint().getZ() >> 4; cz++)
+            {
+                ChunkRing ring = rings == null ? null : rings.get(ChunkPos.asLong(cx, cz));
+                if (ring == null)
+                    continue;
+                covered = Math.max(covered, ring.coveredSince);
+                for (RecentAction action : ring.actions)
+                    if (action.matches(area, startTime, endTime, fromId) && action.isWritten())
+                        matches.add(action);
+            }
+        matches.sort((a, b) -> Long.compare(b.getId(), a.getId()));
+
+        // The result is complete if it either reaches the requested number of changes, or the requested time range is
+        // fully covered by the index
+        boolean complete = startTime != null && startTime.getTime() >= covered;
+        if (maxResults > 0 && matches.size() >= maxResults)
+        {
+            complete = true;
+            while (matches.size() > maxResults)
+                matches.remove(matches.size() - 1);
+        }
+        for (RecentAction action : matches)
+            if (action.time.getTime() < covered)
+                complete = false;
+        if (!complete)
+        {
+            misses++;
+            return null;
+        }
+        hits++;
+        List<Action01Block> result = new ArrayList<>(matches.size());
+        for (RecentAction action : matches)
+            result.add(action.toAction());
+        return result;
+    }
+
+    public List<Action01Block> getLoggedBlockChanges(WorldPoint point, Date startTime, Date endTime, long fromId, int maxResults)
+    {
+        return getLoggedBlockChanges(new WorldArea(point.getDimension(), point, point), startTime, endTime, fromId, maxResults);
+    }
+
+    private static long getChunkCount(WorldArea area)
+    {
+        return (long) ((area.getHighPoint().getX() >> 4) - (area.getLowPoint().getX() >> 4) + 1)
+                * ((area.getHighPoint().getZ() >> 4) - (area.getLowPoint().getZ() >> 4) + 1);
+    }
+
+    // ------------------------------------------------------------
+
+    public synchronized int size()
+    {
+        return actions.size();
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        return misses;
+    }
+
+}
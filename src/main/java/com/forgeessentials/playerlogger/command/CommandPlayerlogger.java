@@ -277,6 +277,12 @@ public class CommandPlayerlogger extends ParserCommandBase
             long actionCount = qActionCount.getSingleResult();
             ChatOutputHandler.chatConfirmation(sender, String.format("Logged action count: %s", actionCount));
         }
+        ChatOutputHandler.chatNotification(sender, String.format("Queue: %d / %d, logged: %d, written: %d, dropped: %d", logger.getQueueSize(),
+                logger.getQueueCapacity(), logger.getEventsLogged(), logger.getEventsWritten(), logger.getEventsDropped()));
+        ChatOutputHandler.chatNotification(sender, String.format("Last batch: %d events in %d ms, latency: %d ms (max %d ms)", logger.getLastBatchSize(),
+                logger.getLastBatchDuration(), logger.getLastLatency(), logger.getMaxLatency()));
+        ChatOutputHandler.chatNotification(sender, String.format("Recent changes: %d in memory, %d lookups answered, %d from database",
+                logger.getRecentActions().size(), logger.getRecentActions().getHits(), logger.getRecentActions().getMisses()));
     }
 
 }
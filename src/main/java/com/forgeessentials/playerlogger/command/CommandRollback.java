@@ -17,6 +17,7 @@ import com.forgeessentials.commons.selections.Selection;
 import com.forgeessentials.core.FEConfig;
 import com.forgeessentials.core.commands.ParserCommandBase;
 import com.forgeessentials.core.misc.TranslatedCommandException;
+import com.forgeessentials.core.misc.Translator;
 import com.forgeessentials.playerlogger.ModulePlayerLogger;
 import com.forgeessentials.util.CommandParserArgs;
 import com.forgeessentials.util.output.ChatOutputHandler;
@@ -29,10 +30,12 @@ public class CommandRollback extends ParserCommandBase
     public static final String PERM_ALL = PERM + Zone.ALL_PERMS;
     public static final String PERM_PREVIEW = PERM + ".preview";
 
-    private static final String[] subCommands = { "help", "start", "cancel", "confirm", "play", "stop", "+", "-" };
+    private static final String[] subCommands = { "help", "start", "cancel", "confirm", "play", "stop", "status", "abort", "+", "-" };
 
     private Map<UUID, RollbackInfo> rollbacks = new HashMap<>();
 
+    private Map<UUID, RollbackTask> runningRollbacks = new HashMap<>();
+
     private Timer playbackTimer = new Timer();
 
     @Override
@@ -108,6 +111,12 @@ public class CommandRollback extends ParserCommandBase
         case "stop":
             stopRollback(args);
             break;
+        case "status":
+            statusRollback(args);
+            break;
+        case "abort":
+            abortRollback(args);
+            break;
         default:
             throw new TranslatedCommandException("Unknown subcommand");
         }
@@ -182,12 +191,55 @@ public class CommandRollback extends ParserCommandBase
         if (args.isTabCompletion)
             return;
 
-        RollbackInfo rb = rollbacks.remove(args.senderPlayer.getPersistentID());
+        RollbackTask running = runningRollbacks.get(args.senderPlayer.getPersistentID());
+        if (running != null && !running.isFinished())
+            throw new TranslatedCommandException("Another rollback is still running. Wait for it to finish or abort it first.");
+
+        RollbackInfo rb = rollbacks.get(args.senderPlayer.getPersistentID());
         if (rb == null)
             throw new TranslatedCommandException("No rollback in progress. Start with /rollback first.");
+        if (rb.isLoading())
+            throw new TranslatedCommandException("Changes are still being loaded. Try again in a moment.");
+        rollbacks.remove(args.senderPlayer.getPersistentID());
+
+        RollbackTask task = rb.confirm();
+        runningRollbacks.put(args.senderPlayer.getPersistentID(), task);
+        ChatOutputHandler.chatConfirmation(args.sender, Translator.format("Restoring %d changes", task.getTotal()));
+    }
+
+    private RollbackTask getRunningRollback(CommandParserArgs args) throws CommandException
+    {
+        RollbackTask task = runningRollbacks.get(args.senderPlayer.getPersistentID());
+        if (task == null || task.isFinished())
+        {
+            runningRollbacks.remove(args.senderPlayer.getPersistentID());
+            throw new TranslatedCommandException("No rollback running");
+        }
+        return task;
+    }
+
+    private void statusRollback(CommandParserArgs args) throws CommandException
+    {
+        args.checkPermission(PERM);
+
+        if (args.isTabCompletion)
+            return;
+
+        ChatOutputHandler.chatNotification(args.sender, getRunningRollback(args).getStatus());
+    }
+
+    private void abortRollback(CommandParserArgs args) throws CommandException
+    {
+        args.checkPermission(PERM);
+
+        if (args.isTabCompletion)
+            return;
 
-        rb.confirm();
-        ChatOutputHandler.chatConfirmation(args.sender, "Successfully restored changes");
+        RollbackTask task = getRunningRollback(args);
+        if (task.isAborted())
+            throw new TranslatedCommandException("Rollback is already being aborted");
+        task.abort();
+        ChatOutputHandler.chatConfirmation(args.sender, Translator.format("Aborting rollback, restoring %d changed blocks", task.getApplied()));
     }
 
     private void cancelRollback(CommandParserArgs args) throws CommandException
@@ -260,6 +312,8 @@ public class CommandRollback extends ParserCommandBase
         ChatOutputHandler.chatConfirmation(sender, "/rollback play [speed]: Playback changes like a video");
         ChatOutputHandler.chatConfirmation(sender, "/rollback stop: Stop playback");
         ChatOutputHandler.chatConfirmation(sender, "/rollback confirm: Confirm changes");
+        ChatOutputHandler.chatConfirmation(sender, "/rollback status: Show progress of a confirmed rollback");
+        ChatOutputHandler.chatConfirmation(sender, "/rollback abort: Abort a confirmed rollback and restore changed blocks");
         ChatOutputHandler.chatConfirmation(sender, "/rollback cancel: Cancel rollback");
     }
 
@@ -3,7 +3,8 @@ package com.forgeessentials.playerlogger.command;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
@@ -11,28 +12,62 @@ import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.init.Blocks;
 import net.minecraft.network.play.server.SPacketBlockChange;
 import net.minecraft.util.ResourceLocation;
-import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.DimensionManager;
 
 import com.forgeessentials.commons.selections.Selection;
+import com.forgeessentials.core.misc.TaskRegistry;
+import com.forgeessentials.core.misc.TaskRegistry.RunLaterTimerTask;
 import com.forgeessentials.core.misc.Translator;
 import com.forgeessentials.playerlogger.ModulePlayerLogger;
-import com.forgeessentials.playerlogger.PlayerLogger;
+import com.forgeessentials.playerlogger.PlayerLoggerConfig;
 import com.forgeessentials.playerlogger.entity.Action01Block;
 import com.forgeessentials.playerlogger.entity.Action01Block.ActionBlockType;
 import com.forgeessentials.util.output.ChatOutputHandler;
+import com.forgeessentials.util.output.LoggingHandler;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class RollbackInfo
 {
 
+    /**
+     * Loads older changes from the database, so the queries do not stall the server thread
+     */
+    private static final ExecutorService loader = Executors
+            .newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("FE rollback loader").setDaemon(true).build());
+
     EntityPlayerMP player;
 
     private Selection area;
 
     private Date time;
 
-    List<Action01Block> changes;
+    /**
+     * Time the rollback was started. Changes logged after this are not part of the rollback.
+     */
+    private Date endTime;
+
+    /**
+     * Time up to which changes have been loaded from the database
+     */
+    private Date loadedTime;
+
+    /**
+     * Previewed changes between {@link #time} and {@link #endTime}, newest first
+     */
+    List<Action01Block> changes = new ArrayList<>();
+
+    private volatile boolean closed;
+
+    /**
+     * True while older changes are loaded in the background. Only accessed on the server thread.
+     */
+    private boolean loading;
+
+    /**
+     * Set if the time changed while loading, so the preview needs to be updated again afterwards
+     */
+    private boolean previewPending;
 
     public PlaybackTask task;
 
@@ -41,6 +76,8 @@ public class RollbackInfo
         this.player = player;
         this.area = area;
         this.setTime(new Date());
+        this.endTime = new Date(time.getTime());
+        this.loadedTime = endTime;
     }
 
     @SuppressWarnings("deprecation")
@@ -49,84 +86,127 @@ public class RollbackInfo
         getTime().setSeconds(getTime().getSeconds() + seconds);
     }
 
+    /**
+     * Updates the preview to the current time. Only changes between the previously shown and the current time are
+     * loaded and sent to the player.
+     */
     public void previewChanges()
     {
+        if (closed)
+            return;
+        if (loading)
+        {
+            previewPending = true;
+            return;
+        }
         ChatOutputHandler.chatNotification(player, Translator.format("Showing changes before %s", time.toString()));
 
-        List<Action01Block> lastChanges = changes;
-        if (lastChanges == null)
-            lastChanges = new ArrayList<>();
-
-        changes = ModulePlayerLogger.getLogger().getLoggedBlockChanges(area, time, null, 0, 0);
-        if (lastChanges.size() < changes.size())
+        // Stepping forward in time: revert the preview of changes which are now before the rollback time
+        while (!changes.isEmpty() && changes.get(changes.size() - 1).time.before(time))
         {
-            for (int i = lastChanges.size(); i < changes.size(); i++)
+            Action01Block change = changes.remove(changes.size() - 1);
+            if (change.type == ActionBlockType.PLACE)
+                sendBlockChange(player, change, getBlockState(change));
+            else
+                sendBlockChange(player, change, Blocks.AIR.getDefaultState());
+        }
+
+        // Stepping back in time: page through older changes, starting below the oldest change already shown
+        if (time.before(loadedTime))
+            loadChanges(new Date(time.getTime()), loadedTime, changes.isEmpty() ? 0 : changes.get(changes.size() - 1).id);
+        else
+            loadedTime = new Date(time.getTime());
+    }
+
+    /**
+     * Pages through the changes between startTime and endTime on the loader thread. Each page is shown to the player on
+     * the server thread as soon as it has been loaded.
+     */
+    private void loadChanges(final Date startTime, final Date endTime, final long startId)
+    {
+        loading = true;
+        loader.execute(() -> {
+            boolean complete = false;
+            try
             {
-                Action01Block change = changes.get(i);
-                if (change.type == ActionBlockType.PLACE)
+                long fromId = startId;
+                while (!closed)
                 {
-                    sendBlockChange(player, change, Blocks.AIR.getDefaultState());
-                    // System.out.println(FEConfig.FORMAT_DATE_TIME_SECONDS.format(change.time) + " REMOVED " +
-                    // change.block.name);
-                }
-                else if (change.type == ActionBlockType.BREAK || change.type == ActionBlockType.DETONATE || change.type == ActionBlockType.BURN)
-                {
-                    Block block = Block.REGISTRY.getObject(new ResourceLocation(change.block.name));
-                    sendBlockChange(player, change, block.getStateFromMeta(change.metadata));
-                    // System.out.println(FEConfig.FORMAT_DATE_TIME_SECONDS.format(change.time) + " RESTORED " +
-                    // change.block.name + ":" + change.metadata);
+                    List<Action01Block> page = ModulePlayerLogger.getLogger().getLoggedBlockChangesById(area, startTime, endTime, fromId,
+                            PlayerLoggerConfig.rollbackPageSize);
+                    TaskRegistry.runLater(() -> showChanges(page));
+                    if (page.size() < PlayerLoggerConfig.rollbackPageSize)
+                    {
+                        complete = true;
+                        break;
+                    }
+                    fromId = page.get(page.size() - 1).id;
                 }
             }
-        }
-        else if (lastChanges.size() > changes.size())
-        {
-            for (int i = lastChanges.size() - 1; i >= changes.size(); i--)
+            catch (RuntimeException e)
             {
-                Action01Block change = lastChanges.get(i);
-                if (change.type == ActionBlockType.PLACE)
-                {
-                    Block block = Block.REGISTRY.getObject(new ResourceLocation(change.block.name));
-                    sendBlockChange(player, change, block.getStateFromMeta(change.metadata));
-                    // System.out.println(FEConfig.FORMAT_DATE_TIME_SECONDS.format(change.time) + " REPLACED " +
-                    // change.block.name);
-                }
-                else if (change.type == ActionBlockType.BREAK || change.type == ActionBlockType.DETONATE || change.type == ActionBlockType.BURN)
-                {
-                    sendBlockChange(player, change, Blocks.AIR.getDefaultState());
-                    // System.out.println(FEConfig.FORMAT_DATE_TIME_SECONDS.format(change.time) + " REBROKE " +
-                    // change.block.name + ":" + change.metadata);
-                }
+                LoggingHandler.felog.error("Error loading changes for rollback", e);
             }
-        }
+            final boolean loaded = complete;
+            TaskRegistry.runLater(() -> finishLoading(startTime, loaded));
+        });
     }
 
-    public void confirm()
+    private void showChanges(List<Action01Block> page)
     {
-        if (task != null)
-            task.cancel();
-        for (Action01Block change : changes)
+        if (closed)
+            return;
+        for (Action01Block change : page)
         {
             if (change.type == ActionBlockType.PLACE)
-            {
-                WorldServer world = DimensionManager.getWorld(change.world.id);
-                world.setBlockToAir(change.getBlockPos());
-                System.out.println(change.time + " REMOVED " + change.block.name);
-            }
-            else if (change.type == ActionBlockType.BREAK || change.type == ActionBlockType.DETONATE || change.type == ActionBlockType.BURN)
-            {
-                WorldServer world = DimensionManager.getWorld(change.world.id);
-                Block block = Block.REGISTRY.getObject(new ResourceLocation(change.block.name));
-                world.setBlockState(change.getBlockPos(), block.getStateFromMeta(change.metadata), 3);
-                world.setTileEntity(change.getBlockPos(), PlayerLogger.blobToTileEntity(change.entity));
-                System.out.println(change.time + " RESTORED " + change.block.name + ":" + change.metadata);
-            }
+                sendBlockChange(player, change, Blocks.AIR.getDefaultState());
+            else if (isRestoreType(change.type))
+                sendBlockChange(player, change, getBlockState(change));
+            else
+                continue;
+            changes.add(change);
         }
     }
 
+    private void finishLoading(Date startTime, boolean complete)
+    {
+        loading = false;
+        // After an error the changes shown so far are kept and the next preview continues below the oldest one
+        if (complete)
+            loadedTime = startTime;
+        if (previewPending)
+        {
+            previewPending = false;
+            previewChanges();
+        }
+    }
+
+    /**
+     * Returns true, while older changes are still being loaded for the preview
+     */
+    public boolean isLoading()
+    {
+        return loading;
+    }
+
+    /**
+     * Schedules a task that applies all previewed changes to the world
+     */
+    public RollbackTask confirm()
+    {
+        if (task != null)
+            task.cancel();
+        closed = true;
+        RollbackTask rollbackTask = new RollbackTask(player, changes);
+        TaskRegistry.schedule(rollbackTask);
+        return rollbackTask;
+    }
+
     public void cancel()
     {
         if (task != null)
             task.cancel();
+        closed = true;
         for (Action01Block change : Lists.reverse(changes))
             player.connection.sendPacket(new SPacketBlockChange(DimensionManager.getWorld(change.world.id), change.getBlockPos()));
     }
@@ -141,6 +221,20 @@ public class RollbackInfo
         this.time = time;
     }
 
+    public static boolean isRestoreType(ActionBlockType type)
+    {
+        return type == ActionBlockType.BREAK || type == ActionBlockType.DETONATE || type == ActionBlockType.BURN;
+    }
+
+    /**
+     * Returns the block state before the change happened
+     */
+    public static IBlockState getBlockState(Action01Block change)
+    {
+        Block block = Block.REGISTRY.getObject(new ResourceLocation(change.block.name));
+        return block.getStateFromMeta(change.metadata);
+    }
+
     /**
      * Send a faked block-update to a player
      * 
@@ -156,25 +250,20 @@ public class RollbackInfo
         player.connection.sendPacket(packet);
     }
 
-    public static class PlaybackTask extends TimerTask
+    /**
+     * Steps the preview on the server thread in regular intervals
+     */
+    public static class PlaybackTask extends RunLaterTimerTask
     {
-        private RollbackInfo rb;
-        private int speed;
 
         public PlaybackTask(RollbackInfo rb, int speed)
         {
-            this.rb = rb;
-            this.speed = speed;
-        }
-
-        @Override
-        @SuppressWarnings("deprecation")
-        public void run()
-        {
-            rb.getTime().setSeconds(rb.getTime().getSeconds() + speed);
-            rb.previewChanges();
+            super(() -> {
+                rb.step(speed);
+                rb.previewChanges();
+            });
         }
 
     }
 
-}
\ No newline at end of file
+}
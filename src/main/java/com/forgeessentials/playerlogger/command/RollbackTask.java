@@ -0,0 +1,220 @@
+package com.forgeessentials.playerlogger.command;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+
+import com.forgeessentials.core.misc.TaskRegistry.TickTask;
+import com.forgeessentials.core.misc.Translator;
+import com.forgeessentials.playerlogger.PlayerLogger;
+import com.forgeessentials.playerlogger.PlayerLoggerConfig;
+import com.forgeessentials.playerlogger.entity.Action01Block;
+import com.forgeessentials.playerlogger.entity.Action01Block.ActionBlockType;
+import com.forgeessentials.util.output.ChatOutputHandler;
+
+/**
+ * Applies the changes of a confirmed rollback chunk by chunk, spending at most
+ * {@link PlayerLoggerConfig#rollbackTickBudget} milliseconds per tick.
+ *
+ * The state of every block is recorded before it gets changed, so an aborted rollback can restore the world.
+ */
+public class RollbackTask implements TickTask
+{
+
+    public static final long PROGRESS_INTERVAL = 5000;
+
+    private static class UndoEntry
+    {
+
+        final WorldServer world;
+
+        final BlockPos pos;
+
+        final IBlockState state;
+
+        final NBTTagCompound tileEntity;
+
+        UndoEntry(WorldServer world, BlockPos pos)
+        {
+            this.world = world;
+            this.pos = pos;
+            this.state = world.getBlockState(pos);
+            TileEntity te = world.getTileEntity(pos);
+            this.tileEntity = te == null ? null : te.writeToNBT(new NBTTagCompound());
+        }
+
+        void restore()
+        {
+            world.setBlockState(pos, state, 3);
+            if (tileEntity != null)
+            {
+                TileEntity te = TileEntity.create(world, tileEntity);
+                if (te != null)
+                    world.setTileEntity(pos, te);
+            }
+        }
+
+    }
+
+    private final EntityPlayerMP player;
+
+    /**
+     * Changes to apply, sorted by dimension and chunk
+     */
+    private final List<Action01Block> changes;
+
+    private final List<UndoEntry> undo = new ArrayList<>();
+
+    private int index;
+
+    private boolean aborted;
+
+    private int restored;
+
+    private boolean finished;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private long lastProgress = startTime;
+
+    /**
+     * @param changes
+     *            changes to roll back, newest first
+     */
+    public RollbackTask(EntityPlayerMP player, List<Action01Block> changes)
+    {
+        this.player = player;
+
+        // Only the oldest change of each block determines the state it is restored to
+        Map<BlockPos, Action01Block> oldestChanges = new LinkedHashMap<>();
+        for (Action01Block change : changes)
+            if (change.type == ActionBlockType.PLACE || RollbackInfo.isRestoreType(change.type))
+                oldestChanges.put(change.getBlockPos(), change);
+        this.changes = new ArrayList<>(oldestChanges.values());
+        this.changes.sort(Comparator.<Action01Block> comparingInt(c -> c.world.id) //
+                .thenComparingInt(c -> c.x >> 4).thenComparingInt(c -> c.z >> 4));
+    }
+
+    @Override
+    public boolean tick()
+    {
+        long deadline = System.nanoTime() + PlayerLoggerConfig.rollbackTickBudget * 1000000L;
+        if (aborted)
+        {
+            while (!undo.isEmpty())
+            {
+                undo.remove(undo.size() - 1).restore();
+                restored++;
+                if (System.nanoTime() >= deadline)
+                    return false;
+            }
+            finished = true;
+            ChatOutputHandler.chatConfirmation(player, Translator.format("Rollback aborted, restored %d blocks", restored));
+            return true;
+        }
+
+        while (index < changes.size())
+        {
+            apply(changes.get(index++));
+            if (System.nanoTime() >= deadline)
+                break;
+        }
+        if (index >= changes.size())
+        {
+            finished = true;
+            undo.clear();
+            ChatOutputHandler.chatConfirmation(player, Translator.format("Successfully restored %d changes in %.1f seconds", changes.size(),
+                    (System.currentTimeMillis() - startTime) / 1000.0));
+            return true;
+        }
+        if (System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL)
+        {
+            lastProgress = System.currentTimeMillis();
+            ChatOutputHandler.chatNotification(player, getStatus());
+        }
+        return false;
+    }
+
+    private void apply(Action01Block change)
+    {
+        WorldServer world = DimensionManager.getWorld(change.world.id);
+        if (world == null)
+            return;
+        BlockPos pos = change.getBlockPos();
+        undo.add(new UndoEntry(world, pos));
+        if (change.type == ActionBlockType.PLACE)
+        {
+            world.setBlockToAir(pos);
+        }
+        else
+        {
+            world.setBlockState(pos, RollbackInfo.getBlockState(change), 3);
+            world.setTileEntity(pos, PlayerLogger.getTileEntity(world, change));
+        }
+    }
+
+    @Override
+    public boolean editsBlocks()
+    {
+        return true;
+    }
+
+    /**
+     * Stops the rollback and restores all blocks which have already been changed
+     */
+    public void abort()
+    {
+        aborted = true;
+    }
+
+    public boolean isAborted()
+    {
+        return aborted;
+    }
+
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    public int getTotal()
+    {
+        return changes.size();
+    }
+
+    public int getApplied()
+    {
+        return index;
+    }
+
+    /**
+     * Returns the estimated remaining time in milliseconds or -1, if it is not known yet
+     */
+    public long getEta()
+    {
+        if (index == 0)
+            return -1;
+        long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed * (changes.size() - index) / index;
+    }
+
+    public String getStatus()
+    {
+        if (aborted)
+            return Translator.format("Aborting rollback: %d blocks left to restore", undo.size());
+        long eta = getEta();
+        return Translator.format("Rollback progress: %d / %d (%.0f%%), ETA %s", index, changes.size(),
+                changes.isEmpty() ? 100.0 : index * 100.0 / changes.size(), eta < 0 ? "?" : String.format("%ds", eta / 1000));
+    }
+
+}
@@ -26,15 +26,18 @@ import javax.persistence.Transient;
 import net.minecraft.util.math.BlockPos;
 
 /**
+ * Base entity of all logged actions.
  *
+ * Lookups by point or bounding box and time use the composite {@code location_idx}, purging old data uses
+ * {@code time_idx}. Older databases had single-column indexes on x, y and z which are dropped by
+ * {@code PlayerLogger.migrateDatabase()}.
  */
 @Entity
 @Table(indexes = { //
         @Index(columnList = "player_id", name = "player_idx"), //
         @Index(columnList = "dimension", name = "world_idx"), //
-        @Index(columnList = "x", name = "x_idx"), //
-        @Index(columnList = "y", name = "y_idx"), //
-        @Index(columnList = "z", name = "z_idx"), //
+        @Index(columnList = "dimension, x, z, y, time", name = "location_idx"), //
+        @Index(columnList = "time", name = "time_idx"), //
 })
 @Inheritance(strategy = InheritanceType.JOINED)
 @AttributeOverride(name = "action", column = @Column(name = "action", nullable = false, length = 8, insertable = false, updatable = false) )
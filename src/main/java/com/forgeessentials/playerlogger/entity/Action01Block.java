@@ -12,6 +12,8 @@ import javax.persistence.FetchType;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 
+import com.google.gson.annotations.Expose;
+
 /**
  *
  */
@@ -31,9 +33,17 @@ public class Action01Block extends Action
     @Column(name = "metadata")
     public int metadata;
 
+    /**
+     * Tile entity data of actions logged by older versions
+     */
     @Column(name = "entity")
     public Blob entity;
 
+    @ManyToOne(fetch = FetchType.EAGER)
+    @JoinColumn(name = "tile_entity_id")
+    @Expose(serialize = false, deserialize = false)
+    public TileEntityData tileEntity;
+
     public static enum ActionBlockType
     {
         PLACE, BREAK, DETONATE, USE_LEFT, USE_RIGHT, BURN
@@ -0,0 +1,37 @@
+package com.forgeessentials.playerlogger.entity;
+
+import java.sql.Blob;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Tile entity snapshot shared by all block changes with identical tile entity data.
+ *
+ * Snapshots are keyed by the SHA-1 hash of their uncompressed NBT data and stored deflated, if compression is enabled.
+ */
+@Entity
+@Table(indexes = { @Index(columnList = "hash", name = "hash_idx", unique = true) })
+public class TileEntityData
+{
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    public Long id;
+
+    @Column(name = "hash", length = 40, nullable = false)
+    public String hash;
+
+    @Column(name = "compressed")
+    public boolean compressed;
+
+    @Column(name = "data")
+    public Blob data;
+
+}
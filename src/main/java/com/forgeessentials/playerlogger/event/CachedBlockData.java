@@ -1,13 +1,13 @@
 package com.forgeessentials.playerlogger.event;
 
-import java.sql.Blob;
-
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 
 import com.forgeessentials.playerlogger.PlayerLogger;
+import com.forgeessentials.playerlogger.RecentActionIndex.RecentAction;
 
 public class CachedBlockData
 {
@@ -20,7 +20,9 @@ public class CachedBlockData
 
     public final int metadata;
 
-    public final Blob tileEntityBlob;
+    public final NBTTagCompound tileEntityNbt;
+
+    public RecentAction recentAction;
 
     public CachedBlockData(World world, BlockPos pos)
     {
@@ -28,7 +30,7 @@ public class CachedBlockData
         state = world.getBlockState(pos);
         block = state.getBlock();
         metadata = block.getMetaFromState(state);
-        tileEntityBlob = PlayerLogger.tileEntityToBlob(world.getTileEntity(pos));
+        tileEntityNbt = PlayerLogger.tileEntityToNbt(world.getTileEntity(pos));
     }
 
 }
\ No newline at end of file
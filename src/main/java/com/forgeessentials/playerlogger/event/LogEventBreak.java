@@ -1,24 +1,28 @@
 package com.forgeessentials.playerlogger.event;
 
-import java.sql.Blob;
-
 import javax.persistence.EntityManager;
 
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraftforge.event.world.BlockEvent;
 
 import com.forgeessentials.playerlogger.PlayerLoggerEvent;
+import com.forgeessentials.playerlogger.RecentActionIndex.RecentAction;
 import com.forgeessentials.playerlogger.entity.Action01Block;
 import com.forgeessentials.playerlogger.entity.Action01Block.ActionBlockType;
 
 public class LogEventBreak extends PlayerLoggerEvent<BlockEvent.BreakEvent>
 {
 
-    public Blob tileEntityBlob;
+    public NBTTagCompound tileEntityNbt;
+
+    public RecentAction recentAction;
 
     public LogEventBreak(BlockEvent.BreakEvent event)
     {
         super(event);
-        tileEntityBlob = getTileEntityBlob(event.getWorld().getTileEntity(event.getPos()));
+        tileEntityNbt = getTileEntityNbt(event.getWorld().getTileEntity(event.getPos()));
+        recentAction = addRecentAction(event.getWorld(), event.getPos(), ActionBlockType.BREAK, event.getState().getBlock(),
+                event.getState().getBlock().getMetaFromState(event.getState()), event.getPlayer());
     }
 
     @Override
@@ -30,12 +34,12 @@ public class LogEventBreak extends PlayerLoggerEvent<BlockEvent.BreakEvent>
         action.world = getWorld(event.getWorld().provider.getDimension());
         action.block = getBlock(event.getState().getBlock());
         action.metadata = event.getState().getBlock().getMetaFromState(event.getState());
-        action.entity = tileEntityBlob;
+        action.tileEntity = getTileEntityData(tileEntityNbt);
         action.type = ActionBlockType.BREAK;
         action.x = event.getPos().getX();
         action.y = event.getPos().getY();
         action.z = event.getPos().getZ();
-        em.persist(action);
+        persist(em, action, recentAction);
     }
 
 }
\ No newline at end of file
@@ -1,24 +1,28 @@
 package com.forgeessentials.playerlogger.event;
 
-import java.sql.Blob;
-
 import javax.persistence.EntityManager;
 
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraftforge.fe.event.world.FireEvent;
 
 import com.forgeessentials.playerlogger.PlayerLoggerEvent;
+import com.forgeessentials.playerlogger.RecentActionIndex.RecentAction;
 import com.forgeessentials.playerlogger.entity.Action01Block;
 import com.forgeessentials.playerlogger.entity.Action01Block.ActionBlockType;
 
 public class LogEventBurn extends PlayerLoggerEvent<FireEvent.Destroy>
 {
 
-    public Blob tileEntityBlob;
+    public NBTTagCompound tileEntityNbt;
+
+    public RecentAction recentAction;
 
     public LogEventBurn(FireEvent.Destroy event)
     {
         super(event);
-        tileEntityBlob = getTileEntityBlob(event.getWorld().getTileEntity(event.getPos()));
+        tileEntityNbt = getTileEntityNbt(event.getWorld().getTileEntity(event.getPos()));
+        recentAction = addRecentAction(event.getWorld(), event.getPos(), ActionBlockType.BURN, event.getState().getBlock(),
+                event.getState().getBlock().getMetaFromState(event.getState()), null);
     }
 
     @Override
@@ -29,12 +33,12 @@ public class LogEventBurn extends PlayerLoggerEvent<FireEvent.Destroy>
         action.world = getWorld(event.getWorld().provider.getDimension());
         action.block = getBlock(event.getState().getBlock());
         action.metadata = event.getState().getBlock().getMetaFromState(event.getState());
-        action.entity = tileEntityBlob;
+        action.tileEntity = getTileEntityData(tileEntityNbt);
         action.type = ActionBlockType.BURN;
         action.x = event.getPos().getX();
         action.y = event.getPos().getY();
         action.z = event.getPos().getZ();
-        em.persist(action);
+        persist(em, action, recentAction);
     }
 
 }
\ No newline at end of file
@@ -23,7 +23,12 @@ public class LogEventExplosion extends PlayerLoggerEvent<ExplosionEvent.Detonate
     {
         super(event);
         for (BlockPos blockPos : event.getAffectedBlocks())
-            blocks.add(new CachedBlockData(event.getWorld(), blockPos));
+        {
+            CachedBlockData blockData = new CachedBlockData(event.getWorld(), blockPos);
+            if (blockData.block.getMaterial(blockData.block.getDefaultState()) != Material.AIR)
+                blockData.recentAction = addRecentAction(event.getWorld(), blockPos, ActionBlockType.DETONATE, blockData.block, blockData.metadata, null);
+            blocks.add(blockData);
+        }
     }
 
     @Override
@@ -39,12 +44,12 @@ public class LogEventExplosion extends PlayerLoggerEvent<ExplosionEvent.Detonate
                 action.world = worldData;
                 action.block = getBlock(blockData.block);
                 action.metadata = blockData.metadata;
-                action.entity = blockData.tileEntityBlob;
+                action.tileEntity = getTileEntityData(blockData.tileEntityNbt);
                 action.type = ActionBlockType.DETONATE;
                 action.x = blockData.pos.getX();
                 action.y = blockData.pos.getY();
                 action.z = blockData.pos.getZ();
-                em.persist(action);
+                persist(em, action, blockData.recentAction);
             }
         }
     }
@@ -1,7 +1,5 @@
 package com.forgeessentials.playerlogger.event;
 
-import java.util.Date;
-
 import javax.persistence.EntityManager;
 
 import net.minecraftforge.event.entity.player.PlayerInteractEvent;
@@ -9,15 +7,21 @@ import net.minecraftforge.event.entity.player.PlayerInteractEvent.LeftClickBlock
 import net.minecraftforge.event.entity.player.PlayerInteractEvent.LeftClickEmpty;
 
 import com.forgeessentials.playerlogger.PlayerLoggerEvent;
+import com.forgeessentials.playerlogger.RecentActionIndex.RecentAction;
 import com.forgeessentials.playerlogger.entity.Action01Block;
 import com.forgeessentials.playerlogger.entity.Action01Block.ActionBlockType;
 
 public class LogEventInteract extends PlayerLoggerEvent<PlayerInteractEvent>
 {
 
+    public RecentAction recentAction;
+
     public LogEventInteract(PlayerInteractEvent event)
     {
         super(event);
+        if (!(event instanceof LeftClickBlock))
+            recentAction = addRecentAction(event.getWorld(), event.getPos(),
+                    (event instanceof LeftClickEmpty) ? ActionBlockType.USE_LEFT : ActionBlockType.USE_RIGHT, null, 0, event.getEntityPlayer());
     }
 
     @Override
@@ -27,7 +31,7 @@ public class LogEventInteract extends PlayerLoggerEvent<PlayerInteractEvent>
         if (event instanceof LeftClickBlock)
             return;
         Action01Block action = new Action01Block();
-        action.time = new Date();
+        action.time = date;
         action.player = getPlayer(event.getEntityPlayer());
         action.world = getWorld(event.getWorld().provider.getDimension());
         // action.block = getBlock(block);
@@ -36,7 +40,7 @@ public class LogEventInteract extends PlayerLoggerEvent<PlayerInteractEvent>
         action.x = event.getPos().getX();
         action.y = event.getPos().getY();
         action.z = event.getPos().getZ();
-        em.persist(action);
+        persist(em, action, recentAction);
     }
     
 }
\ No newline at end of file
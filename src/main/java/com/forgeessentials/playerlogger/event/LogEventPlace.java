@@ -1,28 +1,31 @@
 package com.forgeessentials.playerlogger.event;
 
-import java.util.Date;
-
 import javax.persistence.EntityManager;
 
 import net.minecraftforge.event.world.BlockEvent;
 
 import com.forgeessentials.playerlogger.PlayerLoggerEvent;
+import com.forgeessentials.playerlogger.RecentActionIndex.RecentAction;
 import com.forgeessentials.playerlogger.entity.Action01Block;
 import com.forgeessentials.playerlogger.entity.Action01Block.ActionBlockType;
 
 public class LogEventPlace extends PlayerLoggerEvent<BlockEvent.PlaceEvent>
 {
 
+    public RecentAction recentAction;
+
     public LogEventPlace(BlockEvent.PlaceEvent event)
     {
         super(event);
+        recentAction = addRecentAction(event.getWorld(), event.getPos(), ActionBlockType.PLACE, event.getState().getBlock(),
+                event.getState().getBlock().getMetaFromState(event.getState()), event.getPlayer());
     }
 
     @Override
     public void process(EntityManager em)
     {
         Action01Block action = new Action01Block();
-        action.time = new Date();
+        action.time = date;
         action.player = getPlayer(event.getPlayer());
         action.world = getWorld(event.getWorld().provider.getDimension());
         action.block = getBlock(event.getState().getBlock());
@@ -31,7 +34,7 @@ public class LogEventPlace extends PlayerLoggerEvent<BlockEvent.PlaceEvent>
         action.x = event.getPos().getX();
         action.y = event.getPos().getY();
         action.z = event.getPos().getZ();
-        em.persist(action);
+        persist(em, action, recentAction);
     }
 
 }
\ No newline at end of file
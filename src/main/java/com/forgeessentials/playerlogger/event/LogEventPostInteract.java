@@ -1,28 +1,30 @@
 package com.forgeessentials.playerlogger.event;
 
-import java.util.Date;
-
 import javax.persistence.EntityManager;
 
 import net.minecraftforge.fe.event.player.PlayerPostInteractEvent;
 
 import com.forgeessentials.playerlogger.PlayerLoggerEvent;
+import com.forgeessentials.playerlogger.RecentActionIndex.RecentAction;
 import com.forgeessentials.playerlogger.entity.Action01Block;
 import com.forgeessentials.playerlogger.entity.Action01Block.ActionBlockType;
 
 public class LogEventPostInteract extends PlayerLoggerEvent<PlayerPostInteractEvent>
 {
 
+    public RecentAction recentAction;
+
     public LogEventPostInteract(PlayerPostInteractEvent event)
     {
         super(event);
+        recentAction = addRecentAction(event.world, event.pos, ActionBlockType.USE_RIGHT, null, 0, event.getEntityPlayer());
     }
 
     @Override
     public void process(EntityManager em)
     {
         Action01Block action = new Action01Block();
-        action.time = new Date();
+        action.time = date;
         action.player = getPlayer(event.getEntityPlayer());
         action.world = getWorld(event.world.provider.getDimension());
         // action.block = getBlock(block);
@@ -31,7 +33,7 @@ public class LogEventPostInteract extends PlayerLoggerEvent<PlayerPostInteractEv
         action.x = event.pos.getX();
         action.y = event.pos.getY();
         action.z = event.pos.getZ();
-        em.persist(action);
+        persist(em, action, recentAction);
     }
     
 }
\ No newline at end of file
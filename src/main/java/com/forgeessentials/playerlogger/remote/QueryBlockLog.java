@@ -8,6 +8,7 @@ import com.forgeessentials.api.remote.RemoteRequest;
 import com.forgeessentials.api.remote.RemoteResponse;
 import com.forgeessentials.api.remote.RemoteSession;
 import com.forgeessentials.playerlogger.ModulePlayerLogger;
+import com.forgeessentials.playerlogger.PlayerLogger;
 import com.forgeessentials.playerlogger.entity.Action01Block;
 import com.forgeessentials.remote.RemoteMessageID;
 
@@ -24,11 +25,20 @@ public class QueryBlockLog extends GenericRemoteHandler<QueryLogRequest>
     protected RemoteResponse<QueryLogResponse<Action01Block>> handleData(RemoteSession session, RemoteRequest<QueryLogRequest> request)
     {
         QueryLogRequest data = request.data == null ? new QueryLogRequest() : request.data;
+        PlayerLogger logger = ModulePlayerLogger.getLogger();
         List<Action01Block> result;
         if (data.hasArea())
-            result = ModulePlayerLogger.getLogger().getLoggedBlockChanges(data.getArea(), data.startTime, data.endTime, 0, data.getLimit());
+        {
+            result = logger.getRecentActions().getLoggedBlockChanges(data.getArea(), data.startTime, data.endTime, 0, data.getLimit());
+            if (result == null)
+                result = logger.getLoggedBlockChanges(data.getArea(), data.startTime, data.endTime, 0, data.getLimit());
+        }
         else
-            result = ModulePlayerLogger.getLogger().getLoggedBlockChanges(data.getPoint(), data.startTime, data.endTime, 0, data.getLimit());
+        {
+            result = logger.getRecentActions().getLoggedBlockChanges(data.getPoint(), data.startTime, data.endTime, 0, data.getLimit());
+            if (result == null)
+                result = logger.getLoggedBlockChanges(data.getPoint(), data.startTime, data.endTime, 0, data.getLimit());
+        }
         return new RemoteResponse<>(request, new QueryLogResponse<>(request.data, result));
     }
 
@@ -60,6 +60,8 @@ import com.forgeessentials.core.ForgeEssentials;
 import com.forgeessentials.core.misc.FECommandManager;
 import com.forgeessentials.core.misc.TaskRegistry;
 import com.forgeessentials.core.moduleLauncher.FEModule;
+import com.forgeessentials.protection.PermissionNodeTable.BlockAction;
+import com.forgeessentials.protection.PermissionNodeTable.ItemAction;
 import com.forgeessentials.protection.commands.CommandItemPermission;
 import com.forgeessentials.protection.commands.CommandProtectionDebug;
 import com.forgeessentials.util.ServerUtil;
@@ -153,9 +155,13 @@ public class ModuleProtection
 
     /* ------------------------------------------------------------ */
 
-    @SuppressWarnings("unused")
+    @FEModule.Instance
+    protected static ModuleProtection instance;
+
     private ProtectionEventHandler protectionHandler;
 
+    private static PermissionNodeTable permissionNodes = new PermissionNodeTable();
+
     @SubscribeEvent
     public void load(FEModuleInitEvent e)
     {
@@ -166,6 +172,13 @@ public class ModuleProtection
         // FECommandManager.registerCommand(new CommandPlaceblock());
     }
 
+    public static SpawnPermissionCache getSpawnPermissionCache()
+    {
+        if (instance == null || instance.protectionHandler == null)
+            return null;
+        return instance.protectionHandler.getSpawnPermissionCache();
+    }
+
     public static String getItemName(Item item)
     {
         try
@@ -233,6 +246,8 @@ public class ModuleProtection
             APIRegistry.perms.registerPermission(mobType.getDamageToPermission(), DefaultPermissionLevel.ALL, "");
         }
 
+        permissionNodes.build();
+
         // ----------------------------------------
         // Register items
         APIRegistry.perms.registerPermission(PERM_USE + Zone.ALL_PERMS, DefaultPermissionLevel.ALL, "Allow using items");
@@ -350,52 +365,52 @@ public class ModuleProtection
 
     public static String getBlockBreakPermission(IBlockState blockState)
     {
-        return ModuleProtection.PERM_BREAK + "." + getBlockPermission(blockState);
+        return permissionNodes.getBlockPermission(BlockAction.BREAK, blockState);
     }
 
     public static String getBlockTramplePermission(IBlockState blockState)
     {
-        return PERM_TRAMPLE + "." + getBlockPermission(blockState);
+        return permissionNodes.getBlockPermission(BlockAction.TRAMPLE, blockState);
     }
 
     public static String getBlockPlacePermission(IBlockState blockState)
     {
-        return ModuleProtection.PERM_PLACE + "." + getBlockPermission(blockState);
+        return permissionNodes.getBlockPermission(BlockAction.PLACE, blockState);
     }
 
     public static String getBlockInteractPermission(IBlockState blockState)
     {
-        return ModuleProtection.PERM_INTERACT + "." + getBlockPermission(blockState);
+        return permissionNodes.getBlockPermission(BlockAction.INTERACT, blockState);
     }
 
     public static String getBlockExplosionPermission(IBlockState blockState)
     {
-        return ModuleProtection.PERM_EXPLODE + "." + getBlockPermission(blockState);
+        return permissionNodes.getBlockPermission(BlockAction.EXPLODE, blockState);
     }
 
     public static String getBlockBreakPermission(Block block, int meta)
     {
-        return PERM_BREAK + "." + getBlockPermission(block, meta);
+        return permissionNodes.getBlockPermission(BlockAction.BREAK, block, meta);
     }
 
     public static String getBlockTramplePermission(Block block, int meta)
     {
-        return PERM_TRAMPLE + "." + getBlockPermission(block, meta);
+        return permissionNodes.getBlockPermission(BlockAction.TRAMPLE, block, meta);
     }
 
     public static String getBlockPlacePermission(Block block, int meta)
     {
-        return PERM_PLACE + "." + getBlockPermission(block, meta);
+        return permissionNodes.getBlockPermission(BlockAction.PLACE, block, meta);
     }
 
     public static String getBlockInteractPermission(Block block, int meta)
     {
-        return PERM_INTERACT + "." + getBlockPermission(block, meta);
+        return permissionNodes.getBlockPermission(BlockAction.INTERACT, block, meta);
     }
 
     public static String getBlockExplosionPermission(Block block, int meta)
     {
-        return PERM_EXPLODE + "." + getBlockPermission(block, meta);
+        return permissionNodes.getBlockPermission(BlockAction.EXPLODE, block, meta);
     }
 
     /* ------------------------------------------------------------ */
@@ -431,17 +446,17 @@ public class ModuleProtection
 
     public static String getItemUsePermission(ItemStack stack)
     {
-        return PERM_USE + "." + getItemPermission(stack);
+        return permissionNodes.getItemPermission(ItemAction.USE, stack);
     }
 
     public static String getItemBanPermission(ItemStack stack)
     {
-        return PERM_EXIST + "." + getItemPermission(stack);
+        return permissionNodes.getItemPermission(ItemAction.EXIST, stack);
     }
 
     public static String getItemInventoryPermission(ItemStack stack)
     {
-        return PERM_INVENTORY + "." + getItemPermission(stack);
+        return permissionNodes.getItemPermission(ItemAction.INVENTORY, stack);
     }
 
     /* ------------------------------------------------------------ */
@@ -465,7 +480,7 @@ public class ModuleProtection
 
     public static String getCraftingPermission(ItemStack stack)
     {
-        return PERM_CRAFT + "." + getItemPermission(stack, true);
+        return permissionNodes.getItemPermission(ItemAction.CRAFT, stack);
     }
 
     public static boolean canCraft(EntityPlayer player, ItemStack result)
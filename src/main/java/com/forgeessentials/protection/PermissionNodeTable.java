@@ -0,0 +1,206 @@
+package com.forgeessentials.protection;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraftforge.fml.common.registry.ForgeRegistries;
+
+import com.forgeessentials.util.ServerUtil;
+import com.forgeessentials.util.output.LoggingHandler;
+
+/**
+ * Table of pre-built block and item permission nodes, indexed by block id + meta and item id + damage.
+ *
+ * The table is built once the registries are frozen, so the protection event handlers do not need to concatenate
+ * permission nodes for every event. Blocks and items which are not part of the table (or item damage values above
+ * {@link #ITEM_META_COUNT}) fall back to building the node.
+ */
+public class PermissionNodeTable
+{
+
+    public static enum BlockAction
+    {
+        BREAK(ModuleProtection.PERM_BREAK), PLACE(ModuleProtection.PERM_PLACE), INTERACT(ModuleProtection.PERM_INTERACT), TRAMPLE(
+                ModuleProtection.PERM_TRAMPLE), EXPLODE(ModuleProtection.PERM_EXPLODE);
+
+        private final String basePermission;
+
+        private BlockAction(String basePermission)
+        {
+            this.basePermission = basePermission;
+        }
+
+        public String getBasePermission()
+        {
+            return basePermission;
+        }
+    }
+
+    public static enum ItemAction
+    {
+        USE(ModuleProtection.PERM_USE), EXIST(ModuleProtection.PERM_EXIST), INVENTORY(ModuleProtection.PERM_INVENTORY), CRAFT(ModuleProtection.PERM_CRAFT);
+
+        private final String basePermission;
+
+        private ItemAction(String basePermission)
+        {
+            this.basePermission = basePermission;
+        }
+
+        public String getBasePermission()
+        {
+            return basePermission;
+        }
+    }
+
+    public static final int BLOCK_META_COUNT = 16;
+
+    /**
+     * Nodes are only cached for item damage values below this limit
+     */
+    public static final int ITEM_META_COUNT = 64;
+
+    private static final int WILDCARD_META = 32767;
+
+    private static final BlockAction[] BLOCK_ACTIONS = BlockAction.values();
+
+    private static final ItemAction[] ITEM_ACTIONS = ItemAction.values();
+
+    /**
+     * Permission name of each block by block id (e.g. {@code minecraft.stone})
+     */
+    private String[] blockNames = new String[0];
+
+    /**
+     * Nodes by [block id][meta][action]
+     */
+    private String[][][] blockNodes = new String[0][][];
+
+    private String[] itemNames = new String[0];
+
+    /**
+     * Nodes by [item id][damage][action]
+     */
+    private String[][][] itemNodes = new String[0][][];
+
+    // ------------------------------------------------------------
+
+    public void build()
+    {
+        int maxBlockId = 0;
+        for (Block block : ForgeRegistries.BLOCKS.getValues())
+            maxBlockId = Math.max(maxBlockId, Block.getIdFromBlock(block));
+        String[] newBlockNames = new String[maxBlockId + 1];
+        String[][][] newBlockNodes = new String[maxBlockId + 1][][];
+        for (Block block : ForgeRegistries.BLOCKS.getValues())
+        {
+            int id = Block.getIdFromBlock(block);
+            if (id < 0)
+                continue;
+            String name = ServerUtil.getBlockPermission(block);
+            String[][] nodes = new String[BLOCK_META_COUNT][];
+            nodes[0] = createBlockNodes(name);
+            try
+            {
+                for (IBlockState state : block.getBlockState().getValidStates())
+                {
+                    int meta = block.getMetaFromState(state);
+                    if (meta > 0 && meta < BLOCK_META_COUNT && nodes[meta] == null)
+                        nodes[meta] = createBlockNodes(name + "." + meta);
+                }
+            }
+            catch (RuntimeException e)
+            {
+                LoggingHandler.felog.debug(String.format("Could not get block states of %s: %s", name, e.getMessage()));
+            }
+            newBlockNames[id] = name;
+            newBlockNodes[id] = nodes;
+        }
+
+        int maxItemId = 0;
+        for (Item item : ForgeRegistries.ITEMS.getValues())
+            maxItemId = Math.max(maxItemId, Item.getIdFromItem(item));
+        String[] newItemNames = new String[maxItemId + 1];
+        String[][][] newItemNodes = new String[maxItemId + 1][][];
+        for (Item item : ForgeRegistries.ITEMS.getValues())
+        {
+            int id = Item.getIdFromItem(item);
+            if (id < 0)
+                continue;
+            String name = ServerUtil.getItemPermission(item);
+            String[][] nodes = new String[ITEM_META_COUNT][];
+            nodes[0] = createItemNodes(name);
+            newItemNames[id] = name;
+            newItemNodes[id] = nodes;
+        }
+
+        blockNames = newBlockNames;
+        blockNodes = newBlockNodes;
+        itemNames = newItemNames;
+        itemNodes = newItemNodes;
+    }
+
+    private static String[] createBlockNodes(String blockPermission)
+    {
+        String[] nodes = new String[BLOCK_ACTIONS.length];
+        for (BlockAction action : BLOCK_ACTIONS)
+            nodes[action.ordinal()] = (action.getBasePermission() + "." + blockPermission).intern();
+        return nodes;
+    }
+
+    private static String[] createItemNodes(String itemPermission)
+    {
+        String[] nodes = new String[ITEM_ACTIONS.length];
+        for (ItemAction action : ITEM_ACTIONS)
+            nodes[action.ordinal()] = (action.getBasePermission() + "." + itemPermission).intern();
+        return nodes;
+    }
+
+    // ------------------------------------------------------------
+
+    public String getBlockPermission(BlockAction action, IBlockState blockState)
+    {
+        Block block = blockState.getBlock();
+        return getBlockPermission(action, block, block.getMetaFromState(blockState));
+    }
+
+    public String getBlockPermission(BlockAction action, Block block, int meta)
+    {
+        if (meta == WILDCARD_META)
+            meta = 0;
+        int id = Block.getIdFromBlock(block);
+        String[] names = blockNames;
+        String[][][] table = blockNodes;
+        if (id < 0 || id >= table.length || table[id] == null || meta < 0 || meta >= BLOCK_META_COUNT)
+            return action.getBasePermission() + "." + ModuleProtection.getBlockPermission(block, meta);
+        String[] nodes = table[id][meta];
+        if (nodes == null)
+        {
+            nodes = createBlockNodes(names[id] + "." + meta);
+            table[id][meta] = nodes;
+        }
+        return nodes[action.ordinal()];
+    }
+
+    public String getItemPermission(ItemAction action, ItemStack stack)
+    {
+        Item item = stack.getItem();
+        int damage = stack.getItemDamage();
+        if (damage == WILDCARD_META)
+            damage = 0;
+        int id = item == null ? -1 : Item.getIdFromItem(item);
+        String[] names = itemNames;
+        String[][][] table = itemNodes;
+        if (id < 0 || id >= table.length || table[id] == null || damage < 0 || damage >= ITEM_META_COUNT)
+            return action.getBasePermission() + "." + ModuleProtection.getItemPermission(stack, true);
+        String[] nodes = table[id][damage];
+        if (nodes == null)
+        {
+            nodes = createItemNodes(names[id] + "." + damage);
+            table[id][damage] = nodes;
+        }
+        return nodes[action.ordinal()];
+    }
+
+}
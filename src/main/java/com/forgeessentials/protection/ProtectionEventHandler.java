@@ -4,10 +4,13 @@ import static net.minecraftforge.fml.common.eventhandler.Event.Result.ALLOW;
 import static net.minecraftforge.fml.common.eventhandler.Event.Result.DENY;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -32,6 +35,7 @@ import net.minecraft.util.math.RayTraceResult;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.Explosion;
 import net.minecraft.world.GameType;
+import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.util.BlockSnapshot;
 import net.minecraftforge.event.entity.EntityEvent;
@@ -52,7 +56,9 @@ import net.minecraftforge.event.entity.player.PlayerSleepInBedEvent;
 import net.minecraftforge.event.world.BlockEvent;
 import net.minecraftforge.event.world.BlockEvent.BreakEvent;
 import net.minecraftforge.event.world.BlockEvent.HarvestDropsEvent;
+import net.minecraftforge.event.world.ChunkEvent;
 import net.minecraftforge.event.world.ExplosionEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fe.event.entity.EntityAttackedEvent;
 import net.minecraftforge.fe.event.entity.FallOnBlockEvent;
 import net.minecraftforge.fe.event.world.FireEvent;
@@ -71,6 +77,7 @@ import net.minecraftforge.fml.relauncher.Side;
 import com.forgeessentials.api.APIRegistry;
 import com.forgeessentials.api.UserIdent;
 import com.forgeessentials.api.permissions.AreaZone;
+import com.forgeessentials.api.permissions.PermissionEvent;
 import com.forgeessentials.api.permissions.PermissionEvent.Group;
 import com.forgeessentials.api.permissions.PermissionEvent.User;
 import com.forgeessentials.api.permissions.WorldZone;
@@ -103,6 +110,8 @@ public class ProtectionEventHandler extends ServerEventHandler
 
     private Set<Entity> attackedEntities = new HashSet<>();
 
+    private SpawnPermissionCache spawnPermissionCache = new SpawnPermissionCache();
+
     /* ------------------------------------------------------------ */
     /* Entity permissions */
 
@@ -407,13 +416,24 @@ public class ProtectionEventHandler extends ServerEventHandler
         else if (exploder instanceof EntityLiving)
             ident = APIRegistry.IDENT_NPC;
 
+        final World world = event.getWorld();
+        final Map<IBlockState, String> permissions = new IdentityHashMap<>();
         List<BlockPos> positions = event.getExplosion().getAffectedBlockPositions();
-        for (Iterator<BlockPos> it = positions.iterator(); it.hasNext();)
+        BitSet allowed = APIRegistry.perms.checkUserPermissions(ident, world.provider.getDimension(), positions, pos -> {
+            IBlockState state = world.getBlockState(pos);
+            String permission = permissions.get(state);
+            if (permission == null)
+            {
+                permission = ModuleProtection.getBlockExplosionPermission(state);
+                permissions.put(state, permission);
+            }
+            return permission;
+        });
+        int index = 0;
+        for (Iterator<BlockPos> it = positions.iterator(); it.hasNext(); index++)
         {
-            BlockPos pos = it.next();
-            WorldPoint point = new WorldPoint(event.getWorld(), pos);
-            String permission = ModuleProtection.getBlockExplosionPermission(point.getWorld().getBlockState(pos));
-            if (!APIRegistry.perms.checkUserPermission(ident, point, permission))
+            it.next();
+            if (!allowed.get(index))
                 it.remove();
         }
     }
@@ -561,19 +581,8 @@ public class ProtectionEventHandler extends ServerEventHandler
             return;
         if (!(event.getEntityLiving() instanceof EntityLiving))
             return;
-        EntityLiving entity = (EntityLiving) event.getEntityLiving();
-        WorldPoint point = new WorldPoint(entity);
-        // TODO: Create a cache for spawn permissions
-        if (!APIRegistry.perms.checkUserPermission(null, point, ModuleProtection.PERM_MOBSPAWN_NATURAL + "." + EntityList.getEntityString(entity)))
-        {
-            event.setResult(Result.DENY);
-            return;
-        }
-        if (!APIRegistry.perms.checkUserPermission(null, point, MobType.getMobType(entity).getSpawnPermission(false)))
-        {
+        if (!spawnPermissionCache.isSpawnAllowed((EntityLiving) event.getEntityLiving(), false))
             event.setResult(Result.DENY);
-            return;
-        }
     }
 
     @SubscribeEvent(priority = EventPriority.HIGHEST)
@@ -583,18 +592,29 @@ public class ProtectionEventHandler extends ServerEventHandler
             return;
         if (!(event.getEntityLiving() instanceof EntityLiving))
             return;
-        EntityLiving entity = (EntityLiving) event.getEntityLiving();
-        WorldPoint point = new WorldPoint(entity);
-        if (!APIRegistry.perms.checkUserPermission(null, point, ModuleProtection.PERM_MOBSPAWN_FORCED + "." + EntityList.getEntityString(entity)))
-        {
+        if (!spawnPermissionCache.isSpawnAllowed((EntityLiving) event.getEntityLiving(), true))
             event.setResult(Result.DENY);
+    }
+
+    @SubscribeEvent
+    public void chunkUnloadEvent(ChunkEvent.Unload event)
+    {
+        if (event.getWorld().isRemote)
             return;
-        }
-        if (!APIRegistry.perms.checkUserPermission(null, point, MobType.getMobType(entity).getSpawnPermission(true)))
-        {
-            event.setResult(Result.DENY);
+        spawnPermissionCache.unloadChunk(event.getWorld().provider.getDimension(), event.getChunk().x, event.getChunk().z);
+    }
+
+    @SubscribeEvent
+    public void worldUnloadEvent(WorldEvent.Unload event)
+    {
+        if (event.getWorld().isRemote)
             return;
-        }
+        spawnPermissionCache.unloadWorld(event.getWorld().provider.getDimension());
+    }
+
+    public SpawnPermissionCache getSpawnPermissionCache()
+    {
+        return spawnPermissionCache;
     }
 
     /* ------------------------------------------------------------ */
@@ -892,6 +912,8 @@ public class ProtectionEventHandler extends ServerEventHandler
     @SubscribeEvent
     public void permissionChange(Group.ModifyPermission e)
     {
+        if (SpawnPermissionCache.affectsMobSpawn(e.permissionNode))
+            spawnPermissionCache.invalidate();
         if (e.serverZone.getGroupPlayers().get(e.group) == null)
             return;
         for (UserIdent ident : e.serverZone.getGroupPlayers().get(e.group))
@@ -901,6 +923,18 @@ public class ProtectionEventHandler extends ServerEventHandler
         }
     }
 
+    @SubscribeEvent
+    public void permissionChange(Group.Delete e)
+    {
+        spawnPermissionCache.invalidate();
+    }
+
+    @SubscribeEvent
+    public void permissionsLoaded(PermissionEvent.AfterLoad e)
+    {
+        spawnPermissionCache.invalidate();
+    }
+
     /* ------------------------------------------------------------ */
 
     public static String getEntityName(Entity target)
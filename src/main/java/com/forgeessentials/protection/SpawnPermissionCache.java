@@ -0,0 +1,233 @@
+package com.forgeessentials.protection;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityList;
+import net.minecraft.entity.EntityLiving;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+
+import com.forgeessentials.api.APIRegistry;
+import com.forgeessentials.api.permissions.FEPermissions;
+import com.forgeessentials.api.permissions.PermissionNodeTrie;
+import com.forgeessentials.api.permissions.WorldZone;
+import com.forgeessentials.commons.selections.WorldPoint;
+
+/**
+ * Caches the result of mob-spawn permission checks per (dimension, chunk, entity type, natural/forced).
+ *
+ * Results are only cached for chunks which are either fully covered by or completely outside of every area zone, so
+ * every position in the chunk resolves to the same zones. Cached results of a dimension are dropped as soon as its
+ * area zones change, and all results are dropped when group permissions that could affect mob spawning change.
+ */
+public class SpawnPermissionCache
+{
+
+    private static final byte UNKNOWN = 0;
+    private static final byte ALLOWED = 1;
+    private static final byte DENIED = 2;
+
+    private static final int RESULT_SLOTS = MobType.values().length * 2;
+
+    private final Map<Integer, DimensionCache> dimensions = new HashMap<>();
+
+    private long hits;
+
+    private long misses;
+
+    private long uncached;
+
+    private long denials;
+
+    private static class DimensionCache
+    {
+
+        final WorldZone worldZone;
+
+        final int revision;
+
+        final Long2ObjectMap<ChunkCache> chunks = new Long2ObjectOpenHashMap<>();
+
+        DimensionCache(WorldZone worldZone)
+        {
+            this.worldZone = worldZone;
+            this.revision = worldZone.getAreaZoneRevision();
+        }
+
+        boolean isValid(WorldZone currentZone)
+        {
+            return worldZone == currentZone && revision == currentZone.getAreaZoneRevision();
+        }
+
+    }
+
+    private static class ChunkCache
+    {
+
+        final boolean uniform;
+
+        /**
+         * Results per entity class, indexed by {@link MobType} and natural/forced spawn
+         */
+        final Map<Class<? extends Entity>, byte[]> results = new IdentityHashMap<>();
+
+        ChunkCache(boolean uniform)
+        {
+            this.uniform = uniform;
+        }
+
+    }
+
+    // ------------------------------------------------------------
+
+    public boolean isSpawnAllowed(EntityLiving entity, boolean forced)
+    {
+        MobType mobType = MobType.getMobType(entity);
+        ChunkCache chunk = getChunk(entity.dimension, MathHelper.floor(entity.posX) >> 4, MathHelper.floor(entity.posZ) >> 4);
+        int slot = mobType.ordinal() * 2 + (forced ? 1 : 0);
+
+        byte[] results = null;
+        if (chunk.uniform)
+        {
+            results = chunk.results.get(entity.getClass());
+            if (results != null && results[slot] != UNKNOWN)
+            {
+                hits++;
+                if (results[slot] == DENIED)
+                {
+                    denials++;
+                    return false;
+                }
+                return true;
+            }
+            misses++;
+        }
+        else
+        {
+            uncached++;
+        }
+
+        boolean allowed = checkSpawnPermission(entity, mobType, forced);
+        if (!allowed)
+            denials++;
+        if (chunk.uniform)
+        {
+            if (results == null)
+            {
+                results = new byte[RESULT_SLOTS];
+                chunk.results.put(entity.getClass(), results);
+            }
+            results[slot] = allowed ? ALLOWED : DENIED;
+        }
+        return allowed;
+    }
+
+    public static boolean checkSpawnPermission(EntityLiving entity, MobType mobType, boolean forced)
+    {
+        WorldPoint point = new WorldPoint(entity);
+        String basePermission = forced ? ModuleProtection.PERM_MOBSPAWN_FORCED : ModuleProtection.PERM_MOBSPAWN_NATURAL;
+        if (!APIRegistry.perms.checkUserPermission(null, point, basePermission + "." + EntityList.getEntityString(entity)))
+            return false;
+        return APIRegistry.perms.checkUserPermission(null, point, mobType.getSpawnPermission(forced));
+    }
+
+    private ChunkCache getChunk(int dimension, int chunkX, int chunkZ)
+    {
+        WorldZone worldZone = APIRegistry.perms.getServerZone().getWorldZone(dimension);
+        DimensionCache dimCache = dimensions.get(dimension);
+        if (dimCache == null || !dimCache.isValid(worldZone))
+        {
+            dimCache = new DimensionCache(worldZone);
+            dimensions.put(dimension, dimCache);
+        }
+        long key = ChunkPos.asLong(chunkX, chunkZ);
+        ChunkCache chunk = dimCache.chunks.get(key);
+        if (chunk == null)
+        {
+            chunk = new ChunkCache(worldZone.isChunkUniform(chunkX, chunkZ));
+            dimCache.chunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    // ------------------------------------------------------------
+
+    /**
+     * Checks, if a change to the passed permission node could change the result of a mob-spawn permission check
+     */
+    public static boolean affectsMobSpawn(String permissionNode)
+    {
+        if (permissionNode == null)
+            return true;
+        if (permissionNode.startsWith(ModuleProtection.PERM_MOBSPAWN))
+            return true;
+        if (permissionNode.equals(FEPermissions.GROUP_INCLUDES) || permissionNode.equals(FEPermissions.GROUP_PARENTS)
+                || permissionNode.equals(FEPermissions.GROUP_PRIORITY))
+            return true;
+        if (PermissionNodeTrie.isWildcard(permissionNode))
+            return ModuleProtection.PERM_MOBSPAWN.startsWith(permissionNode.substring(0, permissionNode.length() - 1));
+        return false;
+    }
+
+    public void invalidate()
+    {
+        dimensions.clear();
+    }
+
+    public void unloadChunk(int dimension, int chunkX, int chunkZ)
+    {
+        DimensionCache dimCache = dimensions.get(dimension);
+        if (dimCache != null)
+            dimCache.chunks.remove(ChunkPos.asLong(chunkX, chunkZ));
+    }
+
+    public void unloadWorld(int dimension)
+    {
+        dimensions.remove(dimension);
+    }
+
+    public void resetStatistics()
+    {
+        hits = 0;
+        misses = 0;
+        uncached = 0;
+        denials = 0;
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (DimensionCache dimCache : dimensions.values())
+            size += dimCache.chunks.size();
+        return size;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Number of checks in chunks which are only partially covered by area zones and can not be cached
+     */
+    public long getUncached()
+    {
+        return uncached;
+    }
+
+    public long getDenials()
+    {
+        return denials;
+    }
+
+}
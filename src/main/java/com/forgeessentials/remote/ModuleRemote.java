@@ -103,6 +103,10 @@ public class ModuleRemote extends ConfigLoaderBase implements RemoteManager
 
     protected boolean useSSL;
 
+    protected int ioThreads;
+
+    protected int handlerThreads;
+
     protected Server server;
 
     protected Map<String, RemoteHandler> handlers = new HashMap<>();
@@ -183,6 +187,8 @@ public class ModuleRemote extends ConfigLoaderBase implements RemoteManager
                         "Protect the communication against network sniffing by encrypting traffic with SSL (You don't really need it - believe me)")
                 .getBoolean();
         passkeyLength = config.get(CONFIG_CAT, "passkey_length", 6, "Length of the randomly generated passkeys").getInt();
+        ioThreads = config.get(CONFIG_CAT, "io_threads", 2, "Number of threads handling network IO for all remote sessions").getInt();
+        handlerThreads = config.get(CONFIG_CAT, "handler_threads", 4, "Number of threads handling remote requests").getInt();
         if (mcServerStarted)
             startServer();
     }
@@ -216,7 +222,7 @@ public class ModuleRemote extends ConfigLoaderBase implements RemoteManager
                     {
                         SSLContextHelper sslCtxHelper = new SSLContextHelper();
                         sslCtxHelper.loadSSLCertificate(is, certificatePassword, certificatePassword);
-                        server = new Server(port, bindAddress, sslCtxHelper.getSSLCtx());
+                        server = new Server(port, bindAddress, sslCtxHelper.getSSLCtx(), ioThreads, handlerThreads);
                     }
                     else
                         LoggingHandler.felog.error("[remote] Unable to load SSL certificate: File not found");
@@ -228,7 +234,7 @@ public class ModuleRemote extends ConfigLoaderBase implements RemoteManager
             }
             else
             {
-                server = new Server(port, bindAddress);
+                server = new Server(port, bindAddress, null, ioThreads, handlerThreads);
             }
         }
         catch (IOException e1)
@@ -0,0 +1,83 @@
+package com.forgeessentials.remote;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+
+/**
+ * Splits the remote protocol stream into frames at {@link Session#SEPARATOR}.
+ *
+ * Only bytes that arrived since the last call are scanned for the separator, so a frame is decoded in linear time no
+ * matter in how many chunks it is received. Frames are passed on as slices of the cumulation buffer without copying or
+ * decoding them into strings.
+ */
+public class RemoteFrameDecoder extends ByteToMessageDecoder
+{
+
+    private final byte[] separator;
+
+    private final int maxFrameSize;
+
+    /**
+     * Number of bytes of the current frame which are known not to start a separator
+     */
+    private int scanned;
+
+    public RemoteFrameDecoder(String separator, int maxFrameSize)
+    {
+        this.separator = separator.getBytes(StandardCharsets.UTF_8);
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception
+    {
+        while (in.isReadable())
+        {
+            int frameLength = findSeparator(in);
+            if (frameLength < 0)
+            {
+                if (in.readableBytes() > maxFrameSize + separator.length)
+                    throw new TooLongFrameException("Remote message exceeds " + maxFrameSize + " bytes");
+                return;
+            }
+            if (frameLength > maxFrameSize)
+                throw new TooLongFrameException("Remote message exceeds " + maxFrameSize + " bytes");
+            out.add(in.readRetainedSlice(frameLength));
+            in.skipBytes(separator.length);
+            scanned = 0;
+        }
+    }
+
+    /**
+     * Returns the length of the frame at the reader index or -1, if the buffer does not contain a complete frame yet
+     */
+    private int findSeparator(ByteBuf in)
+    {
+        int start = in.readerIndex();
+        int end = in.writerIndex() - separator.length;
+        for (int i = start + scanned; i <= end; i++)
+        {
+            i = in.indexOf(i, end + 1, separator[0]);
+            if (i < 0)
+                break;
+            if (matchesSeparator(in, i))
+                return i - start;
+        }
+        scanned = Math.max(0, in.readableBytes() - separator.length + 1);
+        return -1;
+    }
+
+    private boolean matchesSeparator(ByteBuf in, int index)
+    {
+        for (int j = 1; j < separator.length; j++)
+            if (in.getByte(index + j) != separator[j])
+                return false;
+        return true;
+    }
+
+}
@@ -2,126 +2,131 @@ package com.forgeessentials.remote;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
-import java.security.GeneralSecurityException;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 
 import com.forgeessentials.api.UserIdent;
 import com.forgeessentials.api.remote.RemoteResponse;
 
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+
 /**
+ * Remote server based on non-blocking netty channels.
  *
+ * A small pool of IO threads accepts connections and handles all socket reads and writes. Received messages are split
+ * at {@link Session#SEPARATOR} by the {@link RemoteFrameDecoder} and passed to the session on a separate handler pool,
+ * so slow handlers cannot stall the IO threads. Messages of a single session are always handled in order.
  */
-public class Server implements Runnable
+public class Server
 {
 
-    private final ServerSocket serverSocket;
+    public static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
 
-    private Thread serverThread;
+    private final EventLoopGroup ioGroup;
 
-    private Set<Session> sessions = new HashSet<>();
+    private final EventExecutorGroup handlerGroup;
 
-    /**
-     * @param port
-     * @param hostname
-     */
-    public Server(ServerSocket socket)
-    {
-        serverSocket = socket;
-        serverThread = new Thread(this);
-        serverThread.start();
-    }
+    private final Channel serverChannel;
+
+    private final Set<Session> sessions = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
 
     /**
      * @param port
      * @param hostname
+     * @param sslCtx
+     *            SSL context used to encrypt all connections or null
+     * @param ioThreads
+     *            number of threads handling socket IO
+     * @param handlerThreads
+     *            number of threads handling remote requests
      * @throws IOException
      */
-    public Server(int port, String hostname) throws IOException
+    public Server(int port, String hostname, final SSLContext sslCtx, int ioThreads, int handlerThreads) throws IOException
     {
-        this(new ServerSocket(port, 0, InetAddress.getByName(hostname)));
+        ioGroup = new NioEventLoopGroup(Math.max(1, ioThreads), new DefaultThreadFactory("FE remote IO", true));
+        handlerGroup = new DefaultEventExecutorGroup(Math.max(1, handlerThreads), new DefaultThreadFactory("FE remote handler", true));
+
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(ioGroup);
+        bootstrap.channel(NioServerSocketChannel.class);
+        bootstrap.childOption(ChannelOption.TCP_NODELAY, true);
+        bootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel channel)
+            {
+                ChannelPipeline pipeline = channel.pipeline();
+                if (sslCtx != null)
+                {
+                    SSLEngine engine = sslCtx.createSSLEngine();
+                    engine.setUseClientMode(false);
+                    pipeline.addLast("ssl", new SslHandler(engine));
+                }
+                pipeline.addLast("framer", new RemoteFrameDecoder(Session.SEPARATOR, MAX_MESSAGE_SIZE));
+
+                final Session session = new Session(channel);
+                pipeline.addLast(handlerGroup, "session", session);
+                sessions.add(session);
+                channel.closeFuture().addListener(f -> removeSession(session));
+            }
+        });
+
+        ChannelFuture future = bootstrap.bind(InetAddress.getByName(hostname), port).awaitUninterruptibly();
+        if (!future.isSuccess())
+        {
+            shutdownGroups();
+            throw new IOException(future.cause().getMessage(), future.cause());
+        }
+        serverChannel = future.channel();
     }
 
     /**
-     * @param port
-     * @param hostname
-     * @throws IOException
-     * @throws GeneralSecurityException
+     * Terminates the server
      */
-    public Server(int port, String hostname, SSLContext sslCtx) throws IOException, GeneralSecurityException
+    public void close()
     {
-        this(sslCtx.getServerSocketFactory().createServerSocket(port, 0, InetAddress.getByName(hostname)));
+        RemoteResponse<?> shutdownMessage = RemoteResponse.success("shutdown", 0, "Server shutting down");
+        for (Session session : sessions)
+            session.sendAndClose(shutdownMessage);
+        serverChannel.close().awaitUninterruptibly();
+        shutdownGroups();
     }
 
-    /**
-     * Terminates the server
-     */
-    public synchronized void close()
+    private void shutdownGroups()
     {
-        try
-        {
-            RemoteResponse<?> shutdownMessage = RemoteResponse.success("shutdown", 0, "Server shutting down");
-            for (Session session : sessions)
-            {
-                session.trySendMessage(shutdownMessage);
-                session.close();
-            }
-            serverSocket.close();
-        }
-        catch (IOException e)
-        {
-            /* ignore */
-        }
+        // Pending writes (like the shutdown message) are still flushed during the quiet period
+        ioGroup.shutdownGracefully(100, 2000, TimeUnit.MILLISECONDS);
+        handlerGroup.shutdownGracefully(100, 2000, TimeUnit.MILLISECONDS);
     }
 
-    /*
-     * Server main loop
-     */
-    @Override
-    public void run()
+    private void removeSession(Session session)
     {
-        while (true)
-        {
-            try
-            {
-                cleanSessions();
-                Socket s = serverSocket.accept();
-                Session session = new Session(s);
-                synchronized (this)
-                {
-                    sessions.add(session);
-                }
-            }
-            catch (SocketException e)
-            {
-                /* socket probably closed */
-            }
-            catch (IOException e)
-            {
-                /* some other error */
-            }
-            if (serverSocket.isClosed() || !serverSocket.isBound())
-                break;
-        }
+        if (sessions.remove(session))
+            RemoteCommandSender.unload(session);
     }
 
-    public synchronized void cleanSessions()
+    public void cleanSessions()
     {
-        for (Iterator<Session> it = sessions.iterator(); it.hasNext();)
-        {
-            Session session = it.next();
+        for (Session session : sessions)
             if (session.isClosed())
-            {
-                RemoteCommandSender.unload(session);
-                it.remove();
-            }
-        }
+                removeSession(session);
     }
 
     /**
@@ -129,16 +134,16 @@ public class Server implements Runnable
      */
     public Set<Session> getSessions()
     {
-        return sessions;
+        return Collections.unmodifiableSet(sessions);
     }
 
     /**
      * @return the session
      */
-    public synchronized Session getSession(UserIdent ident)
+    public Session getSession(UserIdent ident)
     {
         for (Session session : sessions)
-            if (session.getUserIdent().equals(ident))
+            if (ident.equals(session.getUserIdent()))
                 return session;
         return null;
     }
@@ -1,9 +1,11 @@
 package com.forgeessentials.remote;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 
 import net.minecraft.server.MinecraftServer;
@@ -23,62 +25,47 @@ import com.forgeessentials.util.output.LoggingHandler;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
 /**
+ * Remote session of a single connection.
  *
+ * Receives the framed messages of its channel from the {@link Server} pipeline. Outgoing messages are queued on the
+ * channel and written by the IO threads, so sending never blocks the caller.
  */
-public class Session implements Runnable, RemoteSession
+public class Session extends SimpleChannelInboundHandler<ByteBuf> implements RemoteSession
 {
 
-    private static final String SEPARATOR = "\n\n\n";
-
-    private final Socket socket;
+    public static final String SEPARATOR = "\n\n\n";
 
-    private final Thread thread;
+    private final Channel channel;
 
-    private UserIdent ident;
+    private volatile UserIdent ident;
 
     /**
-     * @param socket
+     * @param channel
      */
-    public Session(Socket socket)
+    public Session(Channel channel)
     {
-        this.socket = socket;
-        this.thread = new Thread(this);
-        this.thread.start();
+        this.channel = channel;
     }
 
-    /*
-     * Main session loop
-     */
     @Override
-    public void run()
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf message) throws Exception
     {
-        try
-        {
-            final SocketStreamSplitter sss = new SocketStreamSplitter(socket.getInputStream(), SEPARATOR);
-            while (true)
-            {
-                try
-                {
-                    final String msg = sss.readNext();
-                    if (msg == null)
-                    {
-                        // LoggingHandler.felog.warn("[remote] Connection closed: " + getRemoteHostname());
-                        break;
-                    }
-                    processMessage(msg);
-                }
-                catch (IOException e)
-                {
-                    LoggingHandler.felog.debug("[remote] Socket error: " + e.getMessage());
-                    break;
-                }
-            }
-        }
-        catch (IOException e)
-        {
-            LoggingHandler.felog.warn("[remote] Error opening input stream.");
-        }
+        processMessage(new InputStreamReader(new ByteBufInputStream(message), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+    {
+        LoggingHandler.felog.debug("[remote] Socket error: " + cause.getMessage());
         close();
     }
 
@@ -88,11 +75,13 @@ public class Session implements Runnable, RemoteSession
      * @param message
      * @throws IOException
      */
-    protected void processMessage(String message) throws IOException
+    protected void processMessage(Reader message) throws IOException
     {
         try
         {
             JsonRemoteRequest request = getGson().fromJson(message, JsonRemoteRequest.class);
+            if (request == null)
+                return;
 
             LoggingHandler.felog.debug(String.format("[remote] Request [%s]: %s", request.id, request.data == null ? "null" : request.data.toString()));
 
@@ -171,8 +160,7 @@ public class Session implements Runnable, RemoteSession
         catch (IllegalArgumentException | JsonSyntaxException e)
         {
             LoggingHandler.felog.warn("[remote] Message error: " + e.getMessage());
-            sendMessage(RemoteResponse.error(null, 0, e.getMessage()));
-            close();
+            sendAndClose(RemoteResponse.error(null, 0, e.getMessage()));
         }
     }
 
@@ -182,11 +170,52 @@ public class Session implements Runnable, RemoteSession
      * @see com.forgeessentials.api.remote.RemoteSession#sendMessage(java.lang.Object)
      */
     @Override
-    public synchronized void sendMessage(RemoteResponse<?> message) throws IOException
+    public void sendMessage(RemoteResponse<?> message) throws IOException
+    {
+        if (!channel.isActive())
+            throw new IOException("Session closed");
+        channel.writeAndFlush(encode(message));
+    }
+
+    /**
+     * Sends a message and closes the session as soon as it has been written
+     */
+    public void sendAndClose(RemoteResponse<?> message)
     {
-        OutputStreamWriter ow = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
-        ow.write(getGson().toJson(message) + SEPARATOR);
-        ow.flush();
+        if (!channel.isActive())
+        {
+            close();
+            return;
+        }
+        try
+        {
+            channel.writeAndFlush(encode(message)).addListener(ChannelFutureListener.CLOSE);
+        }
+        catch (IOException e)
+        {
+            close();
+        }
+    }
+
+    /**
+     * Serializes a message with its separator directly into a buffer
+     */
+    private ByteBuf encode(RemoteResponse<?> message) throws IOException
+    {
+        ByteBuf buffer = channel.alloc().buffer();
+        boolean encoded = false;
+        try (Writer writer = new OutputStreamWriter(new ByteBufOutputStream(buffer), StandardCharsets.UTF_8))
+        {
+            getGson().toJson(message, writer);
+            writer.write(SEPARATOR);
+            encoded = true;
+        }
+        finally
+        {
+            if (!encoded)
+                buffer.release();
+        }
+        return buffer;
     }
 
     /*
@@ -231,7 +260,7 @@ public class Session implements Runnable, RemoteSession
     @Override
     public String getRemoteHostname()
     {
-        return ((InetSocketAddress) socket.getRemoteSocketAddress()).getHostName();
+        return ((InetSocketAddress) channel.remoteAddress()).getHostName();
     }
 
     /*
@@ -242,7 +271,7 @@ public class Session implements Runnable, RemoteSession
     @Override
     public String getRemoteAddress()
     {
-        return ((InetSocketAddress) socket.getRemoteSocketAddress()).getAddress().getHostAddress();
+        return ((InetSocketAddress) channel.remoteAddress()).getAddress().getHostAddress();
     }
 
     /*
@@ -251,7 +280,7 @@ public class Session implements Runnable, RemoteSession
      * @see com.forgeessentials.api.remote.RemoteSession#getRemoteHostname()
      */
     @Override
-    public synchronized UserIdent getUserIdent()
+    public UserIdent getUserIdent()
     {
         return ident;
     }
@@ -262,14 +291,7 @@ public class Session implements Runnable, RemoteSession
     @Override
     public void close()
     {
-        try
-        {
-            socket.close();
-        }
-        catch (IOException e)
-        {
-            /* ignore */
-        }
+        channel.close();
     }
 
     /**
@@ -280,8 +302,7 @@ public class Session implements Runnable, RemoteSession
     @Override
     public void close(String reason, int rid)
     {
-        trySendMessage(RemoteResponse.error("close", rid, reason));
-        close();
+        sendAndClose(RemoteResponse.error("close", rid, reason));
     }
 
     /**
@@ -292,8 +313,7 @@ public class Session implements Runnable, RemoteSession
     public void close(String error, RemoteRequest<?> request)
     {
         LoggingHandler.felog.warn(String.format("[remote] Error: %s. Terminating session to %s", error, getRemoteAddress()));
-        trySendMessage(RemoteResponse.error("close", request.rid, error));
-        close();
+        sendAndClose(RemoteResponse.error("close", request.rid, error));
     }
 
     /*
@@ -304,7 +324,7 @@ public class Session implements Runnable, RemoteSession
     @Override
     public boolean isClosed()
     {
-        return socket.isClosed();
+        return !channel.isOpen();
     }
 
     /**
@@ -26,9 +26,22 @@ public class ForgeEssentialsEventFactory extends ServerEventHandler
             return;
         EntityPlayerMP player = (EntityPlayerMP) e.player;
         WarpPoint before = lastPlayerPosition.get(player.getPersistentID());
-        WarpPoint current = new WarpPoint(e.player);
+        if (before == null)
+        {
+            lastPlayerPosition.put(player.getPersistentID(), new WarpPoint(e.player));
+            return;
+        }
 
-        if (before != null && !player.isDead && player.world != null && !before.equals(current))
+        // Only create new points if the player actually moved. The stored point was never passed to any event yet, so
+        // it can be updated in place.
+        if (before.getX() == player.posX && before.getY() == player.posY && before.getZ() == player.posZ)
+        {
+            before.set(player.dimension, player.posX, player.posY, player.posZ, player.rotationPitch, player.rotationYaw);
+            return;
+        }
+
+        WarpPoint current = new WarpPoint(e.player);
+        if (!player.isDead && player.world != null)
         {
             PlayerMoveEvent event = new PlayerMoveEvent(player, before, current);
             MinecraftForge.EVENT_BUS.post(event);